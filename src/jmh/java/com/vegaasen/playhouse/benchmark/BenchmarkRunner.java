@@ -0,0 +1,48 @@
+package com.vegaasen.playhouse.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for each thread count in -Dbenchmark.threads (default "1"), e.g
+ * <pre>
+ * java -Dbenchmark.threads=1,2,4 -jar target/benchmarks.jar XmlSigningBenchmark -p extraElements=0,1000
+ * </pre>
+ * All the normal JMH options are accepted. Unless -rf/-rff is given, the results is written as JSON to
+ * jmh-result-&lt;threads&gt;t.json.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class BenchmarkRunner {
+
+    private static final String THREADS_PROPERTY = "benchmark.threads";
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String... args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList() ||
+                commandLineOptions.shouldListProfilers() || commandLineOptions.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        for (final String threads : System.getProperty(THREADS_PROPERTY, "1").split(",")) {
+            final int numOfThreads = Integer.parseInt(threads.trim());
+            final ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLineOptions)
+                    .threads(numOfThreads);
+            if (!commandLineOptions.getResultFormat().hasValue()) {
+                options.resultFormat(ResultFormatType.JSON);
+            }
+            if (!commandLineOptions.getResult().hasValue()) {
+                options.result(String.format("jmh-result-%st.json", numOfThreads));
+            }
+            new Runner(options.build()).run();
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.vegaasen.playhouse.utils.FileUtils;
+import com.vegaasen.playhouse.utils.KeyStoreUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import sun.security.x509.X500Name;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.InputStream;
+import java.security.KeyStore;
+
+/**
+ * Shared fixtures for the benchmarks: documents of different sizes and a fresh self-signed RSA certificate (the
+ * certificates in the bundled keystores has expired).
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+final class BenchmarkSupport {
+
+    static final String DOCUMENT = "samlv2_unsigned.xml";
+    static final String REFERENCE_ID = "#AEA1247AD133724C7566E777C47316CF7220D0B94";
+
+    static final String SIGNING_ALIAS = "benchmark";
+    static final String SIGNING_PASSWORD = "benchmark";
+
+    private static final String SAML_NAMESPACE = "urn:oasis:names:tc:SAML:2.0:assertion";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Parse the default document and add extraElements saml:Attribute-elements to it.
+     *
+     * @param extraElements number of elements to add, 0 gives the document as is (~2kB)
+     * @return the document, with the ID-attribute of the root registered
+     */
+    static Document createDocument(final int extraElements) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final Document document;
+        try (InputStream is = FileUtils.getInstance().getFileAsInputStreamFromClassPath(DOCUMENT)) {
+            document = factory.newDocumentBuilder().parse(is);
+        }
+        final Element root = document.getDocumentElement();
+        root.setIdAttribute("ID", true);
+        final Element statement = document.createElementNS(SAML_NAMESPACE, "saml:AttributeStatement");
+        for (int i = 0; i < extraElements; i++) {
+            final Element attribute = document.createElementNS(SAML_NAMESPACE, "saml:Attribute");
+            attribute.setAttribute("Name", "attribute-" + i);
+            final Element value = document.createElementNS(SAML_NAMESPACE, "saml:AttributeValue");
+            value.setTextContent("value-" + i);
+            attribute.appendChild(value);
+            statement.appendChild(attribute);
+        }
+        if (extraElements > 0) {
+            root.appendChild(statement);
+        }
+        return document;
+    }
+
+    /**
+     * Creates an in-memory keystore with a fresh self-signed RSA certificate, stored as {@link #SIGNING_ALIAS}.
+     *
+     * @return the keystore
+     */
+    static KeyStore createSigningKeyStore() throws Exception {
+        final KeyStore keyStore = KeyStoreUtils.createEmpty(SIGNING_PASSWORD);
+        KeyStoreUtils.createSelfSigned(
+                keyStore,
+                SIGNING_ALIAS,
+                SIGNING_PASSWORD,
+                new X500Name("CN=benchmark, O=PKI_Playhouse"),
+                365);
+        return keyStore;
+    }
+
+}
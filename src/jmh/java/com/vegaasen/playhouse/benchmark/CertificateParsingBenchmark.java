@@ -0,0 +1,61 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.vegaasen.playhouse.utils.CertificateCache;
+import com.vegaasen.playhouse.utils.KeyStoreUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting a X509Certificate from the DER bytes of a partner certificate: a new CertificateFactory for each
+ * certificate (as KeyStoreUtils.getCertificateFromByteArray() used to do), a reused factory, and the
+ * CertificateCache.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CertificateParsingBenchmark {
+
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        final KeyStore keyStore = KeyStoreUtils.load("fun_certificates.jks", "telenor", true);
+        encoded = keyStore.getCertificate("saml:idp.telenor.no").getEncoded();
+    }
+
+    @Benchmark
+    public Certificate newFactory() throws Exception {
+        return CertificateFactory.getInstance("X509").generateCertificate(new ByteArrayInputStream(encoded));
+    }
+
+    @Benchmark
+    public Certificate reusedFactory() throws Exception {
+        return CertificateCache.getCertificateFactory("X509").generateCertificate(new ByteArrayInputStream(encoded));
+    }
+
+    @Benchmark
+    public X509Certificate cached() {
+        return KeyStoreUtils.getCertificateFromByteArray(encoded, "X509");
+    }
+
+}
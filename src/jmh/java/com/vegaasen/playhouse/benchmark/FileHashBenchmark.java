@@ -0,0 +1,81 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.google.common.io.Files;
+import com.vegaasen.playhouse.model.FileHashResult;
+import com.vegaasen.playhouse.types.HashType;
+import com.vegaasen.playhouse.utils.HashUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing a file memory-mapped, streamed through a direct buffer and (as the baseline) read fully into the heap.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileHashBenchmark {
+
+    @Param({"1", "64"})
+    public int megabytes;
+
+    @Param({"SHA_256", "SHA_512"})
+    public HashType hashType;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws Exception {
+        final byte[] content = new byte[megabytes * 1024 * 1024];
+        new Random(1337).nextBytes(content);
+        file = File.createTempFile("filehashbenchmark", ".bin");
+        Files.write(content, file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public FileHashResult mapped() throws Exception {
+        return HashUtils.getHash(file, hashType);
+    }
+
+    @Benchmark
+    public FileHashResult streamed() throws Exception {
+        try (InputStream is = new FileInputStream(file)) {
+            return HashUtils.getHash(Channels.newChannel(is), hashType);
+        }
+    }
+
+    @Benchmark
+    public byte[] readIntoHeap() throws Exception {
+        return MessageDigest.getInstance(hashType.getType()).digest(Files.toByteArray(file));
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.vegaasen.playhouse.model.IntegrityContainer;
+import com.vegaasen.playhouse.utils.HMacUtils;
+import com.vegaasen.playhouse.utils.KeyUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.Key;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Integrity containers using the String- and the byte-based API of HMacUtils.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HMacUtilsBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int messageSize;
+
+    private Key key;
+    private String message;
+    private byte[] messageBytes;
+    private byte[] output;
+    private IntegrityContainer container;
+    private Map<String, String> stringContainer;
+
+    @Setup
+    public void setUp() throws Exception {
+        key = KeyUtils.generateAESKey(KeyUtils.AES_KEY_SIZE_128);
+        final char[] characters = new char[messageSize];
+        Arrays.fill(characters, 'v');
+        message = new String(characters);
+        messageBytes = message.getBytes("UTF-8");
+        output = new byte[HMacUtils.getIntegrityContainerLength(messageBytes.length)];
+        container = new IntegrityContainer();
+        HMacUtils.generateIntegrityContainer(key, messageBytes, 0, messageBytes.length, output, 0, container);
+        stringContainer = HMacUtils.generateIntegrityContainer(key, message);
+    }
+
+    @Benchmark
+    public Map<String, String> generateString() {
+        return HMacUtils.generateIntegrityContainer(key, message);
+    }
+
+    @Benchmark
+    public IntegrityContainer generateBytes() {
+        return HMacUtils.generateIntegrityContainer(
+                key, messageBytes, 0, messageBytes.length, output, 0, container);
+    }
+
+    @Benchmark
+    public boolean verifyString() {
+        return HMacUtils.verifyIntegrity(
+                key,
+                stringContainer.get(HMacUtils.KEY_SIGNATURE_VALUE),
+                stringContainer.get(HMacUtils.KEY_DIGEST_VALUE),
+                message);
+    }
+
+    @Benchmark
+    public boolean verifyBytes() {
+        return HMacUtils.verifyIntegrity(
+                key,
+                output, container.getSignatureOffset(), container.getSignatureLength(),
+                output, container.getCipherTextOffset(), container.getCipherTextLength(),
+                messageBytes, 0, messageBytes.length);
+    }
+
+}
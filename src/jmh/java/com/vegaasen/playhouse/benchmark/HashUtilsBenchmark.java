@@ -0,0 +1,95 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.vegaasen.playhouse.types.HashType;
+import com.vegaasen.playhouse.utils.HashUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Salted password hashing with HashUtils.Sha256/384/512, the batch API, and a MessageDigest.getInstance() per hash
+ * as the baseline.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashUtilsBenchmark {
+
+    @Param({"16", "1024"})
+    public int passwordLength;
+
+    private static final int BATCH_SIZE = 100;
+
+    private String password;
+    private byte[] salt;
+    private List<String> passwords;
+    private List<byte[]> salts;
+
+    @Setup
+    public void setUp() {
+        final char[] characters = new char[passwordLength];
+        Arrays.fill(characters, 'p');
+        password = new String(characters);
+        salt = "Vegard1337".getBytes();
+        passwords = new ArrayList<>(BATCH_SIZE);
+        salts = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            passwords.add(password + i);
+            salts.add(("Vegard" + i).getBytes());
+        }
+    }
+
+    @Benchmark
+    public byte[] sha256() {
+        return HashUtils.Sha256.getHash(password, salt);
+    }
+
+    @Benchmark
+    public byte[] sha384() {
+        return HashUtils.Sha384.getHash(password, salt);
+    }
+
+    @Benchmark
+    public byte[] sha512() {
+        return HashUtils.Sha512.getHash(password, salt);
+    }
+
+    @Benchmark
+    public byte[] sha256GetInstanceEachTime() throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance(HashType.SHA_256.getType());
+        digest.update(salt);
+        return digest.digest(password.getBytes("UTF-8"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<byte[]> sha256Batch() {
+        return HashUtils.getHashes(HashType.SHA_256, passwords, salts);
+    }
+
+    @Benchmark
+    public String sha256AsHex() {
+        return HashUtils.Sha256.getHashAsHex(password, salt);
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.vegaasen.playhouse.utils.XmlSigningUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving a reference ("#id") to an element of a document where every saml:Attribute has an ID, as the DOM-wide
+ * search done when no ID-attributes is registered, compared with the lookup after XmlSigningUtils.indexIdAttributes().
+ * The referenced element is the last one, the worst case of the search. index measures the one-off cost of the
+ * indexing pass on a fresh copy of the document.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IdIndexBenchmark {
+
+    private static final String SAML_NAMESPACE = "urn:oasis:names:tc:SAML:2.0:assertion";
+
+    @Param({"1000", "10000"})
+    public int extraElements;
+
+    private Document unindexedDocument;
+    private Document indexedDocument;
+    private String lastId;
+
+    @Setup
+    public void setUp() throws Exception {
+        unindexedDocument = BenchmarkSupport.createDocument(extraElements);
+        final NodeList attributes = unindexedDocument.getElementsByTagNameNS(SAML_NAMESPACE, "Attribute");
+        for (int i = 0; i < attributes.getLength(); i++) {
+            ((Element) attributes.item(i)).setAttribute("ID", "_attribute-" + i);
+        }
+        lastId = "_attribute-" + (attributes.getLength() - 1);
+        indexedDocument = (Document) unindexedDocument.cloneNode(true);
+        XmlSigningUtils.indexIdAttributes(indexedDocument);
+        if (indexedDocument.getElementById(lastId) == null || search() == null) {
+            throw new IllegalStateException("Unable to resolve " + lastId);
+        }
+    }
+
+    @Benchmark
+    public Element search() {
+        final NodeList elements = unindexedDocument.getElementsByTagNameNS("*", "*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            final Element element = (Element) elements.item(i);
+            if (lastId.equals(element.getAttributeNS(null, "ID"))) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Element lookup() {
+        return indexedDocument.getElementById(lastId);
+    }
+
+    @Benchmark
+    public int index() throws Exception {
+        return XmlSigningUtils.indexIdAttributes((Document) unindexedDocument.cloneNode(true));
+    }
+
+}
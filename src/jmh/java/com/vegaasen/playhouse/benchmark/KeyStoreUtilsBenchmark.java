@@ -0,0 +1,66 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.google.common.io.ByteStreams;
+import com.vegaasen.playhouse.utils.FileUtils;
+import com.vegaasen.playhouse.utils.KeyStoreUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the bundled keystores with KeyStoreUtils.load(). The keystore is read into memory once, so only the
+ * parsing (and the integrity check of the password) is measured.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyStoreUtilsBenchmark {
+
+    /**
+     * name:type:password of a keystore on the classpath.
+     */
+    @Param({"fun.jceks:JCEKS:vegard", "fun_certificates.jks:JKS:telenor"})
+    public String keyStore;
+
+    private byte[] data;
+    private String type;
+    private String password;
+
+    @Setup
+    public void setUp() throws Exception {
+        final String[] parts = keyStore.split(":");
+        type = parts[1];
+        password = parts[2];
+        try (InputStream is = FileUtils.getInstance().getFileAsInputStreamFromClassPath(parts[0])) {
+            data = ByteStreams.toByteArray(is);
+        }
+    }
+
+    @Benchmark
+    public KeyStore load() throws Exception {
+        return KeyStoreUtils.load(data, password, type);
+    }
+
+    @Benchmark
+    public KeyStore loadDetectingType() throws Exception {
+        return KeyStoreUtils.load(data, password);
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.vegaasen.playhouse.types.HashType;
+import com.vegaasen.playhouse.utils.KeyUtils;
+import com.vegaasen.playhouse.utils.SigningProfile;
+import com.vegaasen.playhouse.utils.XmlSigningUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.crypto.dsig.XMLSignature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of signing a document with XmlSigningUtils.signDocument() as the number of references grows. The document
+ * has {@link #STATEMENTS} saml:AttributeStatement-elements of {@link #ATTRIBUTES_PER_STATEMENT} saml:Attribute each,
+ * and the first "references" of them are referenced. The digests of the references are computed in parallel, so on
+ * a machine with several processors the latency should grow slower than the number of references. HMac is used, so
+ * that the time is spent on the references rather than on the key.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MultiReferenceSigningBenchmark {
+
+    private static final String SAML_NAMESPACE = "urn:oasis:names:tc:SAML:2.0:assertion";
+    private static final int STATEMENTS = 16;
+    private static final int ATTRIBUTES_PER_STATEMENT = 250;
+
+    @Param({"1", "4", "16"})
+    public int references;
+
+    private SigningProfile profile;
+    private Document document;
+    private List<String> referenceIds;
+
+    @Setup
+    public void setUp() throws Exception {
+        profile = SigningProfile.forKey(KeyUtils.generateAESKey(KeyUtils.AES_KEY_SIZE_128), HashType.HMAC_SHA_1);
+        document = BenchmarkSupport.createDocument(0);
+        final Element root = document.getDocumentElement();
+        for (int i = 0; i < STATEMENTS; i++) {
+            final Element statement = document.createElementNS(SAML_NAMESPACE, "saml:AttributeStatement");
+            statement.setAttribute("ID", "_statement-" + i);
+            for (int j = 0; j < ATTRIBUTES_PER_STATEMENT; j++) {
+                final Element attribute = document.createElementNS(SAML_NAMESPACE, "saml:Attribute");
+                attribute.setAttribute("Name", "attribute-" + j);
+                final Element value = document.createElementNS(SAML_NAMESPACE, "saml:AttributeValue");
+                value.setTextContent("value-" + i + "-" + j);
+                attribute.appendChild(value);
+                statement.appendChild(attribute);
+            }
+            root.appendChild(statement);
+        }
+        referenceIds = new ArrayList<>(references);
+        for (int i = 0; i < references; i++) {
+            referenceIds.add("#_statement-" + i);
+        }
+        sign();
+    }
+
+    @Benchmark
+    public Document sign() throws Exception {
+        XmlSigningUtils.signDocument(document, referenceIds, null, profile);
+        return removeSignature(document);
+    }
+
+    private static Document removeSignature(final Document document) {
+        final NodeList signatures = document.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        for (int i = signatures.getLength() - 1; i >= 0; i--) {
+            final Node signature = signatures.item(i);
+            signature.getParentNode().removeChild(signature);
+        }
+        return document;
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.vegaasen.playhouse.utils.RadixUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hex encoding and decoding with RadixUtils, compared to the old BigInteger/String.format-based encoder.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RadixUtilsBenchmark {
+
+    @Param({"20", "64", "4096"})
+    public int size;
+
+    private byte[] bytes;
+    private String hex;
+    private char[] hexChars;
+    private byte[] decoded;
+
+    @Setup
+    public void setUp() {
+        bytes = new byte[size];
+        new Random(1337).nextBytes(bytes);
+        hex = RadixUtils.convertToHex(bytes);
+        hexChars = new char[size * 2];
+        decoded = new byte[size];
+    }
+
+    @Benchmark
+    public String convertToHex() {
+        return RadixUtils.convertToHex(bytes);
+    }
+
+    @Benchmark
+    public char[] convertToHexIntoBuffer() {
+        RadixUtils.convertToHex(bytes, 0, bytes.length, hexChars, 0);
+        return hexChars;
+    }
+
+    @Benchmark
+    public String legacyConvertToHex() {
+        return String.format("%040x", new BigInteger(bytes));
+    }
+
+    @Benchmark
+    public byte[] convertFromHex() {
+        return RadixUtils.convertFromHex(hex);
+    }
+
+    @Benchmark
+    public byte[] convertFromHexIntoBuffer() {
+        RadixUtils.convertFromHex(hex, 0, hex.length(), decoded, 0);
+        return decoded;
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.vegaasen.playhouse.utils.KeyPairPool;
+import com.vegaasen.playhouse.utils.KeyStoreUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sun.security.x509.X500Name;
+
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issuing a self-signed RSA 2048 certificate with KeyStoreUtils.createSelfSigned(), which takes the key pair from the
+ * KeyPairPool, compared with generating the key pair when issuing. The pool only helps when there is spare CPU to
+ * generate key pairs ahead of the requests; the starvations of the pool is printed at tear down.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SelfSignedBenchmark {
+
+    private static final String PASSWORD = "benchmark";
+    private static final X500Name OWNER;
+
+    static {
+        try {
+            OWNER = new X500Name("CN=benchmark, O=PKI_Playhouse");
+        } catch (final Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private KeyStore keyStore;
+
+    @Setup
+    public void setUp() throws Exception {
+        keyStore = KeyStoreUtils.createEmpty(PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JKS);
+        KeyPairPool.getInstance().prepare("RSA", 2048);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println(String.format("KeyPairPool: taken=%s, starvations=%s",
+                KeyPairPool.getInstance().getTaken(), KeyPairPool.getInstance().getStarvations()));
+    }
+
+    @Benchmark
+    public KeyStore pooled() throws Exception {
+        KeyStoreUtils.createSelfSigned(keyStore, "pooled", PASSWORD, OWNER, 1, "RSA", 2048, "SHA256withRSA");
+        return keyStore;
+    }
+
+    @Benchmark
+    public X509Certificate generated() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return KeyStoreUtils.generateCertificate("CN=benchmark, O=PKI_Playhouse", generator.generateKeyPair(), 1,
+                "SHA256withRSA");
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.google.common.io.Files;
+import com.vegaasen.playhouse.utils.KeyStoreUtils;
+import com.vegaasen.playhouse.utils.ShardedKeyStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sharded keystore compared with a single JCEKS keystore holding the same secret keys: opening the store and
+ * looking up an alias, opening the store and reading one key, and adding one key and saving.
+ * <p/>
+ * Sealing and unsealing a JCEKS key is slow on recent JDKs, and costs the same for both stores. The setup of the
+ * larger stores takes minutes for that reason, and openAndContains shows the load cost without the unsealing.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedKeyStoreBenchmark {
+
+    private static final String PASSWORD = "benchmark";
+    private static final String LOOKUP_ALIAS = "tenant-42";
+
+    @Param({"100", "1000"})
+    public int entries;
+
+    @Param({"32"})
+    public int shards;
+
+    private File directory;
+    private File monolithicFile;
+    private File shardDirectory;
+    private KeyStore monolithic;
+    private ShardedKeyStore sharded;
+    private int added = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDir();
+        monolithicFile = new File(directory, "monolithic.jceks");
+        shardDirectory = new File(directory, "shards");
+        monolithic = KeyStoreUtils.createEmpty(PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
+        sharded = KeyStoreUtils.openSharded(shardDirectory, shards, PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
+        for (int i = 0; i < entries; i++) {
+            final SecretKeySpec key = createKey(i);
+            KeyStoreUtils.addKey(monolithic, key, "tenant-" + i, PASSWORD);
+            sharded.addKey(key, "tenant-" + i, PASSWORD);
+        }
+        KeyStoreUtils.saveKeyStoreAsync(monolithic, PASSWORD, monolithicFile.getPath()).get();
+        sharded.save();
+    }
+
+    @TearDown
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Benchmark
+    public boolean openAndContainsMonolithic() throws Exception {
+        return KeyStoreUtils.load(monolithicFile, PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JCEKS).containsAlias(LOOKUP_ALIAS);
+    }
+
+    @Benchmark
+    public boolean openAndContainsSharded() throws Exception {
+        return KeyStoreUtils.openSharded(shardDirectory, shards, PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JCEKS)
+                .containsAlias(LOOKUP_ALIAS);
+    }
+
+    @Benchmark
+    public Key openAndGetMonolithic() throws Exception {
+        final KeyStore keyStore = KeyStoreUtils.load(monolithicFile, PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
+        return KeyStoreUtils.getKey(keyStore, LOOKUP_ALIAS, PASSWORD);
+    }
+
+    @Benchmark
+    public Key openAndGetSharded() throws Exception {
+        return KeyStoreUtils.openSharded(shardDirectory, shards, PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JCEKS)
+                .getKey(LOOKUP_ALIAS, PASSWORD);
+    }
+
+    @Benchmark
+    public File addAndSaveMonolithic() throws Exception {
+        KeyStoreUtils.addKey(monolithic, createKey(added), "added-" + added++, PASSWORD);
+        return KeyStoreUtils.saveKeyStoreAsync(monolithic, PASSWORD, monolithicFile.getPath()).get();
+    }
+
+    @Benchmark
+    public int addAndSaveSharded() throws Exception {
+        sharded.addKey(createKey(added), "added-" + added++, PASSWORD);
+        return sharded.save();
+    }
+
+    private static SecretKeySpec createKey(final int i) {
+        final byte[] key = new byte[16];
+        key[0] = (byte) i;
+        key[1] = (byte) (i >>> 8);
+        key[2] = (byte) (i >>> 16);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+}
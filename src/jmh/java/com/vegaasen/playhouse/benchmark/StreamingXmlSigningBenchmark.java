@@ -0,0 +1,118 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.vegaasen.playhouse.types.HashType;
+import com.vegaasen.playhouse.utils.KeyUtils;
+import com.vegaasen.playhouse.utils.SigningProfile;
+import com.vegaasen.playhouse.utils.StreamingXmlSigningUtils;
+import com.vegaasen.playhouse.utils.XmlSigningUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import javax.crypto.SecretKey;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing and validation of serialized documents (bytes in, bytes out) with the DOM-based XmlSigningUtils, which
+ * parses, signs and serializes the document, compared with StreamingXmlSigningUtils. HMac is used, so that the time
+ * is spent on the XML rather than on the key. Run with "-prof gc" to compare the allocation per operation
+ * (gc.alloc.rate.norm), which grows with the document size for the DOM-path.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamingXmlSigningBenchmark {
+
+    @Param({"0", "1000", "10000"})
+    public int extraElements;
+
+    private SecretKey hmacKey;
+    private SigningProfile profile;
+    private byte[] unsignedDocument;
+    private byte[] signedDocument;
+    private DocumentBuilder documentBuilder;
+    private Transformer transformer;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @Setup
+    public void setUp() throws Exception {
+        hmacKey = KeyUtils.generateAESKey(KeyUtils.AES_KEY_SIZE_128);
+        profile = SigningProfile.forKey(hmacKey, HashType.HMAC_SHA_1);
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        documentBuilder = factory.newDocumentBuilder();
+        transformer = TransformerFactory.newInstance().newTransformer();
+
+        final Document document = BenchmarkSupport.createDocument(extraElements);
+        unsignedDocument = serialize(document);
+        XmlSigningUtils.signDocument(document, BenchmarkSupport.REFERENCE_ID, null, profile);
+        signedDocument = serialize(document);
+        if (!domValidate() || !streamValidate()) {
+            throw new IllegalStateException("The signed document does not validate.");
+        }
+    }
+
+    @Benchmark
+    public int domSign() throws Exception {
+        final Document document = parse(unsignedDocument);
+        XmlSigningUtils.signDocument(document, BenchmarkSupport.REFERENCE_ID, null, profile);
+        return serialize(document).length;
+    }
+
+    @Benchmark
+    public int streamSign() throws Exception {
+        output.reset();
+        StreamingXmlSigningUtils.signDocument(
+                new ByteArrayInputStream(unsignedDocument),
+                output,
+                BenchmarkSupport.REFERENCE_ID,
+                null,
+                profile);
+        return output.size();
+    }
+
+    @Benchmark
+    public boolean domValidate() throws Exception {
+        return XmlSigningUtils.validateDocumentByKey(parse(signedDocument), hmacKey);
+    }
+
+    @Benchmark
+    public boolean streamValidate() throws Exception {
+        return StreamingXmlSigningUtils.validateDocumentByKey(new ByteArrayInputStream(signedDocument), hmacKey);
+    }
+
+    private Document parse(final byte[] bytes) throws Exception {
+        final Document document = documentBuilder.parse(new ByteArrayInputStream(bytes));
+        document.getDocumentElement().setIdAttribute("ID", true);
+        return document;
+    }
+
+    private byte[] serialize(final Document document) throws Exception {
+        output.reset();
+        transformer.transform(new DOMSource(document), new StreamResult(output));
+        return output.toByteArray();
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.vegaasen.playhouse.benchmark;
+
+import com.vegaasen.playhouse.types.HashType;
+import com.vegaasen.playhouse.utils.KeyStoreUtils;
+import com.vegaasen.playhouse.utils.KeyUtils;
+import com.vegaasen.playhouse.utils.SignatureValidator;
+import com.vegaasen.playhouse.utils.XmlSigningUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.crypto.SecretKey;
+import javax.xml.crypto.dsig.XMLSignature;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing and validation of documents with RSA (certificate) and HMac (symmetric) keys.
+ * The validate*Reusable benchmarks validates with a SignatureValidator, created once for the trusted key.
+ * Each thread works on its own documents. The signing benchmarks removes the new Signature again, so the document
+ * stays the same size between invocations.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class XmlSigningBenchmark {
+
+    private static final HashType HMAC_TYPE = HashType.HMAC_SHA_1;
+
+    @Param({"0", "100", "1000"})
+    public int extraElements;
+
+    private Document unsignedDocument;
+    private Document rsaSignedDocument;
+    private Document hmacSignedDocument;
+
+    @State(Scope.Benchmark)
+    public static class Keys {
+        private PrivateKey privateKey;
+        private X509Certificate certificate;
+        private SecretKey hmacKey;
+        private SignatureValidator rsaValidator;
+        private SignatureValidator hmacValidator;
+
+        @Setup
+        public void setUp() throws Exception {
+            final KeyStore keyStore = BenchmarkSupport.createSigningKeyStore();
+            privateKey = (PrivateKey) keyStore.getKey(
+                    BenchmarkSupport.SIGNING_ALIAS,
+                    BenchmarkSupport.SIGNING_PASSWORD.toCharArray());
+            certificate = KeyStoreUtils.getCertificate(keyStore, BenchmarkSupport.SIGNING_ALIAS);
+            hmacKey = KeyUtils.generateAESKey(KeyUtils.AES_KEY_SIZE_128);
+            rsaValidator = SignatureValidator.forCertificates(Collections.singletonList(certificate));
+            hmacValidator = SignatureValidator.forKeys(Collections.singletonList(hmacKey));
+        }
+    }
+
+    @Setup
+    public void setUp(final Keys keys) throws Exception {
+        unsignedDocument = BenchmarkSupport.createDocument(extraElements);
+        rsaSignedDocument = BenchmarkSupport.createDocument(extraElements);
+        XmlSigningUtils.signDocumentByCertificate(
+                rsaSignedDocument,
+                BenchmarkSupport.REFERENCE_ID,
+                null,
+                keys.privateKey,
+                keys.certificate);
+        hmacSignedDocument = BenchmarkSupport.createDocument(extraElements);
+        XmlSigningUtils.signDocumentByKey(
+                hmacSignedDocument,
+                BenchmarkSupport.REFERENCE_ID,
+                null,
+                keys.hmacKey,
+                HMAC_TYPE);
+        if (!XmlSigningUtils.validateDocumentByCertificate(rsaSignedDocument, keys.certificate) ||
+                !XmlSigningUtils.validateDocumentByKey(hmacSignedDocument, keys.hmacKey)) {
+            throw new IllegalStateException("The signed documents does not validate.");
+        }
+    }
+
+    @Benchmark
+    public Document signRsa(final Keys keys) throws Exception {
+        XmlSigningUtils.signDocumentByCertificate(
+                unsignedDocument,
+                BenchmarkSupport.REFERENCE_ID,
+                null,
+                keys.privateKey,
+                keys.certificate);
+        return removeSignature(unsignedDocument);
+    }
+
+    @Benchmark
+    public Document signHmac(final Keys keys) throws Exception {
+        XmlSigningUtils.signDocumentByKey(
+                unsignedDocument,
+                BenchmarkSupport.REFERENCE_ID,
+                null,
+                keys.hmacKey,
+                HMAC_TYPE);
+        return removeSignature(unsignedDocument);
+    }
+
+    @Benchmark
+    public boolean validateRsa(final Keys keys) throws Exception {
+        return XmlSigningUtils.validateDocumentByCertificate(rsaSignedDocument, keys.certificate);
+    }
+
+    @Benchmark
+    public boolean validateHmac(final Keys keys) throws Exception {
+        return XmlSigningUtils.validateDocumentByKey(hmacSignedDocument, keys.hmacKey);
+    }
+
+    @Benchmark
+    public boolean validateRsaReusable(final Keys keys) throws Exception {
+        return keys.rsaValidator.validate(rsaSignedDocument);
+    }
+
+    @Benchmark
+    public boolean validateHmacReusable(final Keys keys) throws Exception {
+        return keys.hmacValidator.validate(hmacSignedDocument);
+    }
+
+    private static Document removeSignature(final Document document) {
+        final NodeList signatures = document.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        for (int i = signatures.getLength() - 1; i >= 0; i--) {
+            final Node signature = signatures.item(i);
+            signature.getParentNode().removeChild(signature);
+        }
+        return document;
+    }
+
+}
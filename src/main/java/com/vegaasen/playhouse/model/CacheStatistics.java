@@ -0,0 +1,62 @@
+package com.vegaasen.playhouse.model;
+
+/**
+ * Snapshot of the counters of one of the caches, e.g the KeyStoreCache.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class CacheStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final long reloads;
+    private final long evictions;
+
+    public CacheStatistics(final long hits, final long misses, final long reloads, final long evictions) {
+        this.hits = hits;
+        this.misses = misses;
+        this.reloads = reloads;
+        this.evictions = evictions;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups that had to load, because nothing was cached
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of lookups that had to load again, because the cached value was outdated
+     */
+    public long getReloads() {
+        return reloads;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getRequests() {
+        return hits + misses + reloads;
+    }
+
+    /**
+     * @return hits / requests, or 1.0 if there has been no requests
+     */
+    public double getHitRate() {
+        final long requests = getRequests();
+        return (requests == 0) ? 1.0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%s, misses=%s, reloads=%s, evictions=%s, hitRate=%.4f",
+                hits, misses, reloads, evictions, getHitRate());
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.vegaasen.playhouse.model;
+
+import com.vegaasen.playhouse.types.HashType;
+import com.vegaasen.playhouse.utils.RadixUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of hashing a file or a channel with HashUtils: the hash, how much was hashed and how long it took.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class FileHashResult {
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final HashType hashType;
+    private final byte[] hash;
+    private final long bytesHashed;
+    private final long nanoResult;
+
+    public FileHashResult(final HashType hashType, final byte[] hash, final long bytesHashed, final long nanoResult) {
+        this.hashType = hashType;
+        this.hash = Arrays.copyOf(hash, hash.length);
+        this.bytesHashed = bytesHashed;
+        this.nanoResult = nanoResult;
+    }
+
+    public HashType getHashType() {
+        return hashType;
+    }
+
+    public byte[] getHash() {
+        return Arrays.copyOf(hash, hash.length);
+    }
+
+    public String getHashAsHex() {
+        return RadixUtils.convertToHex(hash);
+    }
+
+    public long getBytesHashed() {
+        return bytesHashed;
+    }
+
+    public long getNanoResult() {
+        return nanoResult;
+    }
+
+    /**
+     * @return throughput in MB/s (1 MB = 1024 * 1024 bytes), or 0 if the time was not measurable
+     */
+    public double getMegabytesPerSecond() {
+        if (nanoResult <= 0) {
+            return 0;
+        }
+        return (bytesHashed / BYTES_PER_MEGABYTE) / ((double) nanoResult / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s (%s bytes, %.2f MB/s)",
+                hashType, getHashAsHex(), bytesHashed, getMegabytesPerSecond());
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.vegaasen.playhouse.model;
+
+import com.vegaasen.playhouse.types.HashType;
+
+/**
+ * Result of the byte-based HMacUtils.generateIntegrityContainer(). Tells where in the output the cipherText and the
+ * signature value was written. Meant to be reused between calls, so it is mutable.
+ *
+ * @author <a href="mailto:vegaasen@gmail.com">Vegard Aasen</a>
+ */
+public final class IntegrityContainer {
+
+    private HashType hashType;
+    private int cipherTextOffset;
+    private int cipherTextLength;
+    private int signatureOffset;
+    private int signatureLength;
+
+    public IntegrityContainer() {
+    }
+
+    public IntegrityContainer update(
+            final HashType hashType,
+            final int cipherTextOffset,
+            final int cipherTextLength,
+            final int signatureOffset,
+            final int signatureLength) {
+        this.hashType = hashType;
+        this.cipherTextOffset = cipherTextOffset;
+        this.cipherTextLength = cipherTextLength;
+        this.signatureOffset = signatureOffset;
+        this.signatureLength = signatureLength;
+        return this;
+    }
+
+    public HashType getHashType() {
+        return hashType;
+    }
+
+    public int getCipherTextOffset() {
+        return cipherTextOffset;
+    }
+
+    public int getCipherTextLength() {
+        return cipherTextLength;
+    }
+
+    public int getSignatureOffset() {
+        return signatureOffset;
+    }
+
+    public int getSignatureLength() {
+        return signatureLength;
+    }
+
+    public int getLength() {
+        return cipherTextLength + signatureLength;
+    }
+
+}
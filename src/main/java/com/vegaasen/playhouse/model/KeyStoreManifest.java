@@ -0,0 +1,183 @@
+package com.vegaasen.playhouse.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The keystores (and the aliases in them) to load when warming up, see KeyStoreWarmUp.
+ * <p/>
+ * As properties, each keystore has its own number:
+ * <pre>
+ * warmup.keystore.1.name=fun.jceks
+ * warmup.keystore.1.password=vegard
+ * warmup.keystore.1.type=JCEKS
+ * warmup.keystore.1.alias.my-secret=vegard
+ * </pre>
+ * The name is looked up on the classpath first, then on the file system. The type is optional.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class KeyStoreManifest {
+
+    public static final String PROPERTY_PREFIX = "warmup.keystore.";
+
+    private static final String
+            NAME = "name",
+            PASSWORD = "password",
+            TYPE = "type",
+            ALIAS_PREFIX = "alias.";
+
+    private final List<Entry> entries;
+
+    private KeyStoreManifest(final Builder builder) {
+        final List<Entry> built = new ArrayList<>();
+        for (final Builder.EntryBuilder entry : builder.entries) {
+            built.add(new Entry(entry.name, entry.password, entry.type, entry.aliases));
+        }
+        this.entries = Collections.unmodifiableList(built);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param properties the properties, see the class documentation for the format
+     * @return the manifest, with the keystores in the order of their number
+     * @throws IllegalArgumentException if a keystore is missing its name, or its number is not a number
+     */
+    public static KeyStoreManifest fromProperties(final Properties properties) {
+        if (properties == null) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        final Map<Integer, Map<String, String>> keyStores = new TreeMap<>();
+        for (final String property : properties.stringPropertyNames()) {
+            if (!property.startsWith(PROPERTY_PREFIX)) {
+                continue;
+            }
+            final String rest = property.substring(PROPERTY_PREFIX.length());
+            final int dot = rest.indexOf('.');
+            if (dot <= 0) {
+                continue;
+            }
+            final Integer id;
+            try {
+                id = Integer.valueOf(rest.substring(0, dot));
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid keystore number {%s}.", property), e);
+            }
+            Map<String, String> values = keyStores.get(id);
+            if (values == null) {
+                values = new TreeMap<>();
+                keyStores.put(id, values);
+            }
+            values.put(rest.substring(dot + 1), properties.getProperty(property));
+        }
+        final Builder builder = new Builder();
+        for (final Map.Entry<Integer, Map<String, String>> keyStore : keyStores.entrySet()) {
+            final Map<String, String> values = keyStore.getValue();
+            final String name = values.get(NAME);
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException(
+                        String.format("Missing name of keystore {%s%s}.", PROPERTY_PREFIX, keyStore.getKey()));
+            }
+            builder.keyStore(name, values.get(PASSWORD), values.get(TYPE));
+            for (final Map.Entry<String, String> value : values.entrySet()) {
+                if (value.getKey().startsWith(ALIAS_PREFIX)) {
+                    builder.alias(value.getKey().substring(ALIAS_PREFIX.length()), value.getValue());
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    public static final class Entry {
+
+        private final String name;
+        private final String password;
+        private final String type;
+        private final Map<String, String> aliases;
+
+        private Entry(final String name, final String password, final String type, final Map<String, String> aliases) {
+            this.name = name;
+            this.password = password;
+            this.type = type;
+            this.aliases = Collections.unmodifiableMap(new LinkedHashMap<>(aliases));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        /**
+         * @return the keystore type, or null if it should be detected
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return alias -> password of the keys to unlock
+         */
+        public Map<String, String> getAliases() {
+            return aliases;
+        }
+    }
+
+    public static class Builder {
+        private final List<EntryBuilder> entries = new ArrayList<>();
+
+        public Builder() {
+        }
+
+        public Builder keyStore(final String name, final String password) {
+            return keyStore(name, password, null);
+        }
+
+        public Builder keyStore(final String name, final String password, final String type) {
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("Important argument is null, empty or missing.");
+            }
+            entries.add(new EntryBuilder(name, password, type));
+            return this;
+        }
+
+        /**
+         * Unlock the key of the alias in the last added keystore.
+         */
+        public Builder alias(final String alias, final String password) {
+            if (entries.isEmpty() || alias == null || alias.isEmpty()) {
+                throw new IllegalArgumentException("Important argument is null, empty or missing.");
+            }
+            entries.get(entries.size() - 1).aliases.put(alias, password);
+            return this;
+        }
+
+        public KeyStoreManifest build() {
+            return new KeyStoreManifest(this);
+        }
+
+        private static final class EntryBuilder {
+            private final String name;
+            private final String password;
+            private final String type;
+            private final Map<String, String> aliases = new LinkedHashMap<>();
+
+            private EntryBuilder(final String name, final String password, final String type) {
+                this.name = name;
+                this.password = password;
+                this.type = type;
+            }
+        }
+    }
+
+}
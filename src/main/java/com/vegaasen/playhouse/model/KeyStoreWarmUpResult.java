@@ -0,0 +1,82 @@
+package com.vegaasen.playhouse.model;
+
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of a warm-up by KeyStoreWarmUp: the loaded keystores and how long each of them took to load and unlock.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class KeyStoreWarmUpResult {
+
+    private final Map<String, KeyStore> keyStores;
+    private final Map<String, Long> loadNanos;
+    private final int keysUnlocked;
+    private final long nanoResult;
+
+    public KeyStoreWarmUpResult(
+            final Map<String, KeyStore> keyStores,
+            final Map<String, Long> loadNanos,
+            final int keysUnlocked,
+            final long nanoResult) {
+        this.keyStores = Collections.unmodifiableMap(new LinkedHashMap<>(keyStores));
+        this.loadNanos = Collections.unmodifiableMap(new LinkedHashMap<>(loadNanos));
+        this.keysUnlocked = keysUnlocked;
+        this.nanoResult = nanoResult;
+    }
+
+    /**
+     * @return name in the manifest -> keystore
+     */
+    public Map<String, KeyStore> getKeyStores() {
+        return keyStores;
+    }
+
+    /**
+     * @return name in the manifest -> nanos used to load the keystore and unlock its keys
+     */
+    public Map<String, Long> getLoadNanos() {
+        return loadNanos;
+    }
+
+    public int getKeysUnlocked() {
+        return keysUnlocked;
+    }
+
+    /**
+     * @return wall-clock nanos of the whole warm-up
+     */
+    public long getNanoResult() {
+        return nanoResult;
+    }
+
+    /**
+     * @return the sum of the load times, i.e roughly how long the warm-up would take with a single thread
+     */
+    public long getSequentialNanos() {
+        long sum = 0;
+        for (final long nanos : loadNanos.values()) {
+            sum += nanos;
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(String.format(
+                "%s keystores, %s keys in %sms (%sms sequential)",
+                keyStores.size(),
+                keysUnlocked,
+                TimeUnit.NANOSECONDS.toMillis(nanoResult),
+                TimeUnit.NANOSECONDS.toMillis(getSequentialNanos())));
+        for (final Map.Entry<String, Long> entry : loadNanos.entrySet()) {
+            builder.append(String.format("%n  %s: %sms", entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue())));
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.vegaasen.playhouse.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-size histogram of latencies in nanoseconds. Values are put in log-linear buckets: exact up to 127ns, and
+ * after that 64 buckets per power of two, meaning a relative error below 1.6%. Everything above
+ * {@link #HIGHEST_TRACKABLE_VALUE} (about 2.4 hours) ends up in the last bucket, but the max is always exact.
+ * <p/>
+ * Not thread safe. Each thread records into its own histogram, and the histograms are merged when the threads are done.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class LatencyHistogram {
+
+    public static final long HIGHEST_TRACKABLE_VALUE = (1L << 43) - 1;
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+    private static final int BUCKET_COUNT = indexOf(HIGHEST_TRACKABLE_VALUE) + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long totalValue;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public LatencyHistogram() {
+    }
+
+    /**
+     * Record one latency.
+     *
+     * @param nanos the latency, negative values are recorded as 0
+     */
+    public void record(final long nanos) {
+        final long value = (nanos < 0) ? 0 : nanos;
+        counts[indexOf(Math.min(value, HIGHEST_TRACKABLE_VALUE))]++;
+        totalCount++;
+        totalValue += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Add all the values of the other histogram to this one. The other histogram is not changed.
+     *
+     * @param other histogram to add
+     * @return this
+     */
+    public LatencyHistogram merge(final LatencyHistogram other) {
+        if (other == null) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        totalValue += other.totalValue;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        totalValue = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * The value that the given percentage of all recorded values are below or equal to. The value is the upper bound
+     * of the bucket it was found in, but never more than the max.
+     *
+     * @param percentile 0.0 to 100.0, e.g 99.9
+     * @return the value in nanoseconds, or 0 if nothing is recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0.0 and 100.0.");
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+        final long countAtPercentile = Math.max(1, (long) Math.ceil((percentile / 100.0) * totalCount));
+        if (countAtPercentile >= totalCount) {
+            return max;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= countAtPercentile) {
+                return Math.max(min, Math.min(max, highestValueAt(i)));
+            }
+        }
+        return max;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return (totalCount == 0) ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return (totalCount == 0) ? 0 : (double) totalValue / totalCount;
+    }
+
+    /**
+     * Number of recorded values per second, given the wall-clock time they were recorded in.
+     *
+     * @param elapsedNanos the time it took to record all values
+     * @return ops/sec, or 0 if elapsedNanos is 0 or less
+     */
+    public double getOperationsPerSecond(final long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return (double) totalCount / elapsedNanos * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static int indexOf(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + subBucket;
+    }
+
+    private static long highestValueAt(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+}
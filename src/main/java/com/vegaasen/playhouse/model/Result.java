@@ -1,5 +1,7 @@
 package com.vegaasen.playhouse.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -12,6 +14,8 @@ public final class Result {
     private static final String separator = ",", newLine = "\n";
 
     private static final String EMPTY = "";
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9"};
     private Date initiated;
     private long nanoResult;
     private Date finished;
@@ -19,6 +23,8 @@ public final class Result {
     private String callingMethod;
     private int numOfIterations;
     private int numOfThreads;
+    private List<Long> threadNanoResults;
+    private LatencyHistogram latencies;
 
     private Result(Builder builder) {
         this.initiated = builder.initiated;
@@ -28,6 +34,8 @@ public final class Result {
         this.callingMethod = builder.callingMethod;
         this.numOfIterations = builder.numOfIterations;
         this.numOfThreads = builder.numOfThreads;
+        this.threadNanoResults = Collections.unmodifiableList(new ArrayList<>(builder.threadNanoResults));
+        this.latencies = builder.latencies;
     }
 
     public Date getInitiated() {
@@ -58,6 +66,31 @@ public final class Result {
         return numOfThreads;
     }
 
+    public List<Long> getThreadNanoResults() {
+        return threadNanoResults;
+    }
+
+    /**
+     * Latency of each operation, merged from all threads.
+     *
+     * @return the histogram, empty if the latencies was not recorded
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Operations per second for all threads together, based on the wall-clock time of the run.
+     *
+     * @return ops/sec, or 0 if nothing was measured
+     */
+    public double getOperationsPerSecond() {
+        if (nanoResult <= 0) {
+            return 0;
+        }
+        return ((double) numOfIterations * numOfThreads) / nanoResult * TimeUnit.SECONDS.toNanos(1);
+    }
+
     public static String generateResultSetString(Result r, int num) {
         if (r != null) {
             StringBuilder builder = new StringBuilder();
@@ -78,6 +111,16 @@ public final class Result {
                     (double) TimeUnit.NANOSECONDS.toSeconds(r.getNanoResult())
             ));
             builder.append(separator);
+            builder.append(String.format("%.2f", r.getOperationsPerSecond()));
+            builder.append(separator);
+            builder.append(generateThreadNanoResultsString(r.getThreadNanoResults()));
+            builder.append(separator);
+            for (double percentile : PERCENTILES) {
+                builder.append(r.getLatencies().getValueAtPercentile(percentile));
+                builder.append(separator);
+            }
+            builder.append(r.getLatencies().getMax());
+            builder.append(separator);
             builder.append(r.getCallingMethod());
             builder.append(separator);
             builder.append(r.getDocumentUsed());
@@ -108,6 +151,16 @@ public final class Result {
             builder.append(separator);
             builder.append("Secs");
             builder.append(separator);
+            builder.append("Ops/sec");
+            builder.append(separator);
+            builder.append("Nanos per thread");
+            builder.append(separator);
+            for (String percentileName : PERCENTILE_NAMES) {
+                builder.append(String.format("%s (ns)", percentileName));
+                builder.append(separator);
+            }
+            builder.append("Max (ns)");
+            builder.append(separator);
             builder.append("Method");
             builder.append(separator);
             builder.append("Document location");
@@ -121,6 +174,17 @@ public final class Result {
         return EMPTY;
     }
 
+    private static String generateThreadNanoResultsString(List<Long> threadNanoResults) {
+        StringBuilder builder = new StringBuilder();
+        for (Long nanos : threadNanoResults) {
+            if (builder.length() > 0) {
+                builder.append(" ");
+            }
+            builder.append(nanos);
+        }
+        return builder.toString();
+    }
+
     public static class Builder {
         private Date initiated = null;
         private long nanoResult = 0;
@@ -129,6 +193,8 @@ public final class Result {
         private String callingMethod = "";
         private int numOfIterations = 0;
         private int numOfThreads = 1;
+        private List<Long> threadNanoResults = Collections.emptyList();
+        private LatencyHistogram latencies = new LatencyHistogram();
 
         public Builder() {
 
@@ -169,6 +235,16 @@ public final class Result {
             return this;
         }
 
+        public Builder threadNanoResults(List<Long> l) {
+            threadNanoResults = (l != null) ? l : Collections.<Long>emptyList();
+            return this;
+        }
+
+        public Builder latencies(LatencyHistogram h) {
+            latencies = (h != null) ? h : new LatencyHistogram();
+            return this;
+        }
+
         public Result build() {
             return new Result(this);
         }
@@ -0,0 +1,141 @@
+package com.vegaasen.playhouse.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of signing a batch of documents with XmlSigningUtils.signDocuments(): the outcome of each document, in the
+ * order of the requests, and the throughput of the whole batch. A failing document does not stop the batch.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class SigningBatchResult {
+
+    private final List<Outcome> outcomes;
+    private final int threads;
+    private final long nanoResult;
+    private final int failed;
+
+    public SigningBatchResult(final List<Outcome> outcomes, final int threads, final long nanoResult) {
+        this.outcomes = Collections.unmodifiableList(new ArrayList<>(outcomes));
+        this.threads = threads;
+        this.nanoResult = nanoResult;
+        int failures = 0;
+        for (final Outcome outcome : outcomes) {
+            if (!outcome.isSigned()) {
+                failures++;
+            }
+        }
+        this.failed = failures;
+    }
+
+    /**
+     * @return the outcome of each request, in the order of the requests
+     */
+    public List<Outcome> getOutcomes() {
+        return outcomes;
+    }
+
+    public int getSigned() {
+        return outcomes.size() - failed;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return wall-clock nanos of the whole batch
+     */
+    public long getNanoResult() {
+        return nanoResult;
+    }
+
+    /**
+     * @return the sum of the signing times, i.e roughly how long the batch would take with a single thread
+     */
+    public long getSequentialNanos() {
+        long sum = 0;
+        for (final Outcome outcome : outcomes) {
+            sum += outcome.getNanoResult();
+        }
+        return sum;
+    }
+
+    /**
+     * @return signed documents per second, or 0 if the time was not measurable
+     */
+    public double getDocumentsPerSecond() {
+        if (nanoResult <= 0) {
+            return 0;
+        }
+        return getSigned() / ((double) nanoResult / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s signed, %s failed in %sms (%sms sequential) on %s threads, %.0f documents/sec",
+                getSigned(),
+                failed,
+                TimeUnit.NANOSECONDS.toMillis(nanoResult),
+                TimeUnit.NANOSECONDS.toMillis(getSequentialNanos()),
+                threads,
+                getDocumentsPerSecond());
+    }
+
+    /**
+     * The outcome of one request: either signed, or the exception that stopped it.
+     */
+    public static final class Outcome {
+
+        private final int index;
+        private final String referenceId;
+        private final Exception error;
+        private final long nanoResult;
+
+        public Outcome(final int index, final String referenceId, final Exception error, final long nanoResult) {
+            this.index = index;
+            this.referenceId = referenceId;
+            this.error = error;
+            this.nanoResult = nanoResult;
+        }
+
+        /**
+         * @return position of the request in the batch, starting at 0
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public String getReferenceId() {
+            return referenceId;
+        }
+
+        public boolean isSigned() {
+            return error == null;
+        }
+
+        /**
+         * @return why the document was not signed, or null if it was
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        public long getNanoResult() {
+            return nanoResult;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s: %s", index, referenceId, isSigned() ? "signed" : error.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.vegaasen.playhouse.model;
+
+import org.w3c.dom.Document;
+
+/**
+ * One document of a batch signed by XmlSigningUtils.signDocuments(), and the element of it to reference.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class SigningRequest {
+
+    private final Document document;
+    private final String referenceId;
+    private final String signatureId;
+
+    /**
+     * @param document    the document to sign
+     * @param referenceId the element to reference, e.g "#someId"
+     * @param signatureId id of the Signature-element, or null for the default
+     */
+    public SigningRequest(final Document document, final String referenceId, final String signatureId) {
+        this.document = document;
+        this.referenceId = referenceId;
+        this.signatureId = signatureId;
+    }
+
+    public SigningRequest(final Document document, final String referenceId) {
+        this(document, referenceId, null);
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    public String getReferenceId() {
+        return referenceId;
+    }
+
+    public String getSignatureId() {
+        return signatureId;
+    }
+
+}
@@ -1,21 +1,41 @@
 package com.vegaasen.playhouse.run;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import com.vegaasen.playhouse.types.HashType;
 import com.vegaasen.playhouse.utils.KeyStoreUtils;
 import com.vegaasen.playhouse.utils.KeyUtils;
+import com.vegaasen.playhouse.utils.RadixUtils;
 
 import javax.crypto.SecretKey;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.security.KeyException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is used to generate a KeyStore with a symmetric key that is loaded through input.
  * It will then try to save the keystore to a given path/location on the drive
+ * <p/>
+ * In bulk mode, the keys are read from a file (or stdin, using "-") with one "alias hexKey" per line. Blank lines
+ * and lines starting with # are skipped. The keys are decoded in parallel, added in the order they are read, and
+ * the keystore is written once at the end, or every checkpoint keys if a checkpoint is given.
  *
  * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
  */
@@ -26,10 +46,26 @@ public final class KeyStoreWithSymmetric {
             ARG_LOCATION = 1,
             ARG_ALIAS = 2,
             ARG_PASSWORD = 3;
+    private static final int
+            ARG_BULK_INPUT = 1,
+            ARG_BULK_LOCATION = 2,
+            ARG_BULK_PASSWORD = 3,
+            ARG_BULK_CHECKPOINT = 4;
+    private static final String
+            BULK = "--bulk",
+            STDIN = "-",
+            COMMENT = "#";
+    private static final int BATCH_SIZE = 1_000;
 
     private static KeyStore keyStore;
 
     public static void main(String... args) {
+        if (args != null && args.length > 2 && BULK.equals(args[0])) {
+            final Integer checkpoint = getCheckpoint(args);
+            if (checkpoint != null) {
+                System.exit(bulkImport(checkpoint, args) ? 0 : 1);
+            }
+        }
         if (args != null && args.length > 2) {
             final String keyInHex = args[ARG_KEY];
             final String location = args[ARG_LOCATION];
@@ -58,10 +94,58 @@ public final class KeyStoreWithSymmetric {
             }
             System.exit(1);
         }
-        System.out.println("Usage: KeyStoreWithSymmetric <theKeyInHexFormat> <location> <alias> <(optional) password>");
+        printUsage();
         System.exit(-1);
     }
 
+    private static void printUsage() {
+        System.out.println("Usage: KeyStoreWithSymmetric <theKeyInHexFormat> <location> <alias> <(optional) password>");
+        System.out.println("Usage: KeyStoreWithSymmetric --bulk <file with \"alias hexKey\" lines, or - for stdin> <location> <(optional) password> <(optional) checkpoint>");
+    }
+
+    /**
+     * @return the checkpoint of the bulk arguments, 0 if none is given, or null if it is not a number of at least 1
+     */
+    private static Integer getCheckpoint(final String... args) {
+        if (args.length <= ARG_BULK_CHECKPOINT) {
+            return 0;
+        }
+        try {
+            final int checkpoint = Integer.parseInt(args[ARG_BULK_CHECKPOINT]);
+            if (checkpoint >= 1) {
+                return checkpoint;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        System.out.println(String.format("The checkpoint must be a number of at least 1, was {%s}.",
+                args[ARG_BULK_CHECKPOINT]));
+        return null;
+    }
+
+    private static boolean bulkImport(final int checkpoint, final String... args) {
+        final String input = args[ARG_BULK_INPUT];
+        final String location = args[ARG_BULK_LOCATION];
+        final String password = (args.length > ARG_BULK_PASSWORD) ? args[ARG_BULK_PASSWORD] : "";
+        final KeyStore bulkKeyStore = getNewOrExistingKeyStore(password, location);
+        if (bulkKeyStore == null) {
+            return false;
+        }
+        try (BufferedReader reader = STDIN.equals(input) ?
+                new BufferedReader(new InputStreamReader(System.in, Charsets.UTF_8)) :
+                Files.newReader(new File(input), Charsets.UTF_8)) {
+            new BulkImport(bulkKeyStore, password, location, checkpoint, System.out)
+                    .run(reader, Runtime.getRuntime().availableProcessors());
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace();
+        }
+        return false;
+    }
+
     private static void addKeyToKeyStore(SecretKey secretKey, String alias, String password) {
         try {
             KeyStoreUtils.addKey(keyStore, secretKey, alias, password);
@@ -72,16 +156,15 @@ public final class KeyStoreWithSymmetric {
     }
 
     private static KeyStore getNewOrExistingKeyStore(final String password, final String location) {
-        KeyStoreUtils.setKeystoreType(KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
         KeyStore keyStore = null;
         try {
             File keyStoreFile = new File(location);
             if (!keyStoreFile.exists()) {
                 System.out.println("Will create an empty keyStore.");
-                keyStore = KeyStoreUtils.createEmpty(password);
+                keyStore = KeyStoreUtils.createEmpty(password, KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
             } else {
                 System.out.println("Will load existing keyStore.");
-                keyStore = KeyStoreUtils.load(keyStoreFile, password);
+                keyStore = KeyStoreUtils.load(keyStoreFile, password, KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
             }
         } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException e) {
             e.printStackTrace();
@@ -107,4 +190,188 @@ public final class KeyStoreWithSymmetric {
         }
     }
 
+    /**
+     * Reads the lines in batches, decodes each batch on the pool and adds the keys to the keystore on the calling
+     * thread, as the keystore is not thread-safe. At most two batches per thread is decoded ahead of the keystore.
+     * Rejected lines and progress is reported to the given stream.
+     */
+    static final class BulkImport {
+
+        private final KeyStore keyStore;
+        private final String password;
+        private final String location;
+        private final int checkpoint;
+        private final PrintStream out;
+        private long imported = 0;
+        private long rejected = 0;
+        private long checkpoints = 0;
+        private long sinceCheckpoint = 0;
+        private long start;
+
+        BulkImport(final KeyStore keyStore, final String password, final String location, final int checkpoint,
+                   final PrintStream out) {
+            this.keyStore = keyStore;
+            this.password = password;
+            this.location = location;
+            this.checkpoint = checkpoint;
+            this.out = out;
+        }
+
+        long getImported() {
+            return imported;
+        }
+
+        long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return the number of times the keystore was saved because checkpoint keys were added since the last save
+         */
+        long getCheckpoints() {
+            return checkpoints;
+        }
+
+        void run(final BufferedReader reader, final int threads) throws IOException, InterruptedException {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            final Deque<Future<List<DecodedKey>>> inFlight = new ArrayDeque<>();
+            start = System.nanoTime();
+            try {
+                long lineNumber = 1;
+                List<String> batch = new ArrayList<>(BATCH_SIZE);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    batch.add(line);
+                    if (batch.size() == BATCH_SIZE) {
+                        inFlight.add(executor.submit(new DecodeBatch(batch, lineNumber)));
+                        lineNumber += batch.size();
+                        batch = new ArrayList<>(BATCH_SIZE);
+                        if (inFlight.size() > threads * 2) {
+                            add(inFlight.poll());
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    inFlight.add(executor.submit(new DecodeBatch(batch, lineNumber)));
+                }
+                while (!inFlight.isEmpty()) {
+                    add(inFlight.poll());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            if (sinceCheckpoint > 0) {
+                save();
+            }
+            out.println(String.format("Imported %s keys (%s rejected) in %sms, %.0f keys/sec. Saved to: {%s}",
+                    imported, rejected, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), getKeysPerSecond(),
+                    location));
+        }
+
+        private void add(final Future<List<DecodedKey>> decoded) throws IOException, InterruptedException {
+            final List<DecodedKey> keys;
+            try {
+                keys = decoded.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Unable to decode keys.", e.getCause());
+            }
+            for (final DecodedKey key : keys) {
+                if (key.error != null) {
+                    rejected++;
+                    out.println(key.error);
+                    continue;
+                }
+                try {
+                    KeyStoreUtils.addKey(keyStore, key.secretKey, key.alias, password);
+                    imported++;
+                    sinceCheckpoint++;
+                } catch (KeyException | KeyStoreException e) {
+                    rejected++;
+                    out.println(String.format("Line %s: %s", key.lineNumber, e.getMessage()));
+                }
+                if (checkpoint > 0 && sinceCheckpoint >= checkpoint) {
+                    save();
+                    checkpoints++;
+                    out.println(String.format("Checkpoint: %s keys, %.0f keys/sec", imported, getKeysPerSecond()));
+                }
+            }
+        }
+
+        /**
+         * Replaces the keystore on the location atomically. Waits for the write, so the keystore is not changed while
+         * it is written.
+         */
+        private void save() throws IOException, InterruptedException {
+            try {
+                KeyStoreUtils.saveKeyStoreAsync(keyStore, password, location).get();
+                sinceCheckpoint = 0;
+            } catch (ExecutionException e) {
+                throw new IOException("Unable to save the keyStore.", e.getCause());
+            }
+        }
+
+        private double getKeysPerSecond() {
+            final long nanos = System.nanoTime() - start;
+            return (nanos <= 0) ? 0 : (double) imported / nanos * TimeUnit.SECONDS.toNanos(1);
+        }
+    }
+
+    private static final class DecodeBatch implements Callable<List<DecodedKey>> {
+
+        private final List<String> lines;
+        private final long firstLineNumber;
+
+        private DecodeBatch(final List<String> lines, final long firstLineNumber) {
+            this.lines = lines;
+            this.firstLineNumber = firstLineNumber;
+        }
+
+        @Override
+        public List<DecodedKey> call() {
+            final List<DecodedKey> keys = new ArrayList<>(lines.size());
+            long lineNumber = firstLineNumber;
+            for (final String line : lines) {
+                final DecodedKey key = decode(line.trim(), lineNumber++);
+                if (key != null) {
+                    keys.add(key);
+                }
+            }
+            return keys;
+        }
+
+        private static DecodedKey decode(final String line, final long lineNumber) {
+            if (line.isEmpty() || line.startsWith(COMMENT)) {
+                return null;
+            }
+            final String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                return new DecodedKey(lineNumber, null, null,
+                        String.format("Line %s: expected \"alias hexKey\"", lineNumber));
+            }
+            try {
+                final byte[] key = RadixUtils.convertFromHex(parts[1]);
+                return new DecodedKey(lineNumber, parts[0], KeyUtils.convertFromByteArrayToSecretKey(HashType.AES, key),
+                        null);
+            } catch (Exception e) {
+                return new DecodedKey(lineNumber, parts[0], null,
+                        String.format("Line %s: %s", lineNumber, e.getMessage()));
+            }
+        }
+    }
+
+    private static final class DecodedKey {
+
+        private final long lineNumber;
+        private final String alias;
+        private final SecretKey secretKey;
+        private final String error;
+
+        private DecodedKey(final long lineNumber, final String alias, final SecretKey secretKey, final String error) {
+            this.lineNumber = lineNumber;
+            this.alias = alias;
+            this.secretKey = secretKey;
+            this.error = error;
+        }
+    }
+
 }
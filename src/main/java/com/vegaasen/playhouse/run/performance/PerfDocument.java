@@ -19,4 +19,14 @@ public class PerfDocument {
     public Document getDocument() {
         return document;
     }
+
+    /**
+     * Deep copy of the document. The copy shares nothing with the original, so it may be handed to another thread.
+     * DOM is not thread safe even for reading, so make the copies from one thread only.
+     *
+     * @return the copy
+     */
+    public Document copy() {
+        return (Document) document.cloneNode(true);
+    }
 }
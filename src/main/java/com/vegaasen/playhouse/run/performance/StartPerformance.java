@@ -1,13 +1,22 @@
 package com.vegaasen.playhouse.run.performance;
 
 import com.google.common.base.Strings;
+import com.vegaasen.playhouse.model.KeyStoreManifest;
+import com.vegaasen.playhouse.model.KeyStoreWarmUpResult;
+import com.vegaasen.playhouse.model.LatencyHistogram;
 import com.vegaasen.playhouse.model.Result;
 import com.vegaasen.playhouse.types.HashType;
 import com.vegaasen.playhouse.utils.FileUtils;
 import com.vegaasen.playhouse.utils.HMacUtils;
+import com.vegaasen.playhouse.utils.KeyCache;
+import com.vegaasen.playhouse.utils.KeyStoreCache;
 import com.vegaasen.playhouse.utils.KeyStoreUtils;
+import com.vegaasen.playhouse.utils.KeyStoreWarmUp;
+import com.vegaasen.playhouse.utils.SigningProfile;
 import com.vegaasen.playhouse.utils.XmlSigningUtils;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -21,8 +30,13 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Simple class that is doing the same thing as
@@ -42,28 +56,19 @@ public final class StartPerformance {
     private static int numOfThreads = 1;
     private static String reference_id;
     private static Document document;
-    private static Key preloadedHMacKey;
-    private static X509Certificate preloadedCertificate;
-    private static PrivateKey preloadedPrivateKey;
-    private static X509Certificate preloadedClientCertificate;
     private static String documentLocation = "";
     private static ExecutorService executorService;
 
     static {
         try {
-            KeyStoreUtils.setKeystoreType("JKS");
-            final Map<String, Object> keyPair;
-            keyPair = KeyStoreUtils.getKeyPair(
-                    getKeyStoreByName("fun_certificates.jks", "telenor"),
-                    "signing:idp.telenor.no(pwd:vegard)",
-                    "vegard"
-            );
+            final KeyStoreWarmUpResult warmUp = KeyStoreWarmUp.getInstance().warmUp(new KeyStoreManifest.Builder()
+                    .keyStore("fun_certificates.jks", "telenor")
+                    .alias("signing:idp.telenor.no(pwd:vegard)", "vegard")
+                    .keyStore("fun.jceks", "vegard")
+                    .alias("my-secret", "vegard")
+                    .build());
+            System.out.println("INFO: KeyStoreWarmUp; " + warmUp);
             HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
-            KeyStoreUtils.setKeystoreType("JCEKS");
-            preloadedHMacKey = getAESKeyFromLocalKeyStore("my-secret", "vegard");
-            preloadedCertificate = (X509Certificate) keyPair.get(KeyStoreUtils.KEY_PUBLIC);
-            preloadedPrivateKey = (PrivateKey) keyPair.get(KeyStoreUtils.KEY_PRIVATE);
-            preloadedClientCertificate = getCertificateFromLocalKeyStore("saml:idp.telenor.no");
         } catch (KeyStoreException e) {
             e.printStackTrace();
             System.exit(-1);
@@ -105,8 +110,10 @@ public final class StartPerformance {
     private static void runAllTests() {
         runPerformanceTesting_SIGNING_CERTIFICATE();
         runPerformanceTesting_SIGNING_CERTIFICATE_USING_STATIC();
+        runPerformanceTesting_SIGNING_CERTIFICATE_USING_PROFILE();
         runPerformanceTesting_SIGNING_HMAC();
         runPerformanceTesting_SIGNING_HMAC_USING_STATIC();
+        runPerformanceTesting_SIGNING_HMAC_USING_PROFILE();
         runPerformanceTesting_VALIDATING_CERTIFICATE();
         runPerformanceTesting_VALIDATING_CERTIFICATE_USING_STATIC();
         runPerformanceTesting_VALIDATING_HMAC();
@@ -115,247 +122,279 @@ public final class StartPerformance {
     }
 
     private static void runPerformanceTesting_SIGNING_CERTIFICATE() {
-        try {
-            final Date now = new Date();
-            warmUpJVM();
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    int c = 0;
-                    do {
-                        @SuppressWarnings("unused") Document document = getSignedDocumentByCertificate();
-                        c++;
-                    } while (c < numOfIterations);
-                }
-            });
-            long start = System.nanoTime();
-            thread.run();
-            long stop = System.nanoTime();
-            long resultInNanos = stop - start;
-            storeResult(now, resultInNanos);
-        } finally {
-            resetDocument();
-        }
+        runScenario(new Scenario() {
+            @Override
+            void execute(final Document document) {
+                getSignedDocumentByCertificate(document);
+            }
+        });
     }
 
     private static void runPerformanceTesting_SIGNING_CERTIFICATE_USING_STATIC() {
-        try {
-            final Date now = new Date();
-            warmUpJVM();
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    int c = 0;
-                    do {
-                        @SuppressWarnings("unused") Document document = getSignedDocumentByCertificate_STATIC_PKI();
-                        c++;
-                    } while (c < numOfIterations);
-                }
-            });
-            long start = System.nanoTime();
-            thread.run();
-            long stop = System.nanoTime();
-            long resultInNanos = stop - start;
-            storeResult(now, resultInNanos);
-        } finally {
-            resetDocument();
+        final Map<String, Object> keyPair = getSigningKeyPair();
+        if (keyPair == null) {
+            return;
         }
+        runScenario(new Scenario() {
+            @Override
+            void execute(final Document document) {
+                getSignedDocumentByCertificate_STATIC_PKI(document, keyPair);
+            }
+        });
     }
 
-    private static void runPerformanceTesting_SIGNING_HMAC() {
+    private static void runPerformanceTesting_SIGNING_CERTIFICATE_USING_PROFILE() {
+        final Map<String, Object> keyPair = getSigningKeyPair();
+        if (keyPair == null) {
+            return;
+        }
+        final SigningProfile profile;
         try {
-            final Date now = new Date();
-            warmUpJVM();
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    int c = 0;
-                    do {
-                        @SuppressWarnings("unused") Document document = getSignedDocumentByHMac();
-                        c++;
-                    } while (c < numOfIterations);
-                }
-            });
-            long start = System.nanoTime();
-            thread.run();
-            long stop = System.nanoTime();
-            long resultInNanos = stop - start;
-            storeResult(now, resultInNanos);
-        } finally {
-            resetDocument();
+            profile = SigningProfile.forCertificate(
+                    (PrivateKey) keyPair.get(KeyStoreUtils.KEY_PRIVATE),
+                    (X509Certificate) keyPair.get(KeyStoreUtils.KEY_PUBLIC));
+        } catch (CertificateException | SignatureException e) {
+            e.printStackTrace();
+            return;
         }
+        runScenario(new Scenario() {
+            @Override
+            void execute(final Document document) {
+                getSignedDocumentByCertificate_PROFILE(document, profile);
+            }
+        });
+    }
+
+    private static void runPerformanceTesting_SIGNING_HMAC() {
+        runScenario(new Scenario() {
+            @Override
+            void execute(final Document document) {
+                getSignedDocumentByHMac(document);
+            }
+        });
     }
 
     private static void runPerformanceTesting_SIGNING_HMAC_USING_STATIC() {
+        final Key hmacKey = getHMacKey();
+        if (hmacKey == null) {
+            return;
+        }
+        runScenario(new Scenario() {
+            @Override
+            void execute(final Document document) {
+                getSignedDocumentByHMac_STATIC_KEY(document, hmacKey);
+            }
+        });
+    }
+
+    private static void runPerformanceTesting_SIGNING_HMAC_USING_PROFILE() {
+        final Key hmacKey = getHMacKey();
+        if (hmacKey == null) {
+            return;
+        }
+        final SigningProfile profile;
         try {
-            final Date now = new Date();
-            warmUpJVM();
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    int c = 0;
-                    do {
-                        @SuppressWarnings("unused") Document document = getSignedDocumentByHMac_STATIC_KEY();
-                        c++;
-                    } while (c < numOfIterations);
-                }
-            });
-            long start = System.nanoTime();
-            thread.run();
-            long stop = System.nanoTime();
-            long resultInNanos = stop - start;
-            storeResult(now, resultInNanos);
-        } finally {
-            resetDocument();
+            profile = SigningProfile.forKey(hmacKey, HashType.HMAC_SHA_1);
+        } catch (SignatureException e) {
+            e.printStackTrace();
+            return;
         }
+        runScenario(new Scenario() {
+            @Override
+            void execute(final Document document) {
+                getSignedDocumentByHMac_PROFILE(document, profile);
+            }
+        });
     }
 
     private static void runPerformanceTesting_VALIDATING_CERTIFICATE() {
-        final Date now = new Date();
-        final Document signedDocument = getSignedDocumentByCertificate();
+        final X509Certificate validatorCertificate;
         try {
-            final X509Certificate validatorCertificate = getCertificateFromLocalKeyStore("saml:idp.telenor.no");
-
-            warmUpJVM();
-
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    int c = 0;
-                    do {
-                        try {
-                            XmlSigningUtils.validateDocumentByCertificate(signedDocument, validatorCertificate);
-                        } catch (SignatureException | CertificateException e) {
-                            e.printStackTrace();
-                        }
-                        c++;
-                    } while (c < numOfIterations);
-                }
-            });
-
-            long start = System.nanoTime();
-            thread.run();
-            long stop = System.nanoTime();
-            long resultInNanos = stop - start;
-            storeResult(now, resultInNanos);
+            validatorCertificate = getCertificateFromLocalKeyStore("saml:idp.telenor.no");
         } catch (KeyStoreException e) {
             e.printStackTrace();
-        } finally {
-            resetDocument();
+            return;
         }
+        runScenario(new Scenario() {
+            @Override
+            Document prepare(final Document document) {
+                return getSignedDocumentByCertificate(document);
+            }
+
+            @Override
+            void execute(final Document document) {
+                try {
+                    XmlSigningUtils.validateDocumentByCertificate(document, validatorCertificate);
+                } catch (SignatureException | CertificateException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
     }
 
     private static void runPerformanceTesting_VALIDATING_CERTIFICATE_USING_STATIC() {
+        final Map<String, Object> keyPair = getSigningKeyPair();
+        final X509Certificate validatorCertificate;
         try {
-            final Date now = new Date();
-            final Document signedDocument = getSignedDocumentByCertificate_STATIC_PKI();
-            warmUpJVM();
+            validatorCertificate = getCertificateFromLocalKeyStore("saml:idp.telenor.no");
+        } catch (KeyStoreException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (keyPair == null) {
+            return;
+        }
+        runScenario(new Scenario() {
+            @Override
+            Document prepare(final Document document) {
+                return getSignedDocumentByCertificate_STATIC_PKI(document, keyPair);
+            }
 
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    int c = 0;
-                    do {
-                        try {
-                            XmlSigningUtils.validateDocumentByCertificate(signedDocument, preloadedClientCertificate);
-                        } catch (SignatureException | CertificateException e) {
-                            e.printStackTrace();
-                        }
-                        c++;
-                    } while (c < numOfIterations);
+            @Override
+            void execute(final Document document) {
+                try {
+                    XmlSigningUtils.validateDocumentByCertificate(document, validatorCertificate);
+                } catch (SignatureException | CertificateException e) {
+                    e.printStackTrace();
                 }
-            });
-
-            long start = System.nanoTime();
-            thread.run();
-            long stop = System.nanoTime();
-            long resultInNanos = stop - start;
-            storeResult(now, resultInNanos);
-        } finally {
-            resetDocument();
-        }
+            }
+        });
     }
 
     private static void runPerformanceTesting_VALIDATING_HMAC() {
-        final Date now = new Date();
-        final Document signedDocument = getSignedDocumentByHMac();
+        final Key hmacKey;
         try {
             HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
-            KeyStoreUtils.setKeystoreType("JCEKS");
-            final Key hmacKey = getAESKeyFromLocalKeyStore("my-secret", "vegard");
-
-            warmUpJVM();
-
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    int c = 0;
-                    do {
-                        try {
-                            XmlSigningUtils.validateDocumentByKey(signedDocument, hmacKey);
-                        } catch (SignatureException e) {
-                            e.printStackTrace();
-                        }
-                        c++;
-                    } while (c < numOfIterations);
-                }
-            });
-
-            long start = System.nanoTime();
-            thread.run();
-            long stop = System.nanoTime();
-            long resultInNanos = stop - start;
-            storeResult(now, resultInNanos);
+            hmacKey = getAESKeyFromLocalKeyStore("my-secret", "vegard");
         } catch (KeyStoreException e) {
             e.printStackTrace();
-        } finally {
-            resetDocument();
+            return;
         }
+        runScenario(new Scenario() {
+            @Override
+            Document prepare(final Document document) {
+                return getSignedDocumentByHMac(document);
+            }
+
+            @Override
+            void execute(final Document document) {
+                try {
+                    XmlSigningUtils.validateDocumentByKey(document, hmacKey);
+                } catch (SignatureException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
     }
 
     private static void runPerformanceTesting_VALIDATING_HMAC_USING_STATIC() {
-        try {
-            final Date now = new Date();
-            final Document signedDocument = getSignedDocumentByHMac_STATIC_KEY();
-            warmUpJVM();
+        final Key hmacKey = getHMacKey();
+        if (hmacKey == null) {
+            return;
+        }
+        runScenario(new Scenario() {
+            @Override
+            Document prepare(final Document document) {
+                return getSignedDocumentByHMac_STATIC_KEY(document, hmacKey);
+            }
 
-            Thread thread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    int c = 0;
-                    do {
-                        try {
-                            XmlSigningUtils.validateDocumentByKey(signedDocument, preloadedHMacKey);
-                        } catch (SignatureException e) {
-                            e.printStackTrace();
-                        }
-                        c++;
-                    } while (c < numOfIterations);
+            @Override
+            void execute(final Document document) {
+                try {
+                    XmlSigningUtils.validateDocumentByKey(document, hmacKey);
+                } catch (SignatureException e) {
+                    e.printStackTrace();
                 }
-            });
+            }
+        });
+    }
 
+    /**
+     * Runs the scenario on numOfThreads threads at the same time. Each thread works on its own copy of the document,
+     * and all threads are released together through a barrier. The wall-clock time of the whole run is stored as
+     * the result, together with the time spent by each thread. The latency of every single operation is recorded in a
+     * histogram owned by the thread, and the histograms are merged when all threads are done.
+     *
+     * @param scenario what to run
+     */
+    private static void runScenario(final Scenario scenario) {
+        String methodCallingMe = "";
+        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+        if (stackTrace != null && stackTrace.length > 2) {
+            StackTraceElement fromMethod = stackTrace[2];
+            if (fromMethod != null) {
+                methodCallingMe = fromMethod.getMethodName();
+            }
+        }
+        final List<Future<Long>> workers = new ArrayList<>();
+        try {
+            final Date now = new Date();
+            warmUpJVM();
+            final PerfDocument perfDocument = new PerfDocument(document);
+            // prepare every copy before any worker is waiting at the barrier, as a failing prepare would leave them there
+            final List<Document> workerDocuments = new ArrayList<>();
+            for (int i = 0; i < numOfThreads; i++) {
+                workerDocuments.add(scenario.prepare(perfDocument.copy()));
+            }
+            final CyclicBarrier barrier = new CyclicBarrier(numOfThreads + 1);
+            final List<LatencyHistogram> workerLatencies = new ArrayList<>();
+            for (final Document workerDocument : workerDocuments) {
+                final LatencyHistogram latencies = new LatencyHistogram();
+                workerLatencies.add(latencies);
+                workers.add(executorService.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        barrier.await();
+                        final long start = System.nanoTime();
+                        long operationStart = start;
+                        int c = 0;
+                        do {
+                            scenario.execute(workerDocument);
+                            final long operationStop = System.nanoTime();
+                            latencies.record(operationStop - operationStart);
+                            operationStart = operationStop;
+                            c++;
+                        } while (c < numOfIterations);
+                        return operationStart - start;
+                    }
+                }));
+            }
+            barrier.await();
             long start = System.nanoTime();
-            thread.run();
+            final List<Long> threadNanoResults = new ArrayList<>();
+            for (final Future<Long> worker : workers) {
+                threadNanoResults.add(worker.get());
+            }
             long stop = System.nanoTime();
             long resultInNanos = stop - start;
-            storeResult(now, resultInNanos);
+            final LatencyHistogram latencies = new LatencyHistogram();
+            for (final LatencyHistogram workerLatency : workerLatencies) {
+                latencies.merge(workerLatency);
+            }
+            storeResult(methodCallingMe, now, resultInNanos, threadNanoResults, latencies);
+        } catch (InterruptedException | BrokenBarrierException | ExecutionException e) {
+            e.printStackTrace();
         } finally {
+            for (final Future<Long> worker : workers) {
+                worker.cancel(true);
+            }
             resetDocument();
         }
     }
 
     /**
-     * Get the document using a static HMac Key
+     * Get the document using a HMac Key loaded once for the scenario
      *
+     * @param document the document to sign
      * @return signedDocument
      */
-    private static Document getSignedDocumentByHMac_STATIC_KEY() {
+    private static Document getSignedDocumentByHMac_STATIC_KEY(final Document document, final Key hmacKey) {
         try {
             XmlSigningUtils.signDocumentByKey(
                     document,
                     reference_id,
                     XmlSigningUtils.DEFAULT_SIGNATURE_ID,
-                    preloadedHMacKey,
+                    hmacKey,
                     HashType.HMAC_SHA_1);
         } catch (SignatureException e) {
             e.printStackTrace();
@@ -363,11 +402,29 @@ public final class StartPerformance {
         return document;
     }
 
-    private static Document getSignedDocumentByHMac() {
+    /**
+     * Get the document using a pre-built HMac SigningProfile
+     *
+     * @param document the document to sign
+     * @return signedDocument
+     */
+    private static Document getSignedDocumentByHMac_PROFILE(final Document document, final SigningProfile profile) {
+        try {
+            XmlSigningUtils.signDocument(
+                    document,
+                    reference_id,
+                    XmlSigningUtils.DEFAULT_SIGNATURE_ID,
+                    profile);
+        } catch (CertificateException | SignatureException e) {
+            e.printStackTrace();
+        }
+        return document;
+    }
+
+    private static Document getSignedDocumentByHMac(final Document document) {
         Key hmacKey = null;
         try {
             HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
-            KeyStoreUtils.setKeystoreType("JCEKS");
             hmacKey = getAESKeyFromLocalKeyStore("my-secret", "vegard");
         } catch (KeyStoreException e) {
             e.printStackTrace();
@@ -386,18 +443,21 @@ public final class StartPerformance {
     }
 
     /**
-     * Get the document a static x509Certificate and PrivateKey
+     * Get the document using a x509Certificate and PrivateKey loaded once for the scenario
      *
+     * @param document the document to sign
      * @return signedDocument
      */
-    private static Document getSignedDocumentByCertificate_STATIC_PKI() {
+    private static Document getSignedDocumentByCertificate_STATIC_PKI(
+            final Document document,
+            final Map<String, Object> keyPair) {
         try {
             XmlSigningUtils.signDocumentByCertificate(
                     document,
                     reference_id,
                     XmlSigningUtils.DEFAULT_SIGNATURE_ID,
-                    preloadedPrivateKey,
-                    preloadedCertificate
+                    (PrivateKey) keyPair.get(KeyStoreUtils.KEY_PRIVATE),
+                    (X509Certificate) keyPair.get(KeyStoreUtils.KEY_PUBLIC)
             );
         } catch (CertificateException | SignatureException e) {
             e.printStackTrace();
@@ -405,10 +465,32 @@ public final class StartPerformance {
         return document;
     }
 
-    private static Document getSignedDocumentByCertificate() {
+    /**
+     * Get the document using a pre-built x509Certificate SigningProfile
+     *
+     * @param document the document to sign
+     * @return signedDocument
+     */
+    private static Document getSignedDocumentByCertificate_PROFILE(
+            final Document document,
+            final SigningProfile profile) {
+        try {
+            XmlSigningUtils.signDocument(
+                    document,
+                    reference_id,
+                    XmlSigningUtils.DEFAULT_SIGNATURE_ID,
+                    profile
+            );
+        } catch (CertificateException | SignatureException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+        return document;
+    }
+
+    private static Document getSignedDocumentByCertificate(final Document document) {
         final Map<String, Object> keyPair;
         try {
-            keyPair = KeyStoreUtils.getKeyPair(
+            keyPair = KeyStoreUtils.getCachedKeyPair(
                     getKeyStoreByName("fun_certificates.jks", "telenor"),
                     "signing:idp.telenor.no(pwd:vegard)",
                     "vegard"
@@ -429,20 +511,6 @@ public final class StartPerformance {
         return null;
     }
 
-    /**
-     * Not working as of now.
-     *
-     * @param thread thread to execute
-     */
-    @SuppressWarnings("unused")
-    private static void executeThread(final Thread thread) {
-        if (thread != null) {
-            for (int i = 0; i < numOfThreads; i++) {
-                executorService.execute(thread);
-            }
-        }
-    }
-
     private static void warmUpJVM() {
         @SuppressWarnings("unused") double sum = 0;
         for (int i = 0; i < 1000; i++) {
@@ -452,17 +520,16 @@ public final class StartPerformance {
         }
     }
 
-    private static void storeResult(final Date initiated, final long nanoResult) {
-        String methodCallingMe = "";
-        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-        if (stackTrace != null && stackTrace.length >= 2) {
-            StackTraceElement fromMethod = stackTrace[2];
-            if (fromMethod != null) {
-                methodCallingMe = fromMethod.getMethodName();
-            }
-        }
+    private static void storeResult(
+            final String methodCallingMe,
+            final Date initiated,
+            final long nanoResult,
+            final List<Long> threadNanoResults,
+            final LatencyHistogram latencies) {
         results.add(new Result.Builder()
                 .nanoResult(nanoResult)
+                .threadNanoResults(threadNanoResults)
+                .latencies(latencies)
                 .callingMethod(methodCallingMe)
                 .documentUsed((Strings.isNullOrEmpty(documentLocation)) ?
                         String.format("Loaded from classpath (%s)", DEFAULT_DOCUMENT) :
@@ -482,19 +549,70 @@ public final class StartPerformance {
         } else {
             document = getDocumentFromFile(FileUtils.getInstance().getFileFromFileSystem(documentLocation));
         }
+        try {
+            XmlSigningUtils.indexIdAttributes(document);
+        } catch (final SignatureException e) {
+            throw new IllegalStateException("Unable to index the ids of the document.", e);
+        }
         if (Strings.isNullOrEmpty(reference_id)) {
-            reference_id = "#" + document.getElementsByTagName("saml:Assertion").item(0).getAttributes().getNamedItem("ID").getTextContent();
+            reference_id = "#" + findFirstElement(document, "saml:Assertion").getAttribute("ID");
+        }
+    }
+
+    /**
+     * Walks the document in document order and stops at the first match, which in a SAML document is the root or
+     * close to it.
+     */
+    private static Element findFirstElement(final Document document, final String tagName) {
+        final Element root = document.getDocumentElement();
+        for (Node node = root; node != null; node = XmlSigningUtils.nextNode(node, root)) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && tagName.equals(node.getNodeName())) {
+                return (Element) node;
+            }
+        }
+        throw new IllegalStateException("Unable to find " + tagName + " in the document.");
+    }
+
+    /**
+     * The keys are taken from the KeyCache when a scenario starts, and only kept for the scenario, as the cache may
+     * destroy a key when it is evicted.
+     *
+     * @return the HMac key, or null if it could not be loaded
+     */
+    private static Key getHMacKey() {
+        try {
+            HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
+            return getAESKeyFromLocalKeyStore("my-secret", "vegard");
+        } catch (KeyStoreException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @return the certificate and private key to sign with, or null if they could not be loaded
+     * @see #getHMacKey()
+     */
+    private static Map<String, Object> getSigningKeyPair() {
+        try {
+            return KeyStoreUtils.getCachedKeyPair(
+                    getKeyStoreByName("fun_certificates.jks", "telenor"),
+                    "signing:idp.telenor.no(pwd:vegard)",
+                    "vegard"
+            );
+        } catch (KeyStoreException e) {
+            e.printStackTrace();
+            return null;
         }
     }
 
     private static Key getAESKeyFromLocalKeyStore(String alias, String password) throws KeyStoreException {
-        KeyStoreUtils.setKeystoreType("JCEKS");
         final KeyStore keyStore = getKeyStoreByName("fun.jceks", "vegard");
-        return KeyStoreUtils.getKey(keyStore, alias, password);
+        return KeyStoreUtils.getCachedKey(keyStore, alias, password);
     }
 
     private static KeyStore getKeyStoreByName(String name, String password) {
-        final KeyStore keystore = KeyStoreUtils.load(name, password, true);
+        final KeyStore keystore = KeyStoreUtils.loadCached(name, password);
         if (keystore != null) {
             return keystore;
         }
@@ -502,7 +620,6 @@ public final class StartPerformance {
     }
 
     private static X509Certificate getCertificateFromLocalKeyStore(String alias) throws KeyStoreException {
-        KeyStoreUtils.setKeystoreType("JKS");
         final KeyStore keyStore = getKeyStoreByName("fun_certificates.jks", "telenor");
         return KeyStoreUtils.getCertificate(keyStore, alias);
     }
@@ -536,6 +653,22 @@ public final class StartPerformance {
 
     private static void writeResultSet() {
         System.out.println(Result.generateResultSetString(results));
+        System.out.println("INFO: KeyStoreCache; " + KeyStoreCache.getInstance().getStatistics());
+        System.out.println("INFO: KeyCache; " + KeyCache.getInstance().getStatistics());
+    }
+
+    /**
+     * One performance scenario. prepare() is called once for each thread with its own copy of the document, and
+     * execute() is called numOfIterations times by that thread.
+     */
+    private abstract static class Scenario {
+
+        Document prepare(final Document document) {
+            return document;
+        }
+
+        abstract void execute(final Document document);
+
     }
 
 }
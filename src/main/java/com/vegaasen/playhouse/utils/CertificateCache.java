@@ -0,0 +1,170 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.vegaasen.playhouse.model.CacheStatistics;
+
+import java.io.ByteArrayInputStream;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keeps certificates that has been parsed, keyed by the encoded bytes, so the same certificate (e.g the one of a
+ * partner, included in every signed message) is only parsed once. The cache is bounded by size.
+ * <p/>
+ * Lookups use a murmur3 digest of the bytes, and compare the bytes on a match. A cryptographic digest would cost more
+ * than parsing the certificate, as the default provider already caches parsed encodings internally.
+ * <p/>
+ * The certificates are shared between callers. X509Certificate can not be changed, so this is safe.
+ * <p/>
+ * CertificateFactory is not documented as thread safe, so one factory per type is kept for each thread instead of
+ * getting a new one for each certificate.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class CertificateCache {
+
+    public static final String DEFAULT_CERTIFICATE_TYPE = "X.509";
+    public static final long DEFAULT_MAXIMUM_SIZE = 256;
+
+    private static final CertificateCache INSTANCE = new CertificateCache(DEFAULT_MAXIMUM_SIZE);
+    private static final HashFunction DIGEST = Hashing.murmur3_128();
+    private static final ThreadLocal<Map<String, CertificateFactory>> FACTORIES =
+            new ThreadLocal<Map<String, CertificateFactory>>() {
+                @Override
+                protected Map<String, CertificateFactory> initialValue() {
+                    return new HashMap<>();
+                }
+            };
+
+    private final Cache<CacheKey, X509Certificate> certificates;
+
+    public CertificateCache(final long maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        certificates = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    public static CertificateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the factory of the type for the current thread, created on first use.
+     *
+     * @param type certificate type, e.g {@link #DEFAULT_CERTIFICATE_TYPE}
+     */
+    public static CertificateFactory getCertificateFactory(final String type) throws CertificateException {
+        if (Strings.isNullOrEmpty(type)) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        final Map<String, CertificateFactory> factories = FACTORIES.get();
+        CertificateFactory factory = factories.get(type);
+        if (factory == null) {
+            factory = CertificateFactory.getInstance(type);
+            factories.put(type, factory);
+        }
+        return factory;
+    }
+
+    /**
+     * Get the certificate of the encoded bytes, parsing it only if it is not cached.
+     *
+     * @param encoded DER or PEM encoded certificate
+     * @param type    certificate type, or null for {@link #DEFAULT_CERTIFICATE_TYPE}
+     * @return the certificate
+     * @throws CertificateException if the bytes is not a certificate of the type
+     */
+    public X509Certificate get(final byte[] encoded, final String type) throws CertificateException {
+        if (encoded == null || encoded.length == 0) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        final String certificateType = Strings.isNullOrEmpty(type) ? DEFAULT_CERTIFICATE_TYPE : type;
+        final CacheKey key = new CacheKey(certificateType, encoded);
+        try {
+            return certificates.get(key, new Callable<X509Certificate>() {
+                @Override
+                public X509Certificate call() throws CertificateException {
+                    return parse(encoded, certificateType);
+                }
+            });
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof CertificateException) {
+                throw (CertificateException) e.getCause();
+            }
+            throw new CertificateException(e.getCause());
+        } catch (final RuntimeException e) {
+            throw new CertificateException(e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    public void invalidateAll() {
+        certificates.invalidateAll();
+    }
+
+    public long size() {
+        certificates.cleanUp();
+        return certificates.size();
+    }
+
+    public CacheStatistics getStatistics() {
+        final CacheStats stats = certificates.stats();
+        return new CacheStatistics(stats.hitCount(), stats.missCount(), 0, stats.evictionCount());
+    }
+
+    private static X509Certificate parse(final byte[] encoded, final String type) throws CertificateException {
+        final Certificate certificate =
+                getCertificateFactory(type).generateCertificate(new ByteArrayInputStream(encoded));
+        if (!(certificate instanceof X509Certificate)) {
+            throw new CertificateException("Not a X.509 certificate: " + type);
+        }
+        return (X509Certificate) certificate;
+    }
+
+    private static final class CacheKey {
+
+        private final String type;
+        private final byte[] encoded;
+        private final int hash;
+
+        private CacheKey(final String type, final byte[] encoded) {
+            this.type = type.toUpperCase(Locale.ENGLISH);
+            this.encoded = encoded.clone();
+            this.hash = 31 * this.type.hashCode() + DIGEST.hashBytes(this.encoded).asInt();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) o;
+            return hash == other.hash && type.equals(other.type) && Arrays.equals(encoded, other.encoded);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
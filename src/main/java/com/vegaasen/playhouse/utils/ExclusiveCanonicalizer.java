@@ -0,0 +1,231 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Exclusive XML canonicalization (http://www.w3.org/2001/10/xml-exc-c14n#, without comments) of one element and its
+ * descendants, written as the events are read from a {@link XMLStreamReader}. Nothing but the namespaces rendered
+ * by the open elements is kept, so the element can be of any size.
+ * <p/>
+ * Feed the events of the element, from its start to its end, and call {@link #finish()} after the end. Comments are
+ * left out, and the InclusiveNamespaces PrefixList is not supported.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+final class ExclusiveCanonicalizer {
+
+    private static final Map<String, String> NO_NAMESPACES = Collections.emptyMap();
+    private static final Comparator<String[]> ATTRIBUTE_ORDER = new Comparator<String[]>() {
+        @Override
+        public int compare(final String[] a, final String[] b) {
+            final int byNamespace = a[0].compareTo(b[0]);
+            return (byNamespace != 0) ? byNamespace : a[1].compareTo(b[1]);
+        }
+    };
+
+    private final Writer out;
+    private final Deque<Map<String, String>> rendered = new ArrayDeque<>();
+    private boolean started;
+
+    ExclusiveCanonicalizer(final OutputStream out) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+    }
+
+    /**
+     * @return true when the element has ended
+     */
+    boolean isDone() {
+        return started && rendered.isEmpty();
+    }
+
+    void startElement(final XMLStreamReader reader) throws IOException {
+        started = true;
+        final Map<String, String> inScope = rendered.isEmpty() ? NO_NAMESPACES : rendered.peek();
+        Map<String, String> namespaces = render(
+                Strings.nullToEmpty(reader.getPrefix()),
+                Strings.nullToEmpty(reader.getNamespaceURI()),
+                inScope,
+                NO_NAMESPACES);
+        final int attributeCount = reader.getAttributeCount();
+        final List<String[]> attributes = (attributeCount == 0) ?
+                Collections.<String[]>emptyList() : new ArrayList<String[]>(attributeCount);
+        for (int i = 0; i < attributeCount; i++) {
+            final String prefix = Strings.nullToEmpty(reader.getAttributePrefix(i));
+            final String namespace = Strings.nullToEmpty(reader.getAttributeNamespace(i));
+            if (!prefix.isEmpty()) {
+                namespaces = render(prefix, namespace, inScope, namespaces);
+            }
+            attributes.add(new String[]{
+                    namespace,
+                    reader.getAttributeLocalName(i),
+                    prefix.isEmpty() ? reader.getAttributeLocalName(i) : prefix + ':' + reader.getAttributeLocalName(i),
+                    reader.getAttributeValue(i)});
+        }
+        if (attributeCount > 1) {
+            Collections.sort(attributes, ATTRIBUTE_ORDER);
+        }
+
+        out.write('<');
+        out.write(qualifiedName(reader));
+        for (final Map.Entry<String, String> namespace : namespaces.entrySet()) {
+            out.write(namespace.getKey().isEmpty() ? " xmlns" : " xmlns:" + namespace.getKey());
+            writeAttributeValue(namespace.getValue());
+        }
+        for (final String[] attribute : attributes) {
+            out.write(' ');
+            out.write(attribute[2]);
+            writeAttributeValue(attribute[3]);
+        }
+        out.write('>');
+
+        if (namespaces.isEmpty()) {
+            rendered.push(inScope);
+        } else {
+            final Map<String, String> scope = new HashMap<>(inScope);
+            scope.putAll(namespaces);
+            rendered.push(scope);
+        }
+    }
+
+    void endElement(final XMLStreamReader reader) throws IOException {
+        out.write("</");
+        out.write(qualifiedName(reader));
+        out.write('>');
+        rendered.pop();
+    }
+
+    void characters(final XMLStreamReader reader) throws IOException {
+        appendText(out, reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+    }
+
+    void processingInstruction(final XMLStreamReader reader) throws IOException {
+        out.write("<?");
+        out.write(reader.getPITarget());
+        final String data = reader.getPIData();
+        if (!Strings.isNullOrEmpty(data)) {
+            out.write(' ');
+            out.write(data);
+        }
+        out.write("?>");
+    }
+
+    /**
+     * Write what is buffered to the underlying stream.
+     */
+    void finish() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * A namespace is rendered on the element that visibly uses it, unless the nearest output ancestor already
+     * rendered it with the same value. The xml-prefix is never rendered.
+     *
+     * @return the namespaces to render on the element, sorted by prefix. The map is only created when needed
+     */
+    private static Map<String, String> render(
+            final String prefix,
+            final String namespace,
+            final Map<String, String> inScope,
+            final Map<String, String> namespaces) {
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return namespaces;
+        }
+        String current = inScope.get(prefix);
+        if (current == null && prefix.isEmpty()) {
+            current = "";
+        }
+        if (namespace.equals(current)) {
+            return namespaces;
+        }
+        final Map<String, String> rendering = (namespaces == NO_NAMESPACES) ? new TreeMap<String, String>() : namespaces;
+        rendering.put(prefix, namespace);
+        return rendering;
+    }
+
+    private static String qualifiedName(final XMLStreamReader reader) {
+        final String prefix = reader.getPrefix();
+        return Strings.isNullOrEmpty(prefix) ? reader.getLocalName() : prefix + ':' + reader.getLocalName();
+    }
+
+    private void writeAttributeValue(final String value) throws IOException {
+        out.write("=\"");
+        appendAttributeValue(out, value);
+        out.write('"');
+    }
+
+    /**
+     * Append the text escaped as in canonical character content.
+     */
+    static void appendText(final Appendable out, final char[] text, final int start, final int length)
+            throws IOException {
+        final int end = start + length;
+        for (int i = start; i < end; i++) {
+            switch (text[i]) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '\r':
+                    out.append("&#xD;");
+                    break;
+                default:
+                    out.append(text[i]);
+            }
+        }
+    }
+
+    /**
+     * Append the value escaped as in a canonical attribute value, without the quotes.
+     */
+    static void appendAttributeValue(final Appendable out, final String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                case '\t':
+                    out.append("&#x9;");
+                    break;
+                case '\n':
+                    out.append("&#xA;");
+                    break;
+                case '\r':
+                    out.append("&#xD;");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+}
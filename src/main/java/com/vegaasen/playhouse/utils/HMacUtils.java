@@ -2,6 +2,7 @@ package com.vegaasen.playhouse.utils;
 
 import com.google.common.base.Strings;
 import com.google.common.io.BaseEncoding;
+import com.vegaasen.playhouse.model.IntegrityContainer;
 import com.vegaasen.playhouse.types.HashType;
 
 import javax.crypto.BadPaddingException;
@@ -12,15 +13,17 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -39,8 +42,28 @@ public final class HMacUtils {
     private static final String PSEUDO_RANDOM_IVSPEC = "1234567812345678";
     private static final String SUN_JCE_PROVIDER_ABBR = "SunJCE";
 
-    private static HashType hashType = DEFAULT_HASH_TYPE;
-    private static Cipher cipher = null;
+    private static volatile HashType hashType = DEFAULT_HASH_TYPE;
+    private static volatile LocalKey localKey = null;
+    private static volatile boolean refreshOnModification = false;
+    private static final Object LOCAL_KEY_LOCK = new Object();
+
+    private static final IvParameterSpec CTR_IV_SPEC = new IvParameterSpec(PSEUDO_RANDOM_IVSPEC.getBytes());
+
+    /**
+     * Neither Cipher nor Mac is thread-safe, so each thread gets its own instances. These are reused for every call
+     * on that thread, avoiding the provider lookup of getInstance().
+     */
+    private static final ThreadLocal<Engines> ENGINES = new ThreadLocal<Engines>() {
+        @Override
+        protected Engines initialValue() {
+            try {
+                //AES/CTS/PKCS5Padding?
+                return new Engines(Cipher.getInstance("AES/CTR/NoPadding", SUN_JCE_PROVIDER_ABBR));
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException | NoSuchProviderException e) {
+                throw new IllegalStateException("Should not happen. Cipher has not been initialised.", e);
+            }
+        }
+    };
 
     private HMacUtils() {
     }
@@ -57,45 +80,127 @@ public final class HMacUtils {
      * @return container with lots of stuff
      */
     public static Map<String, String> generateIntegrityContainer(final Key aesKey, final String message) {
-        configureSecurity();
         if (aesKey != null) {
-            final IvParameterSpec spec = createCtrIvForAES();
-            try {
-                final Mac hMac = Mac.getInstance(hashType.getType(), SUN_JCE_PROVIDER_ABBR);
-                final Key hMacKey = new SecretKeySpec(aesKey.getEncoded(), hashType.getType());
-
-                cipher.init(Cipher.ENCRYPT_MODE, aesKey, spec);
-                byte[] encryptedCipherValue = new byte[cipher.getOutputSize(message.length() + hMac.getMacLength())];
-                int encryptedCipherValueLength = cipher.update(message.getBytes(), 0, message.length(), encryptedCipherValue, 0);
-                hMac.init(hMacKey);
-                hMac.update(message.getBytes());
-                int storedBytesInOutput = cipher.doFinal(
-                        hMac.doFinal(),
-                        0,
-                        hMac.getMacLength(),
-                        encryptedCipherValue,
-                        encryptedCipherValueLength
-                );
-                if (storedBytesInOutput > 0) {
-                    Map<String, String> converted = new LinkedHashMap<>();
-                    converted.put(KEY_SIGNATURE_VALUE, BaseEncoding.base64().encode(hMac.doFinal()));
-                    converted.put(KEY_DIGEST_VALUE, BaseEncoding.base64().encode(encryptedCipherValue));
-                    converted.put(KEY_ALGORITHM_USED, hashType.getType());
-                    return converted;
-                }
-            } catch (NoSuchAlgorithmException |
-                    NoSuchProviderException |
-                    InvalidAlgorithmParameterException |
-                    InvalidKeyException |
-                    ShortBufferException |
-                    BadPaddingException |
-                    IllegalBlockSizeException e) {
-                e.printStackTrace();
+            final HashType type = hashType;
+            final byte[] messageAsBytes = message.getBytes();
+            final byte[] output = new byte[getIntegrityContainerLength(messageAsBytes.length, type)];
+            final IntegrityContainer container = generateIntegrityContainer(
+                    aesKey, type, messageAsBytes, 0, messageAsBytes.length, output, 0, new IntegrityContainer());
+            if (container != null) {
+                Map<String, String> converted = new LinkedHashMap<>();
+                converted.put(KEY_SIGNATURE_VALUE, BaseEncoding.base64().encode(
+                        output, container.getSignatureOffset(), container.getSignatureLength()));
+                converted.put(KEY_DIGEST_VALUE, BaseEncoding.base64().encode(
+                        output, container.getCipherTextOffset(), container.getCipherTextLength()));
+                converted.put(KEY_ALGORITHM_USED, type.getType());
+                return converted;
             }
         }
         return Collections.emptyMap();
     }
 
+    /**
+     * Same as {@link #generateIntegrityContainer(Key, String)}, but working on bytes. The cipherText and the
+     * signature value is written into the output, starting at outputOffset, and their location is stored in the
+     * container. When both the output and the container is reused, nothing is allocated in the steady state.
+     * The values are the same as the ones in the Map-based container.
+     *
+     * @param aesKey       They key to sign with
+     * @param message      the message to generate hmac for
+     * @param offset       start of the message
+     * @param length       length of the message
+     * @param output       where to write the result. See {@link #getIntegrityContainerLength(int)}
+     * @param outputOffset where to start writing in the output
+     * @param container    where to store the result. A new one is created if null
+     * @return the container, or null if the values could not be generated
+     */
+    public static IntegrityContainer generateIntegrityContainer(
+            final Key aesKey,
+            final byte[] message,
+            final int offset,
+            final int length,
+            final byte[] output,
+            final int outputOffset,
+            final IntegrityContainer container) {
+        return generateIntegrityContainer(aesKey, hashType, message, offset, length, output, outputOffset, container);
+    }
+
+    /**
+     * Same as {@link #generateIntegrityContainer(Key, byte[], int, int, byte[], int, IntegrityContainer)}, but
+     * reading the remaining bytes of the message and writing to the output at its position. The position of both
+     * buffers are moved past the bytes read and written. The offsets in the container are relative to the position
+     * of the output when called.
+     *
+     * @param aesKey    They key to sign with
+     * @param message   the message to generate hmac for
+     * @param output    where to write the result
+     * @param container where to store the result. A new one is created if null
+     * @return the container, or null if the values could not be generated
+     */
+    public static IntegrityContainer generateIntegrityContainer(
+            final Key aesKey,
+            final ByteBuffer message,
+            final ByteBuffer output,
+            final IntegrityContainer container) {
+        if (message != null && output != null) {
+            final HashType type = hashType;
+            final int length = message.remaining();
+            final int outputLength = getIntegrityContainerLength(length, type);
+            if (output.remaining() < outputLength) {
+                throw new IllegalArgumentException("Output buffer is too small.");
+            }
+            final Engines engines = ENGINES.get();
+            final byte[] in;
+            final int inOffset;
+            if (message.hasArray()) {
+                in = message.array();
+                inOffset = message.arrayOffset() + message.position();
+            } else {
+                in = engines.input(length);
+                inOffset = 0;
+                message.duplicate().get(in, 0, length);
+            }
+            final byte[] out;
+            final int outOffset;
+            if (output.hasArray()) {
+                out = output.array();
+                outOffset = output.arrayOffset() + output.position();
+            } else {
+                out = engines.output(outputLength);
+                outOffset = 0;
+            }
+            final IntegrityContainer result = generateIntegrityContainer(
+                    aesKey, type, in, inOffset, length, out, outOffset, container);
+            if (result != null) {
+                message.position(message.position() + length);
+                if (output.hasArray()) {
+                    output.position(output.position() + outputLength);
+                } else {
+                    output.put(out, 0, outputLength);
+                }
+                return result.update(
+                        type,
+                        result.getCipherTextOffset() - outOffset,
+                        result.getCipherTextLength(),
+                        result.getSignatureOffset() - outOffset,
+                        result.getSignatureLength());
+            }
+            return null;
+        }
+        throw new IllegalArgumentException("Argument cannot be null or empty.");
+    }
+
+    /**
+     * The number of bytes written by the byte-based generateIntegrityContainer for a message of the given length,
+     * using the current hashType.
+     *
+     * @param messageLength length of the message
+     * @return number of bytes needed in the output
+     */
+    public static int getIntegrityContainerLength(final int messageLength) {
+        return getIntegrityContainerLength(messageLength, hashType);
+    }
+
     /**
      * Returns a HMac as a String in base64.
      *
@@ -129,36 +234,84 @@ public final class HMacUtils {
                 !Strings.isNullOrEmpty(message) &&
                 aesKey != null
                 ) {
-            configureSecurity();
-            final IvParameterSpec spec = createCtrIvForAES();
-            try {
-                final Mac hMac = Mac.getInstance(hashType.getType(), SUN_JCE_PROVIDER_ABBR);
-                final Key hMacKey = new SecretKeySpec(aesKey.getEncoded(), hashType.getType());
-                cipher.init(Cipher.DECRYPT_MODE, aesKey, spec);
-                final byte[] decodedCipherValue = BaseEncoding.base64().decode(digestValue);
-                byte[] plainText = cipher.doFinal(decodedCipherValue, 0, decodedCipherValue.length);
-                int messageLength = plainText.length - hMac.getMacLength();
-                byte[] messageAsByte = new String(plainText).substring(0, messageLength).getBytes();
-                hMac.init(hMacKey);
-                hMac.update(message.getBytes());
-                byte[] messageHash = new byte[hMac.getMacLength()];
-                System.arraycopy(plainText, messageLength, messageHash, 0, messageHash.length);
-                if (messageHash.length > 0) {
-                    final byte[] signValue = BaseEncoding.base64().decode(signatureValue);
-                    return MessageDigest.isEqual(
-                            messageHash, hMac.doFinal()) &&
-                            new String(messageAsByte).equals(message) &&
-                            MessageDigest.isEqual(signValue, hMac.doFinal());
-                }
-            } catch (NoSuchAlgorithmException |
-                    NoSuchProviderException |
-                    InvalidAlgorithmParameterException |
-                    InvalidKeyException |
-                    BadPaddingException |
-                    IllegalBlockSizeException e) {
-                e.printStackTrace();
+            final byte[] decodedCipherValue = BaseEncoding.base64().decode(digestValue);
+            final byte[] signValue = BaseEncoding.base64().decode(signatureValue);
+            final byte[] messageAsBytes = message.getBytes();
+            return verifyIntegrity(
+                    aesKey,
+                    hashType,
+                    signValue, 0, signValue.length,
+                    decodedCipherValue, 0, decodedCipherValue.length,
+                    messageAsBytes, 0, messageAsBytes.length);
+        }
+        throw new IllegalArgumentException("Unable to verify integrity with the provided values.");
+    }
+
+    /**
+     * Same as {@link #verifyIntegrity(Key, String, String, String)}, but working on the raw bytes as written by
+     * {@link #generateIntegrityContainer(Key, byte[], int, int, byte[], int, IntegrityContainer)}.
+     *
+     * @return true|false
+     */
+    public static boolean verifyIntegrity(
+            final Key aesKey,
+            final byte[] signatureValue, final int signatureOffset, final int signatureLength,
+            final byte[] cipherText, final int cipherTextOffset, final int cipherTextLength,
+            final byte[] message, final int messageOffset, final int messageLength) {
+        if (aesKey != null && signatureValue != null && cipherText != null && message != null &&
+                signatureLength > 0 && cipherTextLength > 0 && messageLength > 0) {
+            return verifyIntegrity(
+                    aesKey,
+                    hashType,
+                    signatureValue, signatureOffset, signatureLength,
+                    cipherText, cipherTextOffset, cipherTextLength,
+                    message, messageOffset, messageLength);
+        }
+        throw new IllegalArgumentException("Unable to verify integrity with the provided values.");
+    }
+
+    /**
+     * Same as {@link #verifyIntegrity(Key, String, String, String)}, but reading the remaining bytes of each buffer.
+     * The position of the buffers is not changed.
+     *
+     * @return true|false
+     */
+    public static boolean verifyIntegrity(
+            final Key aesKey,
+            final ByteBuffer signatureValue,
+            final ByteBuffer cipherText,
+            final ByteBuffer message) {
+        if (aesKey != null && signatureValue != null && cipherText != null && message != null &&
+                signatureValue.hasRemaining() && cipherText.hasRemaining() && message.hasRemaining()) {
+            final Engines engines = ENGINES.get();
+            final byte[] signature = engines.signature(signatureValue.remaining());
+            signatureValue.duplicate().get(signature, 0, signatureValue.remaining());
+            final byte[] cipherTextAsBytes;
+            final int cipherTextOffset;
+            if (cipherText.hasArray()) {
+                cipherTextAsBytes = cipherText.array();
+                cipherTextOffset = cipherText.arrayOffset() + cipherText.position();
+            } else {
+                cipherTextAsBytes = engines.input(cipherText.remaining());
+                cipherTextOffset = 0;
+                cipherText.duplicate().get(cipherTextAsBytes, 0, cipherText.remaining());
             }
-            return false;
+            final byte[] messageAsBytes;
+            final int messageOffset;
+            if (message.hasArray()) {
+                messageAsBytes = message.array();
+                messageOffset = message.arrayOffset() + message.position();
+            } else {
+                messageAsBytes = engines.output(message.remaining());
+                messageOffset = 0;
+                message.duplicate().get(messageAsBytes, 0, message.remaining());
+            }
+            return verifyIntegrity(
+                    aesKey,
+                    hashType,
+                    signature, 0, signatureValue.remaining(),
+                    cipherTextAsBytes, cipherTextOffset, cipherText.remaining(),
+                    messageAsBytes, messageOffset, message.remaining());
         }
         throw new IllegalArgumentException("Unable to verify integrity with the provided values.");
     }
@@ -210,14 +363,53 @@ public final class HMacUtils {
         throw new IllegalArgumentException("Argument cannot be null or empty.");
     }
 
+    /**
+     * Drops the cached secret key from the local keyStore. The next call that needs it will load the keyStore again.
+     */
+    public static void invalidateLocalKeyStoreSecretKey() {
+        synchronized (LOCAL_KEY_LOCK) {
+            localKey = null;
+        }
+    }
+
+    /**
+     * When enabled, the modification time and size of the local keyStore-file is checked on each call, and the
+     * secret key is reloaded if the file has changed. Disabled by default.
+     *
+     * @param refresh true|false
+     */
+    public static void setRefreshLocalKeyStoreOnModification(final boolean refresh) {
+        refreshOnModification = refresh;
+    }
+
     private static Key getLocalKeyStoreSecretKey() {
-        KeyStoreUtils.setKeystoreType(
-                PropertiesUtils.getInstance().getProperty("keystore.type")
-        );
+        LocalKey current = localKey;
+        if (current != null && !(refreshOnModification && current.isModified())) {
+            return current.key;
+        }
+        synchronized (LOCAL_KEY_LOCK) {
+            current = localKey;
+            if (current != null && !(refreshOnModification && current.isModified())) {
+                return current.key;
+            }
+            final File keyStoreFile = FileUtils.getInstance().getFileFromClassPath(
+                    PropertiesUtils.getInstance().getProperty("keystore.name"));
+            final long lastModified = (keyStoreFile != null) ? keyStoreFile.lastModified() : 0L;
+            final long length = (keyStoreFile != null) ? keyStoreFile.length() : 0L;
+            final Key key = loadLocalKeyStoreSecretKey();
+            if (key != null) {
+                localKey = new LocalKey(key, keyStoreFile, lastModified, length);
+            }
+            return key;
+        }
+    }
+
+    private static Key loadLocalKeyStoreSecretKey() {
         KeyStore funJceks = KeyStoreUtils.load(
                 PropertiesUtils.getInstance().getProperty("keystore.name"),
                 PropertiesUtils.getInstance().getProperty("keystore.password"),
-                false);
+                false,
+                PropertiesUtils.getInstance().getProperty("keystore.type"));
         try {
             return KeyStoreUtils.getKey(
                     funJceks,
@@ -230,20 +422,119 @@ public final class HMacUtils {
         return null;
     }
 
-    private static IvParameterSpec createCtrIvForAES() {
-        return new IvParameterSpec(PSEUDO_RANDOM_IVSPEC.getBytes());
-    }
-
-    private static void configureSecurity() {
-        if (cipher == null) {
+    private static IntegrityContainer generateIntegrityContainer(
+            final Key aesKey,
+            final HashType type,
+            final byte[] message,
+            final int offset,
+            final int length,
+            final byte[] output,
+            final int outputOffset,
+            final IntegrityContainer container) {
+        if (aesKey != null && message != null && output != null) {
+            final int macLength = getMacLength(type);
+            if (output.length - outputOffset < getIntegrityContainerLength(length, type)) {
+                throw new IllegalArgumentException("Output buffer is too small.");
+            }
+            final Engines engines = ENGINES.get();
+            boolean completed = false;
             try {
-                //AES/CTS/PKCS5Padding?
-                cipher = Cipher.getInstance("AES/CTR/NoPadding", SUN_JCE_PROVIDER_ABBR);
-            } catch (NoSuchAlgorithmException | NoSuchPaddingException | NoSuchProviderException e) {
+                final Cipher cipher = engines.cipher;
+                final Mac hMac = engines.getMac(type, aesKey);
+                final byte[] macValue = engines.macValue(macLength);
+                hMac.update(message, offset, length);
+                hMac.doFinal(macValue, 0);
+                cipher.init(Cipher.ENCRYPT_MODE, aesKey, CTR_IV_SPEC);
+                int cipherTextLength = cipher.update(message, offset, length, output, outputOffset);
+                cipherTextLength += cipher.doFinal(macValue, 0, macLength, output, outputOffset + cipherTextLength);
+                final int signatureOffset = outputOffset + cipherTextLength;
+                hMac.doFinal(output, signatureOffset);
+                completed = true;
+                return ((container != null) ? container : new IntegrityContainer()).update(
+                        type,
+                        outputOffset,
+                        cipherTextLength,
+                        signatureOffset,
+                        macLength);
+            } catch (NoSuchAlgorithmException |
+                    NoSuchProviderException |
+                    InvalidAlgorithmParameterException |
+                    InvalidKeyException |
+                    ShortBufferException |
+                    BadPaddingException |
+                    IllegalBlockSizeException e) {
                 e.printStackTrace();
+            } finally {
+                if (!completed) {
+                    engines.reset(type);
+                }
+            }
+            return null;
+        }
+        throw new IllegalArgumentException("Argument cannot be null or empty.");
+    }
+
+    private static boolean verifyIntegrity(
+            final Key aesKey,
+            final HashType type,
+            final byte[] signatureValue, final int signatureOffset, final int signatureLength,
+            final byte[] cipherText, final int cipherTextOffset, final int cipherTextLength,
+            final byte[] message, final int messageOffset, final int messageLength) {
+        final int macLength = getMacLength(type);
+        if (cipherTextLength != messageLength + macLength || signatureLength != macLength) {
+            return false;
+        }
+        final Engines engines = ENGINES.get();
+        boolean completed = false;
+        try {
+            final Cipher cipher = engines.cipher;
+            final Mac hMac = engines.getMac(type, aesKey);
+            final byte[] plainText = engines.plainText(cipherTextLength);
+            final byte[] macValue = engines.macValue(macLength);
+            cipher.init(Cipher.DECRYPT_MODE, aesKey, CTR_IV_SPEC);
+            cipher.doFinal(cipherText, cipherTextOffset, cipherTextLength, plainText, 0);
+            hMac.update(message, messageOffset, messageLength);
+            hMac.doFinal(macValue, 0);
+            boolean valid = isEqual(plainText, messageLength, macValue, 0, macLength);
+            valid &= isEqual(plainText, 0, message, messageOffset, messageLength);
+            hMac.doFinal(macValue, 0);
+            valid &= isEqual(signatureValue, signatureOffset, macValue, 0, macLength);
+            completed = true;
+            return valid;
+        } catch (NoSuchAlgorithmException |
+                NoSuchProviderException |
+                InvalidAlgorithmParameterException |
+                InvalidKeyException |
+                ShortBufferException |
+                BadPaddingException |
+                IllegalBlockSizeException e) {
+            e.printStackTrace();
+        } finally {
+            if (!completed) {
+                engines.reset(type);
             }
         }
-        if (cipher == null) throw new IllegalStateException("Should not happen. Cipher has not been initialised.");
+        return false;
+    }
+
+    private static int getIntegrityContainerLength(final int messageLength, final HashType type) {
+        return messageLength + 2 * getMacLength(type);
+    }
+
+    private static int getMacLength(final HashType type) {
+        return type.getBitLength() / Byte.SIZE;
+    }
+
+    /**
+     * Compares in constant time, as MessageDigest.isEqual() does, but without requiring separate arrays.
+     */
+    private static boolean isEqual(
+            final byte[] a, final int aOffset, final byte[] b, final int bOffset, final int length) {
+        int result = 0;
+        for (int i = 0; i < length; i++) {
+            result |= a[aOffset + i] ^ b[bOffset + i];
+        }
+        return result == 0;
     }
 
     public static void setHashType(HashType alg) {
@@ -254,4 +545,100 @@ public final class HMacUtils {
         return hashType;
     }
 
+    /**
+     * The Cipher, Macs and scratch buffers of one thread. Each Mac remembers the key it was initialised with, as a
+     * Mac is ready for the same key again after doFinal().
+     */
+    private static final class Engines {
+
+        private final Cipher cipher;
+        private final Map<HashType, Mac> macs = new EnumMap<>(HashType.class);
+        private final Map<HashType, Key> macKeys = new EnumMap<>(HashType.class);
+        private byte[] macValue = new byte[0];
+        private byte[] plainText = new byte[0];
+        private byte[] signature = new byte[0];
+        private byte[] input = new byte[0];
+        private byte[] output = new byte[0];
+
+        private Engines(final Cipher cipher) {
+            this.cipher = cipher;
+        }
+
+        private Mac getMac(final HashType type, final Key aesKey)
+                throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException {
+            Mac mac = macs.get(type);
+            if (mac == null) {
+                mac = Mac.getInstance(type.getType(), SUN_JCE_PROVIDER_ABBR);
+                macs.put(type, mac);
+            }
+            if (macKeys.get(type) != aesKey) {
+                macKeys.remove(type);
+                mac.init(new SecretKeySpec(aesKey.getEncoded(), type.getType()));
+                macKeys.put(type, aesKey);
+            }
+            return mac;
+        }
+
+        private void reset(final HashType type) {
+            macKeys.remove(type);
+        }
+
+        private byte[] macValue(final int length) {
+            if (macValue.length < length) {
+                macValue = new byte[length];
+            }
+            return macValue;
+        }
+
+        private byte[] plainText(final int length) {
+            if (plainText.length < length) {
+                plainText = new byte[length];
+            }
+            return plainText;
+        }
+
+        private byte[] signature(final int length) {
+            if (signature.length < length) {
+                signature = new byte[length];
+            }
+            return signature;
+        }
+
+        private byte[] input(final int length) {
+            if (input.length < length) {
+                input = new byte[length];
+            }
+            return input;
+        }
+
+        private byte[] output(final int length) {
+            if (output.length < length) {
+                output = new byte[length];
+            }
+            return output;
+        }
+    }
+
+    /**
+     * The resolved secret key from the local keyStore, together with the state of the file it was loaded from.
+     */
+    private static final class LocalKey {
+
+        private final Key key;
+        private final File file;
+        private final long lastModified;
+        private final long length;
+
+        private LocalKey(final Key key, final File file, final long lastModified, final long length) {
+            this.key = key;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private boolean isModified() {
+            return file != null && (file.lastModified() != lastModified || file.length() != length);
+        }
+    }
+
 }
@@ -1,10 +1,24 @@
 package com.vegaasen.playhouse.utils;
 
+import com.google.common.base.Charsets;
+import com.vegaasen.playhouse.model.FileHashResult;
 import com.vegaasen.playhouse.types.HashType;
 
-import java.io.UnsupportedEncodingException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
@@ -14,8 +28,24 @@ public final class HashUtils {
 
     private static final Logger LOG = Logger.getLogger(HashUtils.class.getName());
 
-    private static final String UTF_8 = "UTF-8";
+    public static final int MAPPED_REGION_SIZE = 64 * 1024 * 1024;
+    public static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+
     private static final String EMPTY = "";
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+        }
+    };
+    private static final ConcurrentMap<HashType, MessageDigest> PROTOTYPES = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Map<HashType, MessageDigest>> DIGESTS =
+            new ThreadLocal<Map<HashType, MessageDigest>>() {
+                @Override
+                protected Map<HashType, MessageDigest> initialValue() {
+                    return new EnumMap<>(HashType.class);
+                }
+            };
 
     private HashUtils() {
     }
@@ -25,7 +55,7 @@ public final class HashUtils {
         private static final HashType ALGORITHM = HashType.SHA_512;
 
         public static String getHashAsHex(final String password, final byte[] salt) {
-            return RadixUtils.convertToHex(getHash(password, salt));
+            return HashUtils.getHashAsHex(password, salt, ALGORITHM);
         }
 
         public static byte[] getHash(final String password, final byte[] salt) {
@@ -39,7 +69,7 @@ public final class HashUtils {
         private static final HashType ALGORITHM = HashType.SHA_384;
 
         public static String getHashAsHex(final String password, final byte[] salt) {
-            return RadixUtils.convertToHex(getHash(password, salt));
+            return HashUtils.getHashAsHex(password, salt, ALGORITHM);
         }
 
         public static byte[] getHash(final String password, final byte[] salt) {
@@ -53,7 +83,7 @@ public final class HashUtils {
         private static final HashType ALGORITHM = HashType.SHA_256;
 
         public static String getHashAsHex(final String password, final byte[] salt) {
-            return RadixUtils.convertToHex(getHash(password, salt));
+            return HashUtils.getHashAsHex(password, salt, ALGORITHM);
         }
 
         public static byte[] getHash(final String password, final byte[] salt) {
@@ -62,16 +92,209 @@ public final class HashUtils {
 
     }
 
-    private static byte[] getHash(final String password, final byte[] salt, final HashType algorithm) {
+    /**
+     * Hash salt + password with the given digest, e.g {@link HashType#SHA_256}.
+     *
+     * @return the hash, or an empty array if the hashType is not a known digest
+     */
+    public static byte[] getHash(final String password, final byte[] salt, final HashType hashType) {
+        if (password == null || salt == null || hashType == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
         try {
-            final MessageDigest digest = MessageDigest.getInstance(algorithm.getType());
-            digest.reset();
-            digest.update(salt);
-            return digest.digest(password.getBytes(UTF_8));
-        } catch (final NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            return hash(getDigest(hashType), password, salt);
+        } catch (final NoSuchAlgorithmException e) {
             LOG.info("Unable to translate message." + e.getMessage());
         }
         return EMPTY.getBytes();
     }
 
+    public static String getHashAsHex(final String password, final byte[] salt, final HashType hashType) {
+        return RadixUtils.convertToHex(getHash(password, salt, hashType));
+    }
+
+    /**
+     * Hash many (password, salt)-pairs in one go, using the same digest for all of them.
+     *
+     * @param hashType  digest to use, e.g {@link HashType#SHA_256}
+     * @param passwords the passwords
+     * @param salts     the salt for each password, same size as passwords
+     * @return the hash of each pair, in the same order. Empty if the hashType is not a known digest
+     */
+    public static List<byte[]> getHashes(final HashType hashType, final List<String> passwords, final List<byte[]> salts) {
+        if (hashType == null || passwords == null || salts == null || passwords.size() != salts.size()) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        final List<byte[]> hashes = new ArrayList<>(passwords.size());
+        try {
+            final MessageDigest digest = getDigest(hashType);
+            for (int i = 0; i < passwords.size(); i++) {
+                final String password = passwords.get(i);
+                final byte[] salt = salts.get(i);
+                if (password == null || salt == null) {
+                    throw new IllegalArgumentException("Important argument is null, empty or missing.");
+                }
+                hashes.add(hash(digest, password, salt));
+            }
+        } catch (final NoSuchAlgorithmException e) {
+            LOG.info("Unable to translate message." + e.getMessage());
+            return Collections.emptyList();
+        }
+        return hashes;
+    }
+
+    /**
+     * Hash a file by memory-mapping it, {@link #MAPPED_REGION_SIZE} bytes at the time. The content is never copied
+     * to the heap, so this works for files of any size.
+     *
+     * @param file     the file to hash
+     * @param hashType digest to use, e.g {@link HashType#SHA_256}
+     * @return the hash and the throughput
+     * @throws IOException if the file cannot be read
+     */
+    public static FileHashResult getHash(final File file, final HashType hashType) throws IOException {
+        return getHash(file, hashType, MAPPED_REGION_SIZE);
+    }
+
+    static FileHashResult getHash(final File file, final HashType hashType, final int regionSize) throws IOException {
+        if (file == null || hashType == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        try (FileInputStream is = new FileInputStream(file)) {
+            return getHash(is.getChannel(), hashType, regionSize);
+        }
+    }
+
+    /**
+     * Hash everything from the start to the end of the channel by memory-mapping it, region by region. The position
+     * of the channel is not changed.
+     *
+     * @param channel  the channel to hash, e.g from FileInputStream.getChannel() or RandomAccessFile.getChannel()
+     * @param hashType digest to use, e.g {@link HashType#SHA_256}
+     * @return the hash and the throughput
+     * @throws IOException if the channel cannot be read
+     */
+    public static FileHashResult getHash(final FileChannel channel, final HashType hashType) throws IOException {
+        return getHash(channel, hashType, MAPPED_REGION_SIZE);
+    }
+
+    static FileHashResult getHash(final FileChannel channel, final HashType hashType, final int regionSize)
+            throws IOException {
+        if (channel == null || hashType == null || regionSize <= 0) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        final MessageDigest digest = getSupportedDigest(hashType);
+        final long start = System.nanoTime();
+        boolean completed = false;
+        try {
+            final long size = channel.size();
+            for (long position = 0; position < size; position += regionSize) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(regionSize, size - position)));
+            }
+            final FileHashResult result = new FileHashResult(hashType, digest.digest(), size, System.nanoTime() - start);
+            completed = true;
+            return result;
+        } finally {
+            if (!completed) {
+                digest.reset();
+            }
+        }
+    }
+
+    /**
+     * Hash everything that can be read from the channel, through a direct buffer of {@link #DIRECT_BUFFER_SIZE}
+     * bytes. Use this for channels that cannot be memory-mapped, e.g sockets and pipes. The channel must be blocking,
+     * and is not closed.
+     *
+     * @param channel  the channel to hash
+     * @param hashType digest to use, e.g {@link HashType#SHA_256}
+     * @return the hash and the throughput
+     * @throws IOException if the channel cannot be read
+     */
+    public static FileHashResult getHash(final ReadableByteChannel channel, final HashType hashType)
+            throws IOException {
+        if (channel == null || hashType == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        final MessageDigest digest = getSupportedDigest(hashType);
+        final ByteBuffer buffer = DIRECT_BUFFERS.get();
+        final long start = System.nanoTime();
+        long bytesHashed = 0;
+        boolean completed = false;
+        try {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    bytesHashed += buffer.remaining();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+            buffer.flip();
+            bytesHashed += buffer.remaining();
+            digest.update(buffer);
+            final FileHashResult result = new FileHashResult(hashType, digest.digest(), bytesHashed, System.nanoTime() - start);
+            completed = true;
+            return result;
+        } finally {
+            buffer.clear();
+            if (!completed) {
+                digest.reset();
+            }
+        }
+    }
+
+    private static MessageDigest getSupportedDigest(final HashType hashType) {
+        try {
+            return getDigest(hashType);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(String.format("%s is not a supported digest.", hashType), e);
+        }
+    }
+
+    private static byte[] hash(final MessageDigest digest, final String password, final byte[] salt) {
+        boolean completed = false;
+        try {
+            digest.update(salt);
+            final byte[] hash = digest.digest(password.getBytes(Charsets.UTF_8));
+            completed = true;
+            return hash;
+        } finally {
+            if (!completed) {
+                digest.reset();
+            }
+        }
+    }
+
+    /**
+     * The digest of this thread for the hashType. The first time a thread needs a digest it is cloned from a shared
+     * prototype, so the provider lookup is only done once per hashType.
+     */
+    private static MessageDigest getDigest(final HashType hashType) throws NoSuchAlgorithmException {
+        final Map<HashType, MessageDigest> digests = DIGESTS.get();
+        MessageDigest digest = digests.get(hashType);
+        if (digest == null) {
+            digest = newDigest(hashType);
+            digests.put(hashType, digest);
+        }
+        return digest;
+    }
+
+    private static MessageDigest newDigest(final HashType hashType) throws NoSuchAlgorithmException {
+        MessageDigest prototype = PROTOTYPES.get(hashType);
+        if (prototype == null) {
+            prototype = MessageDigest.getInstance(hashType.getType());
+            final MessageDigest existing = PROTOTYPES.putIfAbsent(hashType, prototype);
+            if (existing != null) {
+                prototype = existing;
+            }
+        }
+        try {
+            return (MessageDigest) prototype.clone();
+        } catch (final CloneNotSupportedException e) {
+            return MessageDigest.getInstance(hashType.getType());
+        }
+    }
+
 }
@@ -0,0 +1,232 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.vegaasen.playhouse.model.CacheStatistics;
+
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.Destroyable;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps keys that has been recovered from a keystore, so the (slow, password-based) key recovery is only done once
+ * per keystore, alias and password. The cache is bounded by size and by time to live. Evicted keys are destroyed
+ * when the key supports it, so never hold on to a key from the cache longer than needed.
+ * <p/>
+ * Note that the key types of the JDK providers (e.g SecretKeySpec and the RSA private keys of SunRsaSign) cannot be
+ * destroyed: destroy() throws DestroyFailedException, which is logged at FINE. Their key material is therefore not
+ * cleared on eviction; only keys of providers that support it (e.g some PKCS#11 providers) are.
+ * <p/>
+ * Keys are cached per KeyStore instance. The shared instance listens to {@link KeyStoreCache#getInstance()}, and
+ * drops all keys of a keystore when it is reloaded or invalidated there.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class KeyCache implements KeyStoreCache.InvalidationListener {
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 1_000;
+    public static final long DEFAULT_TIME_TO_LIVE_SECONDS = 300;
+
+    private static final Logger LOG = Logger.getLogger(KeyCache.class.getName());
+    private static final KeyCache INSTANCE;
+
+    static {
+        INSTANCE = new KeyCache(DEFAULT_MAXIMUM_SIZE, DEFAULT_TIME_TO_LIVE_SECONDS, TimeUnit.SECONDS);
+        KeyStoreCache.getInstance().addInvalidationListener(INSTANCE);
+    }
+
+    private final Cache<CacheKey, Object> keys;
+
+    public KeyCache(final long maximumSize, final long timeToLive, final TimeUnit unit) {
+        if (maximumSize < 0 || timeToLive < 0 || unit == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        keys = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive, unit)
+                .recordStats()
+                .removalListener(new RemovalListener<CacheKey, Object>() {
+                    @Override
+                    public void onRemoval(final RemovalNotification<CacheKey, Object> notification) {
+                        if (notification.getCause() != RemovalCause.REPLACED) {
+                            destroy(notification.getValue());
+                        }
+                    }
+                })
+                .build();
+    }
+
+    public static KeyCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Cached version of {@link KeyStoreUtils#getKey(KeyStore, String, String)}.
+     */
+    public Key getKey(final KeyStore keyStore, final String alias, final String password) throws KeyStoreException {
+        return (Key) get(createCacheKey(keyStore, alias, password, false), new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return KeyStoreUtils.getKey(keyStore, alias, password);
+            }
+        });
+    }
+
+    /**
+     * Cached version of {@link KeyStoreUtils#getKeyPair(KeyStore, String, String)}. A new map is returned for each
+     * call, but the certificate and the key in it is shared.
+     */
+    public Map<String, Object> getKeyPair(final KeyStore keyStore, final String alias, final String password)
+            throws KeyStoreException {
+        final CachedKeyPair cached = (CachedKeyPair) get(createCacheKey(keyStore, alias, password, true),
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        final Map<String, Object> keyPair = KeyStoreUtils.getKeyPair(keyStore, alias, password);
+                        return new CachedKeyPair(
+                                (X509Certificate) keyPair.get(KeyStoreUtils.KEY_PUBLIC),
+                                (PrivateKey) keyPair.get(KeyStoreUtils.KEY_PRIVATE));
+                    }
+                });
+        final Map<String, Object> keyPair = new HashMap<>();
+        keyPair.put(KeyStoreUtils.KEY_PUBLIC, cached.certificate);
+        keyPair.put(KeyStoreUtils.KEY_PRIVATE, cached.privateKey);
+        return keyPair;
+    }
+
+    /**
+     * Remove (and destroy) all keys taken from the keystore.
+     *
+     * @param keyStore the keystore
+     */
+    public void invalidate(final KeyStore keyStore) {
+        for (final CacheKey key : keys.asMap().keySet()) {
+            if (key.keyStore == keyStore) {
+                keys.invalidate(key);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        keys.invalidateAll();
+    }
+
+    @Override
+    public void invalidated(final KeyStore keyStore) {
+        invalidate(keyStore);
+    }
+
+    public long size() {
+        keys.cleanUp();
+        return keys.size();
+    }
+
+    public CacheStatistics getStatistics() {
+        final CacheStats stats = keys.stats();
+        return new CacheStatistics(stats.hitCount(), stats.missCount(), 0, stats.evictionCount());
+    }
+
+    /**
+     * Destroy the key material, if the key supports it. Most of the keys of the default providers does not, and is
+     * left to the garbage collector.
+     */
+    static void destroy(final Object value) {
+        final Object key = (value instanceof CachedKeyPair) ? ((CachedKeyPair) value).privateKey : value;
+        if (key instanceof Destroyable && !((Destroyable) key).isDestroyed()) {
+            try {
+                ((Destroyable) key).destroy();
+            } catch (final DestroyFailedException e) {
+                LOG.log(Level.FINE, "Unable to destroy key of type " + key.getClass().getName(), e);
+            }
+        }
+    }
+
+    private Object get(final CacheKey key, final Callable<Object> loader) throws KeyStoreException {
+        try {
+            return keys.get(key, loader);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof KeyStoreException) {
+                throw (KeyStoreException) e.getCause();
+            }
+            throw new KeyStoreException(e.getCause());
+        } catch (final RuntimeException e) {
+            throw new KeyStoreException(e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    private static final class CachedKeyPair {
+
+        private final X509Certificate certificate;
+        private final PrivateKey privateKey;
+
+        private CachedKeyPair(final X509Certificate certificate, final PrivateKey privateKey) {
+            this.certificate = certificate;
+            this.privateKey = privateKey;
+        }
+    }
+
+    /**
+     * @throws KeyStoreException for a missing keystore, alias or password, as KeyStoreUtils.getKey() does
+     */
+    private static CacheKey createCacheKey(final KeyStore keyStore, final String alias, final String password,
+                                           final boolean keyPair) throws KeyStoreException {
+        if (keyStore == null || Strings.isNullOrEmpty(alias) || Strings.isNullOrEmpty(password)) {
+            throw new KeyStoreException(String.format("The key {%s} is not a valid KeyPair.", alias));
+        }
+        return new CacheKey(keyStore, alias, password, keyPair);
+    }
+
+    private static final class CacheKey {
+
+        private final KeyStore keyStore;
+        private final String alias;
+        private final String passwordFingerprint;
+        private final boolean keyPair;
+
+        private CacheKey(final KeyStore keyStore, final String alias, final String password, final boolean keyPair) {
+            this.keyStore = keyStore;
+            this.alias = alias;
+            this.passwordFingerprint = KeyStoreCache.fingerprint(password);
+            this.keyPair = keyPair;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) o;
+            return keyStore == other.keyStore && keyPair == other.keyPair && alias.equals(other.alias) &&
+                    passwordFingerprint.equals(other.passwordFingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(keyStore);
+            result = 31 * result + alias.hashCode();
+            result = 31 * result + passwordFingerprint.hashCode();
+            result = 31 * result + (keyPair ? 1 : 0);
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a number of generated key pairs ready per algorithm and key size, so the (slow) generation of e.g RSA keys
+ * is done in the background instead of when a key is needed.
+ * <p/>
+ * A pool for an algorithm and key size is started the first time it is used, or by {@link #prepare(String, int)}.
+ * Every key pair taken is replaced by a new one, generated on a bounded number of daemon threads. If the pool is
+ * empty when a key pair is needed, one is generated by the caller; this is counted as a starvation.
+ * <p/>
+ * A key pair is only handed out once.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class KeyPairPool {
+
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_THREADS = 2;
+
+    private static final Logger LOG = Logger.getLogger(KeyPairPool.class.getName());
+    private static final KeyPairPool INSTANCE = new KeyPairPool(
+            getIntProperty("keypair.pool.depth", DEFAULT_DEPTH),
+            getIntProperty("keypair.pool.threads", DEFAULT_THREADS));
+
+    private final int depth;
+    private final ExecutorService generators;
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong starvations = new AtomicLong();
+
+    /**
+     * @param depth   number of key pairs to keep ready per algorithm and key size
+     * @param threads number of threads generating key pairs
+     */
+    public KeyPairPool(final int depth, final int threads) {
+        if (depth < 1 || threads < 1) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        this.depth = depth;
+        this.generators = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("keypair-pool-%d").build());
+    }
+
+    public static KeyPairPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start filling the pool of the algorithm and key size, if not already started.
+     *
+     * @param algorithm key algorithm, e.g RSA
+     * @param keySize   key size in bits
+     */
+    public void prepare(final String algorithm, final int keySize) throws NoSuchAlgorithmException {
+        getPool(algorithm, keySize).refill();
+    }
+
+    /**
+     * Take a key pair from the pool, or generate one if the pool is empty.
+     *
+     * @param algorithm key algorithm, e.g RSA
+     * @param keySize   key size in bits
+     * @return a key pair not handed out before
+     */
+    public KeyPair take(final String algorithm, final int keySize) throws NoSuchAlgorithmException {
+        final Pool pool = getPool(algorithm, keySize);
+        taken.incrementAndGet();
+        KeyPair keyPair = pool.ready.poll();
+        if (keyPair == null) {
+            starvations.incrementAndGet();
+            keyPair = pool.generate();
+        }
+        pool.refill();
+        return keyPair;
+    }
+
+    /**
+     * @return number of key pairs ready for the algorithm and key size
+     */
+    public int getDepth(final String algorithm, final int keySize) {
+        final Pool pool = pools.get(key(algorithm, keySize));
+        return (pool == null) ? 0 : pool.ready.size();
+    }
+
+    public int getMaximumDepth() {
+        return depth;
+    }
+
+    /**
+     * @return number of key pairs taken
+     */
+    public long getTaken() {
+        return taken.get();
+    }
+
+    /**
+     * @return number of key pairs taken when the pool was empty, and had to be generated by the caller
+     */
+    public long getStarvations() {
+        return starvations.get();
+    }
+
+    /**
+     * Stop generating key pairs. Key pairs can still be taken, but is then generated by the caller.
+     */
+    public void shutdown() {
+        generators.shutdownNow();
+    }
+
+    private Pool getPool(final String algorithm, final int keySize) throws NoSuchAlgorithmException {
+        final String key = key(algorithm, keySize);
+        Pool pool = pools.get(key);
+        if (pool == null) {
+            final Pool created = new Pool(algorithm, keySize);
+            pool = pools.putIfAbsent(key, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    private static String key(final String algorithm, final int keySize) {
+        if (Strings.isNullOrEmpty(algorithm) || keySize < 1) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        return algorithm.toUpperCase(Locale.ENGLISH) + ':' + keySize;
+    }
+
+    private static int getIntProperty(final String name, final int defaultValue) {
+        final String value = PropertiesUtils.getInstance().getProperty(name);
+        if (Strings.isNullOrEmpty(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (final NumberFormatException e) {
+            LOG.warning(String.format("Invalid value {%s} of %s, using %s", value, name, defaultValue));
+            return defaultValue;
+        }
+    }
+
+    private final class Pool {
+
+        private final String algorithm;
+        private final int keySize;
+        private final BlockingQueue<KeyPair> ready;
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private Pool(final String algorithm, final int keySize) throws NoSuchAlgorithmException {
+            this.algorithm = algorithm;
+            this.keySize = keySize;
+            this.ready = new LinkedBlockingQueue<>(depth);
+            KeyPairGenerator.getInstance(algorithm);
+        }
+
+        private KeyPair generate() throws NoSuchAlgorithmException {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+            generator.initialize(keySize);
+            return generator.generateKeyPair();
+        }
+
+        /**
+         * Schedule generation of the key pairs missing, counting the ones already scheduled.
+         */
+        private void refill() {
+            while (true) {
+                final int scheduled = pending.get();
+                if (ready.size() + scheduled >= depth) {
+                    return;
+                }
+                if (!pending.compareAndSet(scheduled, scheduled + 1)) {
+                    continue;
+                }
+                try {
+                    generators.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                ready.offer(generate());
+                            } catch (final Exception e) {
+                                LOG.log(Level.WARNING, "Unable to generate key pair " + algorithm + ":" + keySize, e);
+                            } finally {
+                                pending.decrementAndGet();
+                            }
+                        }
+                    });
+                } catch (final RejectedExecutionException e) {
+                    pending.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.util.concurrent.Striped;
+import com.vegaasen.playhouse.model.CacheStatistics;
+import com.vegaasen.playhouse.types.HashType;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Keeps loaded keystores in memory, so the same file is only parsed and verified once. Keystores are cached by
+ * canonical path, keystore type and password, and are loaded again when the modification time or the size of the
+ * file changes. A type detected from the file is remembered the same way, so a cache hit does not read the file.
+ * <p/>
+ * The same KeyStore instance is handed out to all callers. Treat it as read-only; use KeyStoreUtils.load() to get a
+ * private instance that may be changed.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class KeyStoreCache {
+
+    private static final KeyStoreCache INSTANCE = new KeyStoreCache();
+    private static final byte[] FINGERPRINT_SALT = new SecureRandom().generateSeed(16);
+    private static final int LOCK_STRIPES = 64;
+
+    private final ConcurrentMap<CacheKey, CachedKeyStore> keyStores = new ConcurrentHashMap<>();
+    private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+    private final ConcurrentMap<String, DetectedType> detectedTypes = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    public KeyStoreCache() {
+    }
+
+    public static KeyStoreCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Same as {@link #get(File, String, String)}, with the keystore type detected from the file.
+     */
+    public KeyStore get(final File storeFile, final String storePassword) throws KeyStoreException, IOException,
+            NoSuchAlgorithmException, CertificateException {
+        return get(storeFile, storePassword, null);
+    }
+
+    /**
+     * Get the keystore, loading it if it is not cached or the file has changed since it was cached.
+     *
+     * @param storeFile     the keystore
+     * @param storePassword password of the keystore, the default password is used if empty
+     * @param storeType     type of the keystore, detected from the file if empty
+     * @return the (shared) keystore
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public KeyStore get(final File storeFile, final String storePassword, final String storeType)
+            throws KeyStoreException, IOException, NoSuchAlgorithmException, CertificateException {
+        if (storeFile == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        if (!storeFile.isFile()) {
+            throw new FileNotFoundException(String.format("Unable to find keystore {%s}.", storeFile));
+        }
+        final String path = storeFile.getCanonicalPath();
+        final String type = (storeType == null || storeType.isEmpty()) ? getDetectedType(storeFile, path) : storeType;
+        final CacheKey key = new CacheKey(path, type, fingerprint(storePassword));
+        CachedKeyStore cached = keyStores.get(key);
+        if (cached != null && !cached.isModified(storeFile)) {
+            hits.incrementAndGet();
+            return cached.keyStore;
+        }
+        final Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            cached = keyStores.get(key);
+            if (cached != null && !cached.isModified(storeFile)) {
+                hits.incrementAndGet();
+                return cached.keyStore;
+            }
+            if (cached == null) {
+                misses.incrementAndGet();
+            } else {
+                reloads.incrementAndGet();
+            }
+            final long lastModified = storeFile.lastModified();
+            final long length = storeFile.length();
+            final KeyStore keyStore = KeyStoreUtils.load(storeFile, storePassword, type);
+            keyStores.put(key, new CachedKeyStore(keyStore, lastModified, length));
+            if (cached != null) {
+                notifyInvalidated(cached.keyStore);
+            }
+            return keyStore;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Put a keystore that has been loaded elsewhere (see KeyStoreWarmUp) into the cache, as if it was loaded by get().
+     *
+     * @param lastModified modification time of the file when it was loaded
+     * @param length       size of the file when it was loaded
+     */
+    void publish(final File storeFile, final String storePassword, final String storeType, final KeyStore keyStore,
+                 final long lastModified, final long length) throws IOException {
+        if (storeFile == null || storeType == null || storeType.isEmpty() || keyStore == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        final CacheKey key = new CacheKey(storeFile.getCanonicalPath(), storeType, fingerprint(storePassword));
+        final Lock lock = locks.get(key);
+        lock.lock();
+        try {
+            final CachedKeyStore replaced = keyStores.put(key, new CachedKeyStore(keyStore, lastModified, length));
+            if (replaced != null && replaced.keyStore != keyStore) {
+                notifyInvalidated(replaced.keyStore);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all cached keystores of the file, whatever type and password they were loaded with.
+     *
+     * @param storeFile the keystore
+     */
+    public void invalidate(final File storeFile) throws IOException {
+        if (storeFile == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        final String path = storeFile.getCanonicalPath();
+        detectedTypes.remove(path);
+        for (final CacheKey key : keyStores.keySet()) {
+            if (key.path.equals(path)) {
+                final CachedKeyStore removed = keyStores.remove(key);
+                if (removed != null) {
+                    notifyInvalidated(removed.keyStore);
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        detectedTypes.clear();
+        for (final CacheKey key : keyStores.keySet()) {
+            final CachedKeyStore removed = keyStores.remove(key);
+            if (removed != null) {
+                notifyInvalidated(removed.keyStore);
+            }
+        }
+    }
+
+    /**
+     * The listener is told about every keystore that is reloaded or invalidated, e.g so that keys taken from it
+     * can be thrown away.
+     *
+     * @param listener the listener
+     */
+    public void addInvalidationListener(final InvalidationListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        listeners.add(listener);
+    }
+
+    public void removeInvalidationListener(final InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    public int size() {
+        return keyStores.size();
+    }
+
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(hits.get(), misses.get(), reloads.get(), 0);
+    }
+
+    /**
+     * Salted hash of the password, so the password itself is not kept in the cache.
+     */
+    static String fingerprint(final String password) {
+        final String value = (password == null || password.isEmpty()) ? KeyStoreUtils.DEFAULT_KEYSTORE_PASSWORD : password;
+        return HashUtils.getHashAsHex((value != null) ? value : "", FINGERPRINT_SALT, HashType.SHA_256);
+    }
+
+    /**
+     * The type of the keystore, detected from the magic bytes of the file. The type is remembered per file, so the
+     * file is only read again when the modification time or the size of it changes.
+     */
+    private String getDetectedType(final File storeFile, final String path) throws KeyStoreException, IOException {
+        final DetectedType detected = detectedTypes.get(path);
+        if (detected != null && !detected.isModified(storeFile)) {
+            return detected.type;
+        }
+        final long lastModified = storeFile.lastModified();
+        final long length = storeFile.length();
+        final String type = KeyStoreUtils.detectKeyStoreType(storeFile);
+        detectedTypes.put(path, new DetectedType(type, lastModified, length));
+        return type;
+    }
+
+    private void notifyInvalidated(final KeyStore keyStore) {
+        for (final InvalidationListener listener : listeners) {
+            listener.invalidated(keyStore);
+        }
+    }
+
+    public interface InvalidationListener {
+
+        /**
+         * @param keyStore the keystore that is no longer cached
+         */
+        void invalidated(KeyStore keyStore);
+
+    }
+
+    private static final class CachedKeyStore {
+
+        private final KeyStore keyStore;
+        private final long lastModified;
+        private final long length;
+
+        private CachedKeyStore(final KeyStore keyStore, final long lastModified, final long length) {
+            this.keyStore = keyStore;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private boolean isModified(final File storeFile) {
+            return storeFile.lastModified() != lastModified || storeFile.length() != length;
+        }
+    }
+
+    private static final class DetectedType {
+
+        private final String type;
+        private final long lastModified;
+        private final long length;
+
+        private DetectedType(final String type, final long lastModified, final long length) {
+            this.type = type;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        private boolean isModified(final File storeFile) {
+            return storeFile.lastModified() != lastModified || storeFile.length() != length;
+        }
+    }
+
+    private static final class CacheKey {
+
+        private final String path;
+        private final String type;
+        private final String passwordFingerprint;
+
+        private CacheKey(final String path, final String type, final String passwordFingerprint) {
+            this.path = path;
+            this.type = type;
+            this.passwordFingerprint = passwordFingerprint;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey) o;
+            return path.equals(other.path) && type.equals(other.type) &&
+                    passwordFingerprint.equals(other.passwordFingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + type.hashCode();
+            result = 31 * result + passwordFingerprint.hashCode();
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Immutable index of the aliases of a keystore: the aliases by entry type, sorted for prefix search, and the
+ * certificates by subject, issuer and SHA-256 fingerprint.
+ * <p/>
+ * Use {@link #of(KeyStore)} to get the index of a keystore. It is built once per keystore instance and built again
+ * when the number of entries has changed, or when {@link #invalidate(KeyStore)} has been called. KeyStoreUtils
+ * invalidates when it adds or replaces entries; call invalidate() after changing a keystore directly, e.g after
+ * replacing an entry, which does not change the number of entries.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class KeyStoreIndex {
+
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+    private static final Cache<KeyStore, KeyStoreIndex> INDEXES = CacheBuilder.newBuilder().weakKeys().build();
+
+    private final int size;
+    private final ImmutableList<String> aliases;
+    private final ImmutableSortedSet<String> sortedAliases;
+    private final ImmutableList<String> keyAliases;
+    private final ImmutableList<String> privateKeyAliases;
+    private final ImmutableList<String> secretKeyAliases;
+    private final ImmutableList<String> trustedCertificateAliases;
+    private final ImmutableMap<String, X509Certificate[]> certificateChains;
+    private final ImmutableListMultimap<String, String> aliasesBySubject;
+    private final ImmutableListMultimap<String, String> aliasesByIssuer;
+    private final ImmutableListMultimap<String, String> aliasesByFingerprint;
+
+    private KeyStoreIndex(final KeyStore keyStore) throws KeyStoreException {
+        final ImmutableList.Builder<String> all = ImmutableList.builder();
+        final ImmutableList.Builder<String> keys = ImmutableList.builder();
+        final ImmutableList.Builder<String> privateKeys = ImmutableList.builder();
+        final ImmutableList.Builder<String> secretKeys = ImmutableList.builder();
+        final ImmutableList.Builder<String> trustedCertificates = ImmutableList.builder();
+        final ImmutableMap.Builder<String, X509Certificate[]> chains = ImmutableMap.builder();
+        final ImmutableListMultimap.Builder<String, String> bySubject = ImmutableListMultimap.builder();
+        final ImmutableListMultimap.Builder<String, String> byIssuer = ImmutableListMultimap.builder();
+        final ImmutableListMultimap.Builder<String, String> byFingerprint = ImmutableListMultimap.builder();
+        final MessageDigest digest = newFingerprintDigest();
+        int count = 0;
+        final Enumeration<String> enumeration = keyStore.aliases();
+        while (enumeration.hasMoreElements()) {
+            final String alias = enumeration.nextElement();
+            count++;
+            all.add(alias);
+            if (keyStore.isKeyEntry(alias)) {
+                keys.add(alias);
+                if (keyStore.entryInstanceOf(alias, KeyStore.PrivateKeyEntry.class)) {
+                    privateKeys.add(alias);
+                } else if (keyStore.entryInstanceOf(alias, KeyStore.SecretKeyEntry.class)) {
+                    secretKeys.add(alias);
+                }
+            } else if (keyStore.isCertificateEntry(alias)) {
+                trustedCertificates.add(alias);
+            }
+            final X509Certificate[] chain = toX509Chain(keyStore.getCertificateChain(alias));
+            if (chain != null) {
+                chains.put(alias, chain);
+            }
+            final Certificate certificate = keyStore.getCertificate(alias);
+            if (certificate instanceof X509Certificate) {
+                final X509Certificate x509Certificate = (X509Certificate) certificate;
+                bySubject.put(x509Certificate.getSubjectX500Principal().getName(), alias);
+                byIssuer.put(x509Certificate.getIssuerX500Principal().getName(), alias);
+                try {
+                    byFingerprint.put(RadixUtils.convertToHex(digest.digest(x509Certificate.getEncoded())), alias);
+                } catch (final CertificateEncodingException e) {
+                    throw new KeyStoreException("Unable to encode the certificate of " + alias, e);
+                }
+            }
+        }
+        this.size = count;
+        this.aliases = all.build();
+        this.sortedAliases = ImmutableSortedSet.copyOf(aliases);
+        this.keyAliases = keys.build();
+        this.privateKeyAliases = privateKeys.build();
+        this.secretKeyAliases = secretKeys.build();
+        this.trustedCertificateAliases = trustedCertificates.build();
+        this.certificateChains = chains.build();
+        this.aliasesBySubject = bySubject.build();
+        this.aliasesByIssuer = byIssuer.build();
+        this.aliasesByFingerprint = byFingerprint.build();
+    }
+
+    /**
+     * @param keyStore a loaded keystore
+     * @return the index of the keystore, built if missing or outdated
+     */
+    public static KeyStoreIndex of(final KeyStore keyStore) throws KeyStoreException {
+        if (keyStore == null) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        final KeyStoreIndex index;
+        try {
+            index = INDEXES.get(keyStore, new Callable<KeyStoreIndex>() {
+                @Override
+                public KeyStoreIndex call() throws KeyStoreException {
+                    return new KeyStoreIndex(keyStore);
+                }
+            });
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof KeyStoreException) {
+                throw (KeyStoreException) e.getCause();
+            }
+            throw new KeyStoreException(e.getCause());
+        }
+        if (index.size == keyStore.size()) {
+            return index;
+        }
+        final KeyStoreIndex rebuilt = new KeyStoreIndex(keyStore);
+        INDEXES.put(keyStore, rebuilt);
+        return rebuilt;
+    }
+
+    /**
+     * Throw away the index of the keystore, so it is built again on next use.
+     */
+    public static void invalidate(final KeyStore keyStore) {
+        if (keyStore != null) {
+            INDEXES.invalidate(keyStore);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return all aliases, in the order of the keystore
+     */
+    public List<String> getAliases() {
+        return aliases;
+    }
+
+    /**
+     * @return aliases of private and secret keys
+     */
+    public List<String> getKeyAliases() {
+        return keyAliases;
+    }
+
+    public List<String> getPrivateKeyAliases() {
+        return privateKeyAliases;
+    }
+
+    public List<String> getSecretKeyAliases() {
+        return secretKeyAliases;
+    }
+
+    public List<String> getTrustedCertificateAliases() {
+        return trustedCertificateAliases;
+    }
+
+    /**
+     * @return the certificate chains, in the order of the keystore. The arrays are shared; do not change them
+     */
+    public List<X509Certificate[]> getCertificateChains() {
+        return certificateChains.values().asList();
+    }
+
+    /**
+     * @return the certificate chain of the alias, or null if it has none. The array is shared; do not change it
+     */
+    public X509Certificate[] getCertificateChain(final String alias) {
+        return certificateChains.get(alias);
+    }
+
+    /**
+     * @return the aliases starting with the prefix, sorted
+     */
+    public List<String> findAliasesByPrefix(final String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return sortedAliases.asList();
+        }
+        return sortedAliases.subSet(prefix, prefix + Character.MAX_VALUE).asList();
+    }
+
+    /**
+     * @param subjectDn the distinguished name, in any form accepted by X500Principal
+     * @return aliases of the certificates with the subject
+     */
+    public List<String> findAliasesBySubject(final String subjectDn) {
+        return aliasesBySubject.get(normalizeDn(subjectDn));
+    }
+
+    /**
+     * @param issuerDn the distinguished name, in any form accepted by X500Principal
+     * @return aliases of the certificates issued by the issuer
+     */
+    public List<String> findAliasesByIssuer(final String issuerDn) {
+        return aliasesByIssuer.get(normalizeDn(issuerDn));
+    }
+
+    /**
+     * @param fingerprint SHA-256 of the encoded certificate as hex, with or without colons
+     * @return aliases of the certificates with the fingerprint
+     */
+    public List<String> findAliasesByFingerprint(final String fingerprint) {
+        if (fingerprint == null || fingerprint.isEmpty()) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        return aliasesByFingerprint.get(fingerprint.replace(":", "").toLowerCase(Locale.ENGLISH));
+    }
+
+    private static X509Certificate[] toX509Chain(final Certificate[] chain) {
+        if (chain == null) {
+            return null;
+        }
+        if (chain instanceof X509Certificate[]) {
+            return (X509Certificate[]) chain;
+        }
+        final X509Certificate[] x509Chain = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++) {
+            if (!(chain[i] instanceof X509Certificate)) {
+                return null;
+            }
+            x509Chain[i] = (X509Certificate) chain[i];
+        }
+        return x509Chain;
+    }
+
+    private static String normalizeDn(final String dn) {
+        if (dn == null || dn.isEmpty()) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        return new X500Principal(dn).getName();
+    }
+
+    private static MessageDigest newFingerprintDigest() throws KeyStoreException {
+        try {
+            return MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new KeyStoreException(e);
+        }
+    }
+
+}
@@ -1,7 +1,6 @@
 package com.vegaasen.playhouse.utils;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
 import com.google.common.io.Closeables;
 import sun.security.x509.*;
 
@@ -10,10 +9,11 @@ import javax.security.auth.DestroyFailedException;
 import java.io.*;
 import java.math.BigInteger;
 import java.security.*;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * @author <a href="mailto:vegaasen@gmail.com">Vegard Aasen</a>
@@ -27,9 +27,13 @@ public final class KeyStoreUtils {
     public static final File DEFAULT_KEYSTORE_FILE;
     public static final String
             KEY_STORE_TYPE_JCEKS = "JCEKS",
-            KEY_STORE_TYPE_JKS = "JKS";
+            KEY_STORE_TYPE_JKS = "JKS",
+            KEY_STORE_TYPE_PKCS12 = "PKCS12";
+    public static final String DEFAULT_KEY_STORE_TYPE = KEY_STORE_TYPE_JKS;
 
-    private static String keystoreType = KEY_STORE_TYPE_JKS; //default
+    private static final int MAGIC_JKS = 0xfeedfeed, MAGIC_JCEKS = 0xcececece;
+    private static final int DER_SEQUENCE = 0x30;
+    private static final int MAGIC_LENGTH = 4;
 
     static {
         DEFAULT_KEYSTORE_FILE = FileUtils.getInstance().getFileFromClassPath(
@@ -40,16 +44,28 @@ public final class KeyStoreUtils {
     }
 
     public static KeyStore load(final String keyStoreName, final String keyStorePassword, final boolean useInputStream) {
+        return load(keyStoreName, keyStorePassword, useInputStream, null);
+    }
+
+    /**
+     * @param keyStoreType type of the keystore, e.g {@link #KEY_STORE_TYPE_JCEKS}. Detected from the content if empty
+     */
+    public static KeyStore load(final String keyStoreName, final String keyStorePassword, final boolean useInputStream,
+                                final String keyStoreType) {
         try {
             if (useInputStream) {
                 final InputStream is = FileUtils.getInstance().getFileAsInputStreamFromClassPath(keyStoreName);
                 if (is != null) {
-                    return load(is, keyStorePassword);
+                    try {
+                        return load(is, keyStorePassword, keyStoreType);
+                    } finally {
+                        Closeables.close(is, true);
+                    }
                 }
                 return null;
             }
             final File keyStoreFile = FileUtils.getInstance().getFileFromClassPath(keyStoreName);
-            final KeyStore ks = load(keyStoreFile, keyStorePassword);
+            final KeyStore ks = load(keyStoreFile, keyStorePassword, keyStoreType);
             if (ks != null) {
                 return ks;
             }
@@ -60,6 +76,28 @@ public final class KeyStoreUtils {
         return null;
     }
 
+    /**
+     * Same as {@link #load(String, String, boolean)}, but the keystore is taken from {@link KeyStoreCache} when the
+     * file is unchanged since last time. Keystores not found as a file on the classpath (e.g inside a jar) is read
+     * from the classpath every time.
+     *
+     * @param keyStoreName     name of the keystore on the classpath
+     * @param keyStorePassword password of the keystore
+     * @return the (shared) keystore, or null if it could not be loaded
+     */
+    public static KeyStore loadCached(final String keyStoreName, final String keyStorePassword) {
+        final File keyStoreFile = FileUtils.getInstance().getFileFromClassPath(keyStoreName);
+        if (keyStoreFile == null || !keyStoreFile.isFile()) {
+            return load(keyStoreName, keyStorePassword, true);
+        }
+        try {
+            return KeyStoreCache.getInstance().get(keyStoreFile, keyStorePassword);
+        } catch (KeyStoreException | CertificateException | IOException | NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     public static KeyStore load() throws KeyStoreException, IOException, NoSuchAlgorithmException,
             CertificateException {
         return load(DEFAULT_KEYSTORE_FILE, DEFAULT_KEYSTORE_PASSWORD);
@@ -72,10 +110,15 @@ public final class KeyStoreUtils {
 
     public static KeyStore load(File storeFile, String storePassword) throws KeyStoreException, IOException,
             NoSuchAlgorithmException, CertificateException {
+        return load(storeFile, storePassword, null);
+    }
+
+    public static KeyStore load(File storeFile, String storePassword, String keyStoreType) throws KeyStoreException,
+            IOException, NoSuchAlgorithmException, CertificateException {
         InputStream is = null;
         try {
             is = new FileInputStream(storeFile);
-            return load(is, storePassword);
+            return load(is, storePassword, keyStoreType);
         } finally {
             Closeables.close(is, true);
         }
@@ -83,19 +126,49 @@ public final class KeyStoreUtils {
 
     public static KeyStore load(byte[] data, String storePassword) throws KeyStoreException, IOException,
             NoSuchAlgorithmException, CertificateException {
-        InputStream is = null;
+        return load(data, storePassword, null);
+    }
 
+    public static KeyStore load(byte[] data, String storePassword, String keyStoreType) throws KeyStoreException,
+            IOException, NoSuchAlgorithmException, CertificateException {
+        if (Strings.isNullOrEmpty(keyStoreType)) {
+            keyStoreType = detectKeyStoreType(data);
+        }
+        InputStream is = null;
         try {
             is = new ByteArrayInputStream(data);
-            return load(is, storePassword);
+            return load(is, storePassword, keyStoreType);
         } finally {
             Closeables.close(is, true);
         }
     }
 
+    /**
+     * Load the keystore, detecting the type from the first bytes of the stream. A null stream gives an empty
+     * keystore of the {@link #DEFAULT_KEY_STORE_TYPE}.
+     */
     public static KeyStore load(InputStream is, String storePassword) throws KeyStoreException, IOException,
             NoSuchAlgorithmException, CertificateException {
-        KeyStore keystore = create();
+        return load(is, storePassword, null);
+    }
+
+    /**
+     * @param keyStoreType type of the keystore, e.g {@link #KEY_STORE_TYPE_JCEKS}. Detected from the first bytes of
+     *                     the stream if empty
+     */
+    public static KeyStore load(InputStream is, String storePassword, String keyStoreType) throws KeyStoreException,
+            IOException, NoSuchAlgorithmException, CertificateException {
+        if (Strings.isNullOrEmpty(keyStoreType)) {
+            if (is == null) {
+                keyStoreType = DEFAULT_KEY_STORE_TYPE;
+            } else {
+                if (!is.markSupported()) {
+                    is = new BufferedInputStream(is);
+                }
+                keyStoreType = detectKeyStoreType(is);
+            }
+        }
+        KeyStore keystore = create(keyStoreType);
         if (storePassword == null || storePassword.isEmpty()) {
             storePassword = DEFAULT_KEYSTORE_PASSWORD;
         }
@@ -103,22 +176,101 @@ public final class KeyStoreUtils {
         return keystore;
     }
 
-    public static List<String> getAliases(KeyStore keystore) throws KeyStoreException {
-        List<String> ret = Lists.newArrayList();
+    /**
+     * Detect the keystore type from the magic bytes of the file: JKS starts with 0xFEEDFEED, JCEKS with 0xCECECECE
+     * and PKCS12 with a DER sequence.
+     *
+     * @throws KeyStoreException if the type could not be detected
+     */
+    public static String detectKeyStoreType(final File storeFile) throws KeyStoreException, IOException {
+        if (storeFile == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(storeFile);
+            return detectKeyStoreType(readMagic(is));
+        } finally {
+            Closeables.close(is, true);
+        }
+    }
+
+    /**
+     * Same as {@link #detectKeyStoreType(File)}, but for a stream supporting mark(). The stream is reset to where it
+     * was after the magic bytes has been read.
+     */
+    public static String detectKeyStoreType(final InputStream is) throws KeyStoreException, IOException {
+        if (is == null || !is.markSupported()) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        is.mark(MAGIC_LENGTH);
+        try {
+            return detectKeyStoreType(readMagic(is));
+        } finally {
+            is.reset();
+        }
+    }
+
+    public static String detectKeyStoreType(final byte[] data) throws KeyStoreException {
+        if (data == null) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        if (data.length >= MAGIC_LENGTH) {
+            final int magic = (data[0] & 0xff) << 24 | (data[1] & 0xff) << 16 | (data[2] & 0xff) << 8 | data[3] & 0xff;
+            if (magic == MAGIC_JKS) {
+                return KEY_STORE_TYPE_JKS;
+            }
+            if (magic == MAGIC_JCEKS) {
+                return KEY_STORE_TYPE_JCEKS;
+            }
+        }
+        if (data.length > 0 && (data[0] & 0xff) == DER_SEQUENCE) {
+            return KEY_STORE_TYPE_PKCS12;
+        }
+        throw new KeyStoreException("Unable to detect the type of the keystore. Unknown format.");
+    }
 
-        Enumeration<String> aliases = keystore.aliases();
-        while (aliases.hasMoreElements()) {
-            String alias = aliases.nextElement();
-            ret.add(alias);
+    private static byte[] readMagic(final InputStream is) throws IOException {
+        final byte[] magic = new byte[MAGIC_LENGTH];
+        int read = 0;
+        while (read < magic.length) {
+            final int n = is.read(magic, read, magic.length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
         }
+        return Arrays.copyOf(magic, read);
+    }
 
-        return ret;
+    /**
+     * Open (or create) a keystore spread over shardCount files in the directory. See {@link ShardedKeyStore}.
+     */
+    public static ShardedKeyStore openSharded(final File directory, final int shardCount, final String storePassword,
+                                              final String keyStoreType) throws IOException {
+        return ShardedKeyStore.open(directory, shardCount,
+                Strings.isNullOrEmpty(storePassword) ? DEFAULT_KEYSTORE_PASSWORD : storePassword, keyStoreType);
     }
 
-    private static KeyStore create() {
+    /**
+     * @return the aliases, from the {@link KeyStoreIndex} of the keystore. The list can not be changed
+     */
+    public static List<String> getAliases(KeyStore keystore) throws KeyStoreException {
+        return KeyStoreIndex.of(keystore).getAliases();
+    }
+
+    /**
+     * The index of the keystore, for lookups by entry type, alias prefix, subject, issuer and fingerprint. Built on
+     * first use, and kept until the keystore changes.
+     */
+    public static KeyStoreIndex getIndex(KeyStore keystore) throws KeyStoreException {
+        return KeyStoreIndex.of(keystore);
+    }
+
+    private static KeyStore create(final String keyStoreType) {
         KeyStore keystore;
         try {
-            keystore = KeyStore.getInstance(keystoreType);
+            keystore = KeyStore.getInstance(keyStoreType);
         } catch (KeyStoreException e) {
             throw new IllegalStateException("Error building keystore", e);
         }
@@ -127,7 +279,13 @@ public final class KeyStoreUtils {
 
     public static KeyStore createEmpty(String storePassword) throws KeyStoreException, NoSuchAlgorithmException,
             CertificateException, IOException {
-        return load((InputStream) null, storePassword);
+        return createEmpty(storePassword, DEFAULT_KEY_STORE_TYPE);
+    }
+
+    public static KeyStore createEmpty(String storePassword, String keyStoreType) throws KeyStoreException,
+            NoSuchAlgorithmException, CertificateException, IOException {
+        return load((InputStream) null, storePassword,
+                Strings.isNullOrEmpty(keyStoreType) ? DEFAULT_KEY_STORE_TYPE : keyStoreType);
     }
 
     public static KeyStore createEmpty()
@@ -153,44 +311,45 @@ public final class KeyStoreUtils {
                     counter++;
                 }
             }
-            try {
-                final FileOutputStream fileOutputStream = new FileOutputStream(file);
-                try {
-                    keyStore.store(fileOutputStream, password.toCharArray());
-                    return file.exists();
-                } catch (KeyStoreException | CertificateException | NoSuchAlgorithmException e) {
-                    throw new IOException("Unable to store the keyStore. Error was:\n" + e);
-                }
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+                keyStore.store(os, password.toCharArray());
+            } catch (KeyStoreException | CertificateException | NoSuchAlgorithmException e) {
+                throw new IOException("Unable to store the keyStore. Error was:\n" + e);
             } catch (FileNotFoundException e) {
                 throw new IOException("Unable to create keystore on location. Not found." + e);
             }
+            return file.exists();
         }
         throw new IllegalArgumentException("Missing arguments.");
     }
 
-    public static List<X509Certificate[]> getCertificateChains(KeyStore keystore) throws KeyStoreException {
-        List<X509Certificate[]> chains = Lists.newArrayList();
-
-        for (String alias : getAliases(keystore)) {
-            X509Certificate[] certificateChain = (X509Certificate[]) keystore.getCertificateChain(alias);
-            if (certificateChain == null) {
-                continue;
-            }
-            chains.add(certificateChain);
+    /**
+     * Save the keystore in the background, replacing the file on the location atomically. Saves of the same location
+     * that are requested while one is waiting are written once. See {@link KeyStoreWriter}.
+     *
+     * @return the saved file, when it is on disk
+     */
+    public static Future<File> saveKeyStoreAsync(final KeyStore keyStore, final String password, final String location)
+            throws IOException {
+        if (keyStore == null || Strings.isNullOrEmpty(location)) {
+            throw new IllegalArgumentException("Missing arguments.");
         }
-        return chains;
+        return KeyStoreWriter.getInstance().save(keyStore, (password != null) ? password : "", new File(location));
     }
 
-    public static List<String> getKeyAliases(KeyStore keystore) throws KeyStoreException {
-        List<String> ret = Lists.newArrayList();
-
-        for (String alias : getAliases(keystore)) {
-            if (keystore.isKeyEntry(alias)) {
-                ret.add(alias);
-            }
-        }
+    /**
+     * @return the certificate chains, from the {@link KeyStoreIndex} of the keystore. The list can not be changed
+     */
+    public static List<X509Certificate[]> getCertificateChains(KeyStore keystore) throws KeyStoreException {
+        return KeyStoreIndex.of(keystore).getCertificateChains();
+    }
 
-        return ret;
+    /**
+     * @return the aliases of the key entries, from the {@link KeyStoreIndex} of the keystore. The list can not be
+     * changed
+     */
+    public static List<String> getKeyAliases(KeyStore keystore) throws KeyStoreException {
+        return KeyStoreIndex.of(keystore).getKeyAliases();
     }
 
     public static X509Certificate getCertificate(final KeyStore keyStore, final String alias) throws KeyStoreException {
@@ -227,6 +386,7 @@ public final class KeyStoreUtils {
             KeyStore.PasswordProtection passwordProtection =
                     new KeyStore.PasswordProtection(password.toCharArray());
             keyStore.setEntry(alias, entry, passwordProtection);
+            KeyStoreIndex.invalidate(keyStore);
             try {
                 passwordProtection.destroy();
             } catch (DestroyFailedException e) {
@@ -263,6 +423,22 @@ public final class KeyStoreUtils {
         );
     }
 
+    /**
+     * Same as {@link #getKey(KeyStore, String, String)}, but the recovered key is kept in {@link KeyCache}.
+     */
+    public static Key getCachedKey(final KeyStore keyStore, final String alias, final String password)
+            throws KeyStoreException {
+        return KeyCache.getInstance().getKey(keyStore, alias, password);
+    }
+
+    /**
+     * Same as {@link #getKeyPair(KeyStore, String, String)}, but the recovered key is kept in {@link KeyCache}.
+     */
+    public static Map<String, Object> getCachedKeyPair(final KeyStore keyStore, final String alias,
+                                                       final String password) throws KeyStoreException {
+        return KeyCache.getInstance().getKeyPair(keyStore, alias, password);
+    }
+
     public static Map<String, Object> getKeyPair(final KeyStore keyStore, final String alias, final String password)
             throws KeyStoreException {
         if (keyStore != null && !Strings.isNullOrEmpty(alias) && !Strings.isNullOrEmpty(password)) {
@@ -309,23 +485,25 @@ public final class KeyStoreUtils {
         );
     }
 
+    /**
+     * Create a self-signed certificate and add it with the private key to the keystore, replacing any entry of the
+     * alias. The key pair is taken from the {@link KeyPairPool}, so it is usually generated in advance.
+     */
     public static void createSelfSigned(KeyStore keystore, String alias, String keyPassword, X500Name x500Name,
                                         int validityDays, String keyAlgorithmName, int keySize, String signatureAlgName)
             throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException, CertificateException,
             SignatureException, KeyStoreException {
 
-        String providerName = null;
-        CertAndKeyGen keypair = new CertAndKeyGen(keyAlgorithmName, signatureAlgName, providerName);
-
-        keypair.generate(keySize);
-        PrivateKey privKey = keypair.getPrivateKey();
+        KeyPair keyPair = KeyPairPool.getInstance().take(keyAlgorithmName, keySize);
 
         X509Certificate[] chain = new X509Certificate[1];
 
         Date startDate = new Date(System.currentTimeMillis() - 24L * 60L * 60L);
-        chain[0] = keypair.getSelfCertificate(x500Name, startDate, (validityDays + 1) * 24L * 60L * 60L);
+        chain[0] = selfSign(x500Name, keyPair, startDate, (validityDays + 1) * 24L * 60L * 60L, signatureAlgName);
 
-        keystore.setKeyEntry(alias, privKey, keyPassword.toCharArray(), chain);
+        keystore.setKeyEntry(alias, keyPair.getPrivate(), keyPassword.toCharArray(), chain);
+        KeyStoreIndex.invalidate(keystore);
+        KeyCache.getInstance().invalidate(keystore);
     }
 
     public static void createSelfSigned(KeyStore keystore, String alias, String keyPassword, X500Name x500Name,
@@ -345,15 +523,17 @@ public final class KeyStoreUtils {
         }
     }
 
+    /**
+     * Parse the certificate, or get it from the {@link CertificateCache} if the same bytes has been parsed before.
+     * The certificate is shared with other callers.
+     *
+     * @return the certificate, or null if the bytes is missing or not a certificate
+     */
     public static X509Certificate getCertificateFromByteArray(final byte[] bytes, String algorithm) {
-        if (bytes != null) {
-            algorithm = (!algorithm.equals("") ? algorithm : "X509");
+        if (bytes != null && bytes.length > 0) {
+            algorithm = (!Strings.isNullOrEmpty(algorithm) ? algorithm : "X509");
             try {
-                CertificateFactory certificateFactory = CertificateFactory.getInstance(algorithm);
-                X509Certificate generatedCertificate = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(bytes));
-                if (generatedCertificate != null) {
-                    return generatedCertificate;
-                }
+                return CertificateCache.getInstance().get(bytes, algorithm);
             } catch (CertificateException e) {
                 e.getStackTrace();
             }
@@ -363,38 +543,39 @@ public final class KeyStoreUtils {
 
     public static X509Certificate generateCertificate(String dn, KeyPair pair, int days, String algorithm)
             throws GeneralSecurityException, IOException {
-        PrivateKey privateKey = pair.getPrivate();
-        X509CertInfo info = new X509CertInfo();
-        Date from = new Date();
-        Date to = new Date(from.getTime() + days * 86400000l);
-        CertificateValidity interval = new CertificateValidity(from, to);
-        BigInteger sn = new BigInteger(64, new SecureRandom());
-        X500Name owner = new X500Name(dn);
-        info.set(X509CertInfo.VALIDITY, interval);
-        info.set(X509CertInfo.SERIAL_NUMBER, new CertificateSerialNumber(sn));
-        info.set(X509CertInfo.SUBJECT, new CertificateSubjectName(owner));
-        info.set(X509CertInfo.ISSUER, new CertificateIssuerName(owner));
-        info.set(X509CertInfo.KEY, new CertificateX509Key(pair.getPublic()));
-        info.set(X509CertInfo.VERSION, new CertificateVersion(CertificateVersion.V3));
-        AlgorithmId algo = new AlgorithmId(AlgorithmId.md5WithRSAEncryption_oid);
-        info.set(X509CertInfo.ALGORITHM_ID, new CertificateAlgorithmId(algo));
-        X509CertImpl cert = new X509CertImpl(info);
-        cert.sign(privateKey, algorithm);
-        algo = (AlgorithmId) cert.get(X509CertImpl.SIG_ALG);
-        info.set(CertificateAlgorithmId.NAME + "." + CertificateAlgorithmId.ALGORITHM, algo);
-        cert = new X509CertImpl(info);
-        cert.sign(privateKey, algorithm);
-
-        return cert;
-    }
-
-    public static String getKeystoreType() {
-        return keystoreType;
-    }
-
-    public static void setKeystoreType(final String type) {
-        if (type != null && !type.isEmpty()) {
-            keystoreType = type;
+        return selfSign(new X500Name(dn), pair, new Date(), days * 86400L, algorithm);
+    }
+
+    private static X509Certificate selfSign(X500Name owner, KeyPair pair, Date from, long validitySeconds,
+                                            String signatureAlgName)
+            throws CertificateException, InvalidKeyException, SignatureException, NoSuchAlgorithmException,
+            NoSuchProviderException {
+        try {
+            X509CertInfo info = new X509CertInfo();
+            info.set(X509CertInfo.VERSION, new CertificateVersion(CertificateVersion.V3));
+            info.set(X509CertInfo.SERIAL_NUMBER, new CertificateSerialNumber(new BigInteger(64, new SecureRandom())));
+            info.set(X509CertInfo.ALGORITHM_ID, new CertificateAlgorithmId(AlgorithmId.get(signatureAlgName)));
+            setName(info, X509CertInfo.SUBJECT, new CertificateSubjectName(owner), owner);
+            setName(info, X509CertInfo.ISSUER, new CertificateIssuerName(owner), owner);
+            info.set(X509CertInfo.KEY, new CertificateX509Key(pair.getPublic()));
+            info.set(X509CertInfo.VALIDITY, new CertificateValidity(from, new Date(from.getTime() + validitySeconds * 1000L)));
+            X509CertImpl certificate = new X509CertImpl(info);
+            certificate.sign(pair.getPrivate(), signatureAlgName);
+            return certificate;
+        } catch (IOException e) {
+            throw new CertificateEncodingException("Unable to create certificate for " + owner, e);
+        }
+    }
+
+    /**
+     * Java 7 takes the subject and issuer wrapped (CertificateSubjectName), Java 8 and newer takes the X500Name.
+     */
+    private static void setName(X509CertInfo info, String field, Object wrapped, X500Name name)
+            throws CertificateException, IOException {
+        try {
+            info.set(field, wrapped);
+        } catch (CertificateException e) {
+            info.set(field, name);
         }
     }
 
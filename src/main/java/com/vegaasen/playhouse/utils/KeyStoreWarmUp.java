@@ -0,0 +1,199 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.base.Strings;
+import com.vegaasen.playhouse.model.KeyStoreManifest;
+import com.vegaasen.playhouse.model.KeyStoreWarmUpResult;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the keystores of a manifest in parallel, and unlocks the keys of the listed aliases into the {@link KeyCache}.
+ * Nothing is put into the {@link KeyStoreCache} before all keystores has been loaded and unlocked; if one of them
+ * fails, none of them is published, and the keys already unlocked from any of them is removed from the KeyCache.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class KeyStoreWarmUp {
+
+    private static final KeyStoreWarmUp INSTANCE = new KeyStoreWarmUp(KeyStoreCache.getInstance(), KeyCache.getInstance());
+
+    private final KeyStoreCache keyStoreCache;
+    private final KeyCache keyCache;
+
+    public KeyStoreWarmUp(final KeyStoreCache keyStoreCache, final KeyCache keyCache) {
+        if (keyStoreCache == null || keyCache == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        this.keyStoreCache = keyStoreCache;
+        this.keyCache = keyCache;
+    }
+
+    public static KeyStoreWarmUp getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Same as {@link #warmUp(KeyStoreManifest, int)}, with one thread per available processor.
+     */
+    public KeyStoreWarmUpResult warmUp(final KeyStoreManifest manifest) throws KeyStoreException {
+        return warmUp(manifest, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param manifest the keystores and aliases to load
+     * @param threads  maximum number of keystores to load at the same time
+     * @return the loaded keystores and the time used on each of them
+     * @throws KeyStoreException if any of the keystores or keys could not be loaded
+     */
+    public KeyStoreWarmUpResult warmUp(final KeyStoreManifest manifest, final int threads) throws KeyStoreException {
+        if (manifest == null || threads < 1) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        final List<KeyStoreManifest.Entry> entries = manifest.getEntries();
+        final long start = System.nanoTime();
+        final List<LoadedKeyStore> loaded = new ArrayList<>();
+        final List<KeyStore> opened = new CopyOnWriteArrayList<>();
+        if (!entries.isEmpty()) {
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, entries.size()));
+            KeyStoreException failure = null;
+            try {
+                final List<Future<LoadedKeyStore>> futures = new ArrayList<>();
+                for (final KeyStoreManifest.Entry entry : entries) {
+                    futures.add(executor.submit(new Callable<LoadedKeyStore>() {
+                        @Override
+                        public LoadedKeyStore call() throws Exception {
+                            return load(entry, opened);
+                        }
+                    }));
+                }
+                // wait for every load, so that no keys are unlocked after a failure has been cleaned up
+                for (final Future<LoadedKeyStore> future : futures) {
+                    try {
+                        loaded.add(future.get());
+                    } catch (final ExecutionException e) {
+                        if (failure == null) {
+                            failure = (e.getCause() instanceof KeyStoreException) ?
+                                    (KeyStoreException) e.getCause() :
+                                    new KeyStoreException("Unable to warm up the keystores.", e.getCause());
+                        }
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new KeyStoreException("Interrupted while warming up the keystores.", e);
+            } finally {
+                executor.shutdownNow();
+            }
+            if (failure != null) {
+                discard(opened);
+                throw failure;
+            }
+        }
+        final Map<String, KeyStore> keyStores = new LinkedHashMap<>();
+        final Map<String, Long> loadNanos = new LinkedHashMap<>();
+        int keysUnlocked = 0;
+        final List<LoadedKeyStore> published = new ArrayList<>();
+        for (final LoadedKeyStore keyStore : loaded) {
+            try {
+                keyStoreCache.publish(keyStore.file, keyStore.entry.getPassword(), keyStore.type, keyStore.keyStore,
+                        keyStore.lastModified, keyStore.length);
+            } catch (final Exception e) {
+                for (final LoadedKeyStore publishedKeyStore : published) {
+                    try {
+                        keyStoreCache.invalidate(publishedKeyStore.file);
+                    } catch (final IOException ignored) {
+                        // the file has already been resolved once, so this does not happen
+                    }
+                }
+                discard(opened);
+                throw new KeyStoreException("Unable to publish keystore " + keyStore.entry.getName(), e);
+            }
+            published.add(keyStore);
+            keyStores.put(keyStore.entry.getName(), keyStore.keyStore);
+            loadNanos.put(keyStore.entry.getName(), keyStore.nanoResult);
+            keysUnlocked += keyStore.entry.getAliases().size();
+        }
+        return new KeyStoreWarmUpResult(keyStores, loadNanos, keysUnlocked, System.nanoTime() - start);
+    }
+
+    /**
+     * Remove the keys unlocked from the keystores from the KeyCache.
+     */
+    private void discard(final List<KeyStore> keyStores) {
+        for (final KeyStore keyStore : keyStores) {
+            keyCache.invalidate(keyStore);
+        }
+    }
+
+    /**
+     * @param opened the keystore is added here as soon as it is loaded, before any of its keys are unlocked
+     */
+    private LoadedKeyStore load(final KeyStoreManifest.Entry entry, final List<KeyStore> opened) throws Exception {
+        final long start = System.nanoTime();
+        final File file = getFile(entry.getName()).getCanonicalFile();
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+        final String type = Strings.isNullOrEmpty(entry.getType()) ?
+                KeyStoreUtils.detectKeyStoreType(file) :
+                entry.getType();
+        final KeyStore keyStore = KeyStoreUtils.load(file, entry.getPassword(), type);
+        opened.add(keyStore);
+        for (final Map.Entry<String, String> alias : entry.getAliases().entrySet()) {
+            if (keyStore.entryInstanceOf(alias.getKey(), KeyStore.PrivateKeyEntry.class)) {
+                keyCache.getKeyPair(keyStore, alias.getKey(), alias.getValue());
+            } else {
+                keyCache.getKey(keyStore, alias.getKey(), alias.getValue());
+            }
+        }
+        return new LoadedKeyStore(entry, file, type, keyStore, lastModified, length, System.nanoTime() - start);
+    }
+
+    private static File getFile(final String name) throws FileNotFoundException {
+        File file = FileUtils.getInstance().getFileFromClassPath(name);
+        if (file == null || !file.isFile()) {
+            file = FileUtils.getInstance().getFileFromFileSystem(name);
+        }
+        if (file == null || !file.isFile()) {
+            throw new FileNotFoundException(String.format("Unable to find keystore {%s}.", name));
+        }
+        return file;
+    }
+
+    private static final class LoadedKeyStore {
+
+        private final KeyStoreManifest.Entry entry;
+        private final File file;
+        private final String type;
+        private final KeyStore keyStore;
+        private final long lastModified;
+        private final long length;
+        private final long nanoResult;
+
+        private LoadedKeyStore(final KeyStoreManifest.Entry entry, final File file, final String type,
+                               final KeyStore keyStore, final long lastModified, final long length,
+                               final long nanoResult) {
+            this.entry = entry;
+            this.file = file;
+            this.type = type;
+            this.keyStore = keyStore;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.nanoResult = nanoResult;
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Saves keystores in the background. The keystore is written to a temporary file next to the target, forced to
+ * disk and then renamed over the target, so the target is either the old or the new keystore, never half of one.
+ * The temporary file is only readable by the owner, and gets the permissions of the target it replaces.
+ * <p/>
+ * Saves of the same location that are requested before the previous one has started are coalesced: the keystore
+ * is written once, with the content it has when the write starts, and all callers get the same future. Do not
+ * change the keystore from another thread while it is being written.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class KeyStoreWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int LOCK_STRIPES = 64;
+    private static final KeyStoreWriter INSTANCE = new KeyStoreWriter(Runtime.getRuntime().availableProcessors());
+
+    private final ExecutorService executor;
+    private final Map<String, PendingSave> pending = new HashMap<>();
+    private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    public KeyStoreWriter(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least 1, was " + threads + ".");
+        }
+        executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("keystore-writer-%d").build());
+    }
+
+    public static KeyStoreWriter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Save the keystore to the location, replacing what is there.
+     *
+     * @param keyStore the keystore
+     * @param password password of the keystore
+     * @param location where to save it
+     * @return the saved file, when it is on disk
+     */
+    public Future<File> save(final KeyStore keyStore, final String password, final File location) throws IOException {
+        if (keyStore == null || password == null || location == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        requests.incrementAndGet();
+        final File target = location.getCanonicalFile();
+        final String path = target.getPath();
+        synchronized (pending) {
+            PendingSave save = pending.get(path);
+            if (save != null) {
+                save.keyStore = keyStore;
+                save.password = password;
+                return save.future;
+            }
+            save = new PendingSave(target, keyStore, password);
+            pending.put(path, save);
+            executor.execute(save.future);
+            return save.future;
+        }
+    }
+
+    /**
+     * @return number of saves requested
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return number of times a keystore has actually been written, i.e the requests minus the coalesced ones
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * Write the keystore to a temporary file, force it to disk and move it over the target.
+     */
+    static void write(final KeyStore keyStore, final String password, final File target) throws IOException {
+        final File directory = target.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        final Path temporary = Files.createTempFile(directory.toPath(), "." + target.getName() + ".", TEMP_SUFFIX);
+        try {
+            copyPermissions(target.toPath(), temporary);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                // some keystore types close the stream when done, and the channel must be kept open for force()
+                final OutputStream os = new BufferedOutputStream(
+                        new FilterOutputStream(Channels.newOutputStream(channel)) {
+                            @Override
+                            public void write(final byte[] b, final int off, final int len) throws IOException {
+                                out.write(b, off, len);
+                            }
+
+                            @Override
+                            public void close() throws IOException {
+                                flush();
+                            }
+                        }, BUFFER_SIZE);
+                keyStore.store(os, password.toCharArray());
+                os.flush();
+                channel.force(true);
+            } catch (KeyStoreException | CertificateException | NoSuchAlgorithmException e) {
+                throw new IOException("Unable to store the keyStore.", e);
+            }
+            try {
+                Files.move(temporary, target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Give the temporary file the permissions and owner of the target it is about to replace. A new temporary file is
+     * only readable by the owner (on POSIX), which is also what a new target gets.
+     */
+    private static void copyPermissions(final Path target, final Path temporary) throws IOException {
+        final PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (targetView == null || !Files.exists(target)) {
+            return;
+        }
+        final PosixFileAttributes attributes = targetView.readAttributes();
+        final PosixFileAttributeView temporaryView = Files.getFileAttributeView(temporary, PosixFileAttributeView.class);
+        temporaryView.setPermissions(attributes.permissions());
+        final PosixFileAttributes temporaryAttributes = temporaryView.readAttributes();
+        try {
+            if (!attributes.group().equals(temporaryAttributes.group())) {
+                temporaryView.setGroup(attributes.group());
+            }
+            if (!attributes.owner().equals(temporaryAttributes.owner())) {
+                temporaryView.setOwner(attributes.owner());
+            }
+        } catch (final IOException e) {
+            // changing owner is only allowed for privileged users; the keystore is then owned by the writer instead
+        }
+    }
+
+    private final class PendingSave implements Callable<File> {
+
+        private final File target;
+        private final FutureTask<File> future;
+        private KeyStore keyStore;
+        private String password;
+
+        private PendingSave(final File target, final KeyStore keyStore, final String password) {
+            this.target = target;
+            this.keyStore = keyStore;
+            this.password = password;
+            this.future = new FutureTask<>(this);
+        }
+
+        @Override
+        public File call() throws Exception {
+            final Lock lock = locks.get(target.getPath());
+            lock.lock();
+            try {
+                final KeyStore toWrite;
+                final String toWritePassword;
+                synchronized (pending) {
+                    pending.remove(target.getPath());
+                    toWrite = keyStore;
+                    toWritePassword = password;
+                }
+                write(toWrite, toWritePassword, target);
+                writes.incrementAndGet();
+                return target;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
@@ -1,9 +1,13 @@
 package com.vegaasen.playhouse.utils;
 
 import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
+import java.util.Arrays;
 
 /**
+ * Lowercase hex encoding and decoding using lookup tables. Each byte always becomes exactly two characters, so leading
+ * zero bytes and bytes above 0x7f are kept as they are. The methods taking a destination char[], byte[] or
+ * StringBuilder does not allocate anything, and may be used in hot paths.
+ *
  * @author <a href="mailto:vegaasen@gmail.com">Vegard Aasen</a>
  */
 public final class RadixUtils {
@@ -11,11 +15,25 @@ public final class RadixUtils {
     public static final String DEFAULT_ENCODING = "UTF-8";
 
     private static final String EMPTY = "";
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+    private static final byte[] HEX_BYTES = new byte[HEX_CHARS.length];
+    private static final byte[] HEX_VALUES = new byte[128];
 
     private static String encoding;
 
     static {
         encoding = DEFAULT_ENCODING;
+        for (int i = 0; i < HEX_CHARS.length; i++) {
+            HEX_BYTES[i] = (byte) HEX_CHARS[i];
+        }
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
     }
 
     private RadixUtils() {
@@ -31,11 +49,122 @@ public final class RadixUtils {
     }
 
     public static String convertToHex(final byte[] message) {
-        return String.format("%040x", new BigInteger(message));
+        if (message == null) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        final char[] hex = new char[hexLength(message.length)];
+        convertToHex(message, 0, message.length, hex, 0);
+        return new String(hex);
+    }
+
+    /**
+     * Writes the hex of message[offset, offset + length) to destination, starting at destinationOffset.
+     *
+     * @return the index in destination after the last written character
+     */
+    public static int convertToHex(
+            final byte[] message,
+            final int offset,
+            final int length,
+            final char[] destination,
+            int destinationOffset) {
+        checkRange(message, offset, length);
+        checkRange(destination, destinationOffset, hexLength(length));
+        for (int i = offset, end = offset + length; i < end; i++) {
+            final int b = message[i];
+            destination[destinationOffset++] = HEX_CHARS[(b >>> 4) & 0x0f];
+            destination[destinationOffset++] = HEX_CHARS[b & 0x0f];
+        }
+        return destinationOffset;
     }
 
+    /**
+     * Writes the hex of message[offset, offset + length) as ASCII to destination, starting at destinationOffset.
+     *
+     * @return the index in destination after the last written byte
+     */
+    public static int convertToHex(
+            final byte[] message,
+            final int offset,
+            final int length,
+            final byte[] destination,
+            int destinationOffset) {
+        checkRange(message, offset, length);
+        checkRange(destination, destinationOffset, hexLength(length));
+        for (int i = offset, end = offset + length; i < end; i++) {
+            final int b = message[i];
+            destination[destinationOffset++] = HEX_BYTES[(b >>> 4) & 0x0f];
+            destination[destinationOffset++] = HEX_BYTES[b & 0x0f];
+        }
+        return destinationOffset;
+    }
+
+    /**
+     * Appends the hex of message[offset, offset + length) to destination.
+     *
+     * @return the destination
+     */
+    public static StringBuilder convertToHex(
+            final byte[] message,
+            final int offset,
+            final int length,
+            final StringBuilder destination) {
+        checkRange(message, offset, length);
+        if (destination == null) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        final int hexLength = hexLength(length);
+        if (hexLength > Integer.MAX_VALUE - destination.length()) {
+            throw new IllegalArgumentException("Invalid offset or length.");
+        }
+        destination.ensureCapacity(destination.length() + hexLength);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            final int b = message[i];
+            destination.append(HEX_CHARS[(b >>> 4) & 0x0f]).append(HEX_CHARS[b & 0x0f]);
+        }
+        return destination;
+    }
+
+    /**
+     * Decode a hex string. Upper- and lowercase is accepted.
+     *
+     * @param hexMessage the hex
+     * @return the bytes
+     * @throws IllegalArgumentException if the hex is null, of odd length or contains anything but hex digits
+     */
     public static byte[] convertFromHex(final String hexMessage) {
-        return stringToBytes(hexMessage);
+        if (hexMessage == null) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        final byte[] bytes = new byte[hexMessage.length() / 2];
+        convertFromHex(hexMessage, 0, hexMessage.length(), bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Decode hex[offset, offset + length) into destination, starting at destinationOffset.
+     *
+     * @return the number of bytes written, always length / 2
+     * @throws IllegalArgumentException if length is odd or the hex contains anything but hex digits
+     */
+    public static int convertFromHex(
+            final CharSequence hex,
+            final int offset,
+            final int length,
+            final byte[] destination,
+            final int destinationOffset) {
+        if (hex == null || offset < 0 || length < 0 || length > hex.length() - offset) {
+            throw new IllegalArgumentException("Invalid offset or length.");
+        }
+        if ((length & 1) != 0) {
+            throw new IllegalArgumentException("Hex must have an even number of digits, was " + length + ".");
+        }
+        checkRange(destination, destinationOffset, length / 2);
+        int w = destinationOffset;
+        for (int i = offset, end = offset + length; i < end; i += 2) {
+            destination[w++] = (byte) (parseHexDigit(hex.charAt(i)) << 4 | parseHexDigit(hex.charAt(i + 1)));
+        }
+        return length / 2;
     }
 
     public static void setEncoding(String enc) {
@@ -43,27 +172,33 @@ public final class RadixUtils {
     }
 
     private static int parseHexDigit(final char c) {
-        if (c >= '0' && c <= '9') {
-            return c - '0';
+        final int value = (c < HEX_VALUES.length) ? HEX_VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Unparsable hex digit `" + c + "'");
         }
-        if (c >= 'a' && c <= 'f') {
-            return 10 + c - 'a';
+        return value;
+    }
+
+    /**
+     * @return the number of hex digits of length bytes
+     * @throws IllegalArgumentException if that does not fit in an int
+     */
+    private static int hexLength(final int length) {
+        if (length < 0 || length > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Invalid offset or length.");
         }
-        if (c >= 'A' && c <= 'F') {
-            return 10 + c - 'A';
+        return length * 2;
+    }
+
+    private static void checkRange(final byte[] array, final int offset, final int length) {
+        if (array == null || offset < 0 || length < 0 || length > array.length - offset) {
+            throw new IllegalArgumentException("Invalid offset or length.");
         }
-        throw new RuntimeException("Unparsable hex digit `" + c + "'");
     }
 
-    private static byte[] stringToBytes(final String s) {
-        final char[] c = s.toCharArray();
-        final byte[] b = new byte[c.length / 2];
-        int w = 0;
-        for (int q = 0; q < b.length; q++) {
-            final int b1 = parseHexDigit(c[w++]);
-            final int b2 = parseHexDigit(c[w++]);
-            b[q] = (byte) (b1 << 4 | b2);
+    private static void checkRange(final char[] array, final int offset, final int length) {
+        if (array == null || offset < 0 || length < 0 || length > array.length - offset) {
+            throw new IllegalArgumentException("Invalid offset or length.");
         }
-        return b;
     }
 }
@@ -0,0 +1,247 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.crypto.SecretKey;
+import java.io.File;
+import java.io.IOException;
+import java.security.Key;
+import java.security.KeyException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A keystore spread over a number of smaller keystore files ("shards") in one directory, for when a single keystore
+ * would be too large to load and save as a whole. Each alias belongs to the shard given by the hash of the (lower case) alias.
+ * <p/>
+ * A shard is loaded the first time one of its aliases is used, and only the shards that has been changed are
+ * written on {@link #save()}. The number of shards is part of the layout; open the directory with the same number
+ * every time.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class ShardedKeyStore {
+
+    private static final String SHARD_FILE_FORMAT = "shard-%03d.%s";
+    private static final HashFunction SHARD_HASH = Hashing.murmur3_32();
+    private static final ExecutorService WRITERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sharded-keystore-writer-%d").build());
+
+    private final Shard[] shards;
+    private final String password;
+    private final String type;
+
+    private ShardedKeyStore(final File directory, final int shardCount, final String password, final String type) {
+        this.password = password;
+        this.type = type;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(new File(directory, String.format(SHARD_FILE_FORMAT, i, type.toLowerCase(Locale.ENGLISH))));
+        }
+    }
+
+    /**
+     * Open (or create) a sharded keystore. Nothing is loaded until it is used.
+     *
+     * @param directory  where the shards are kept, created if missing
+     * @param shardCount number of shards
+     * @param password   password of every shard
+     * @param type       keystore type of the shards, e.g {@link KeyStoreUtils#KEY_STORE_TYPE_JCEKS}
+     */
+    public static ShardedKeyStore open(final File directory, final int shardCount, final String password,
+                                       final String type) throws IOException {
+        if (directory == null || shardCount < 1 || password == null || Strings.isNullOrEmpty(type)) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        return new ShardedKeyStore(directory, shardCount, password, type);
+    }
+
+    public void addKey(final SecretKey secretKey, final String alias, final String keyPassword)
+            throws KeyException, KeyStoreException {
+        final Shard shard = getShard(alias);
+        synchronized (shard) {
+            KeyStoreUtils.addKey(shard.get(), secretKey, alias, keyPassword);
+            shard.dirty = true;
+        }
+    }
+
+    public void deleteEntry(final String alias) throws KeyStoreException {
+        final Shard shard = getShard(alias);
+        synchronized (shard) {
+            final KeyStore keyStore = shard.get();
+            if (keyStore.containsAlias(alias)) {
+                keyStore.deleteEntry(alias);
+                KeyStoreIndex.invalidate(keyStore);
+                shard.dirty = true;
+            }
+        }
+    }
+
+    public boolean containsAlias(final String alias) throws KeyStoreException {
+        return getShard(alias).get().containsAlias(alias);
+    }
+
+    public Key getKey(final String alias, final String keyPassword) throws KeyStoreException {
+        return KeyStoreUtils.getKey(getShard(alias).get(), alias, keyPassword);
+    }
+
+    public Map<String, Object> getKeyPair(final String alias, final String keyPassword) throws KeyStoreException {
+        return KeyStoreUtils.getKeyPair(getShard(alias).get(), alias, keyPassword);
+    }
+
+    public X509Certificate getCertificate(final String alias) throws KeyStoreException {
+        return KeyStoreUtils.getCertificate(getShard(alias).get(), alias);
+    }
+
+    /**
+     * @return all aliases. Loads every shard
+     */
+    public List<String> getAliases() throws KeyStoreException {
+        final List<String> aliases = new ArrayList<>();
+        for (final Shard shard : shards) {
+            shard.load(password, type);
+            aliases.addAll(KeyStoreUtils.getAliases(shard.get()));
+        }
+        return aliases;
+    }
+
+    /**
+     * @return number of entries. Loads every shard
+     */
+    public int size() throws KeyStoreException {
+        int size = 0;
+        for (final Shard shard : shards) {
+            shard.load(password, type);
+            size += shard.get().size();
+        }
+        return size;
+    }
+
+    /**
+     * Write the changed shards, in parallel. Each shard is replaced atomically.
+     *
+     * @return number of shards written
+     */
+    public int save() throws IOException {
+        final List<Future<Boolean>> writes = new ArrayList<>();
+        for (final Shard shard : shards) {
+            writes.add(WRITERS.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return shard.save(password);
+                }
+            }));
+        }
+        int written = 0;
+        try {
+            for (final Future<Boolean> write : writes) {
+                if (write.get()) {
+                    written++;
+                }
+            }
+        } catch (final ExecutionException e) {
+            throw new IOException("Unable to save shard.", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while saving shards.", e);
+        }
+        return written;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return number of shards that has been loaded (or created)
+     */
+    public int getLoadedShards() {
+        int loaded = 0;
+        for (final Shard shard : shards) {
+            if (shard.keyStore != null) {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * The alias is hashed in lower case, as JKS and JCEKS aliases is case-insensitive: every spelling of an alias
+     * belongs to the same shard.
+     */
+    int getShardIndex(final String alias) {
+        if (Strings.isNullOrEmpty(alias)) {
+            throw new IllegalArgumentException("Argument cannot be null or empty.");
+        }
+        return Hashing.consistentHash(
+                SHARD_HASH.hashString(alias.toLowerCase(Locale.ENGLISH), Charsets.UTF_8),
+                shards.length);
+    }
+
+    private Shard getShard(final String alias) throws KeyStoreException {
+        final Shard shard = shards[getShardIndex(alias)];
+        shard.load(password, type);
+        return shard;
+    }
+
+    private static final class Shard {
+
+        private final File file;
+        private volatile KeyStore keyStore;
+        private boolean dirty;
+
+        private Shard(final File file) {
+            this.file = file;
+        }
+
+        private void load(final String password, final String type) throws KeyStoreException {
+            if (keyStore != null) {
+                return;
+            }
+            synchronized (this) {
+                if (keyStore != null) {
+                    return;
+                }
+                try {
+                    keyStore = file.isFile() ?
+                            KeyStoreUtils.load(file, password, type) :
+                            KeyStoreUtils.createEmpty(password, type);
+                } catch (final Exception e) {
+                    throw new KeyStoreException("Unable to load shard " + file, e);
+                }
+            }
+        }
+
+        private KeyStore get() {
+            return keyStore;
+        }
+
+        private synchronized boolean save(final String password) throws IOException {
+            if (!dirty) {
+                return false;
+            }
+            KeyStoreWriter.write(keyStore, password, file);
+            dirty = false;
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.collect.ImmutableList;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.crypto.SecretKey;
+import javax.xml.crypto.AlgorithmMethod;
+import javax.xml.crypto.KeySelector;
+import javax.xml.crypto.KeySelectorException;
+import javax.xml.crypto.KeySelectorResult;
+import javax.xml.crypto.XMLCryptoContext;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.X509Data;
+import java.security.Key;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A reusable validator of enveloped signatures, bound to a set of trusted keys. The keys are resolved once, when the
+ * validator is created; a certificate is checked for validity then, and later only its expiry time is compared.
+ * <p/>
+ * The key to validate with is the trusted key of the certificate in the KeyInfo of the signature, if any. Otherwise
+ * each trusted key that fits the signature method is tried, until one of them validates the signature.
+ * <p/>
+ * The validator is thread-safe.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class SignatureValidator {
+
+    private static final String NODE_SIGNATURE = "Signature";
+
+    private final List<TrustedKey> trustedKeys;
+    private final Map<Key, TrustedKey> trustedByKey = new HashMap<>();
+
+    private SignatureValidator(final List<TrustedKey> trustedKeys) {
+        this.trustedKeys = ImmutableList.copyOf(trustedKeys);
+        for (final TrustedKey trustedKey : trustedKeys) {
+            trustedByKey.put(trustedKey.key, trustedKey);
+        }
+    }
+
+    /**
+     * Creates a validator trusting the keys, e.g HMac keys or public keys.
+     *
+     * @param keys the trusted keys
+     * @return the validator
+     */
+    public static SignatureValidator forKeys(final Collection<? extends Key> keys) {
+        if (keys == null || keys.isEmpty()) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        final List<TrustedKey> trustedKeys = new ArrayList<>(keys.size());
+        for (final Key key : keys) {
+            if (key == null) {
+                throw new IllegalArgumentException("Important argument is null, empty or missing.");
+            }
+            trustedKeys.add(new TrustedKey(key, Long.MAX_VALUE));
+        }
+        return new SignatureValidator(trustedKeys);
+    }
+
+    /**
+     * Creates a validator trusting the public keys of the certificates, until the certificates expire.
+     *
+     * @param certificates the trusted certificates
+     * @return the validator
+     * @throws CertificateException if one of the certificates has expired
+     */
+    public static SignatureValidator forCertificates(final Collection<X509Certificate> certificates)
+            throws CertificateException {
+        if (certificates == null || certificates.isEmpty()) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        final List<TrustedKey> trustedKeys = new ArrayList<>(certificates.size());
+        for (final X509Certificate certificate : certificates) {
+            if (!XmlSigningUtils.verifyCertificateValidity(certificate)) {
+                throw new IllegalArgumentException("Important argument is null, empty or missing.");
+            }
+            trustedKeys.add(new TrustedKey(certificate.getPublicKey(), certificate.getNotAfter().getTime()));
+        }
+        return new SignatureValidator(trustedKeys);
+    }
+
+    /**
+     * Validates the Signature of the document. The Signature is looked for among the children of the document
+     * element first, and then in the rest of the document.
+     *
+     * @param document the signed document
+     * @return true if the signature validates with one of the trusted keys
+     * @throws SignatureException if the Signature is missing, or none of the (unexpired) trusted keys fits it
+     */
+    public boolean validate(final Document document) throws SignatureException {
+        if (document == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        XmlSigningUtils.reindexIdAttributes(document);
+        final Node signatureNode = getSignatureNode(document.getDocumentElement());
+        try {
+            final TrustedKeySelector selector = new TrustedKeySelector(System.currentTimeMillis());
+            final DOMValidateContext context = new DOMValidateContext(selector, signatureNode);
+            if (XmlSigningUtils.getXMLSignatureFactory().unmarshalXMLSignature(context).validate(context)) {
+                return true;
+            }
+            for (final Key key : selector.remaining) {
+                final DOMValidateContext keyContext = new DOMValidateContext(key, signatureNode);
+                if (XmlSigningUtils.getXMLSignatureFactory().unmarshalXMLSignature(keyContext).validate(keyContext)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (final Exception e) {
+            throw new SignatureException("Signature verification error", e);
+        }
+    }
+
+    private static Node getSignatureNode(final Element rootElement) throws SignatureException {
+        for (Node child = rootElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE &&
+                    NODE_SIGNATURE.equals(child.getLocalName()) &&
+                    XMLSignature.XMLNS.equals(child.getNamespaceURI())) {
+                return child;
+            }
+        }
+        final NodeList nl = rootElement.getElementsByTagNameNS(XMLSignature.XMLNS, NODE_SIGNATURE);
+        if (nl.getLength() == 0) {
+            throw new SignatureException("Cannot find Signature element");
+        }
+        return nl.item(0);
+    }
+
+    /**
+     * @return true if the key is of the kind the signature method (e.g http://www.w3.org/2000/09/xmldsig#rsa-sha1)
+     * validates with
+     */
+    private static boolean fits(final Key key, final String signatureMethod) {
+        final String method = signatureMethod.toLowerCase(Locale.ENGLISH);
+        if (method.contains("hmac")) {
+            return key instanceof SecretKey;
+        }
+        if (method.contains("rsa")) {
+            return "RSA".equals(key.getAlgorithm());
+        }
+        if (method.contains("ecdsa")) {
+            return "EC".equals(key.getAlgorithm());
+        }
+        if (method.contains("dsa")) {
+            return "DSA".equals(key.getAlgorithm());
+        }
+        return false;
+    }
+
+    private static final class TrustedKey {
+
+        private final Key key;
+        private final long notAfter;
+
+        private TrustedKey(final Key key, final long notAfter) {
+            this.key = key;
+            this.notAfter = notAfter;
+        }
+    }
+
+    /**
+     * Selects the trusted key of the certificate in the KeyInfo, or else the first trusted key that fits the signature
+     * method. The other keys that fits is kept, to be tried if the selected one does not validate.
+     */
+    private final class TrustedKeySelector extends KeySelector {
+
+        private final long now;
+        private final List<Key> remaining = new ArrayList<>();
+
+        private TrustedKeySelector(final long now) {
+            this.now = now;
+        }
+
+        @Override
+        public KeySelectorResult select(
+                final KeyInfo keyInfo,
+                final Purpose purpose,
+                final AlgorithmMethod method,
+                final XMLCryptoContext context) throws KeySelectorException {
+            final Key certificateKey = getCertificateKey(keyInfo);
+            if (certificateKey != null) {
+                return createResult(certificateKey);
+            }
+            for (final TrustedKey trustedKey : trustedKeys) {
+                if (now <= trustedKey.notAfter && fits(trustedKey.key, method.getAlgorithm())) {
+                    remaining.add(trustedKey.key);
+                }
+            }
+            if (remaining.isEmpty()) {
+                throw new KeySelectorException("No trusted key fits the signature method " + method.getAlgorithm());
+            }
+            return createResult(remaining.remove(0));
+        }
+
+        private Key getCertificateKey(final KeyInfo keyInfo) {
+            if (keyInfo == null) {
+                return null;
+            }
+            for (final Object info : keyInfo.getContent()) {
+                if (info instanceof X509Data) {
+                    for (final Object data : ((X509Data) info).getContent()) {
+                        if (data instanceof X509Certificate) {
+                            final TrustedKey trustedKey = trustedByKey.get(((X509Certificate) data).getPublicKey());
+                            if (trustedKey != null && now <= trustedKey.notAfter) {
+                                return trustedKey.key;
+                            }
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+
+        private KeySelectorResult createResult(final Key key) {
+            return new KeySelectorResult() {
+                @Override
+                public Key getKey() {
+                    return key;
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.collect.ImmutableMap;
+import com.vegaasen.playhouse.types.HashType;
+
+import javax.xml.crypto.XMLStructure;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.SignatureMethod;
+import javax.xml.crypto.dsig.SignedInfo;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.keyinfo.X509Data;
+import javax.xml.crypto.dsig.spec.HMACParameterSpec;
+import javax.xml.crypto.dsig.spec.SignatureMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reusable signing setup for {@link XmlSigningUtils#signDocument}. The key, the algorithms and the KeyInfo is
+ * resolved once when the profile is created. The CanonicalizationMethod, SignatureMethod and DigestMethod are built
+ * once per thread, as the DOM-implementations of these keep internal state (e.g the java.security.Signature) while
+ * signing. The Transforms are created for each signature, as the enveloped transform binds itself to the first
+ * document it is used on.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class SigningProfile {
+
+    private static final Map<String, String> DIGEST_ALGORITHMS = ImmutableMap.<String, String>builder()
+            .put(DigestMethod.SHA1, "SHA-1")
+            .put(DigestMethod.SHA256, "SHA-256")
+            .put("http://www.w3.org/2001/04/xmldsig-more#sha384", "SHA-384")
+            .put(DigestMethod.SHA512, "SHA-512")
+            .build();
+
+    private final Key signingKey;
+    private final X509Certificate certificate;
+    private final long notAfter;
+    private final String signatureAlgorithm;
+    private final SignatureMethodParameterSpec signatureParameters;
+    private final KeyInfo keyInformation;
+    private final String digestAlgorithm;
+    private final ThreadLocal<Template> templates = new ThreadLocal<Template>() {
+        @Override
+        protected Template initialValue() {
+            try {
+                return createTemplate();
+            } catch (final GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to create signing template.", e);
+            }
+        }
+    };
+
+    private SigningProfile(
+            final Key signingKey,
+            final X509Certificate certificate,
+            final String signatureAlgorithm,
+            final SignatureMethodParameterSpec signatureParameters,
+            final KeyInfo keyInformation) throws SignatureException {
+        this.signingKey = signingKey;
+        this.certificate = certificate;
+        this.notAfter = (certificate != null) ? certificate.getNotAfter().getTime() : Long.MAX_VALUE;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.signatureParameters = signatureParameters;
+        this.keyInformation = keyInformation;
+        try {
+            final Template template = createTemplate();
+            templates.set(template);
+            this.digestAlgorithm = getDigestAlgorithm(template.digestMethod);
+        } catch (final GeneralSecurityException e) {
+            throw new SignatureException("Unable to create signing profile.", e);
+        }
+    }
+
+    /**
+     * Creates a profile for signing with a symmetric (HMac) key.
+     *
+     * @param signingKey the key to sign with
+     * @param hashType   HMac-type to use, e.g {@link HashType#HMAC_SHA_1}
+     * @return the profile
+     * @throws SignatureException if the hashType is not usable for signing
+     */
+    public static SigningProfile forKey(final Key signingKey, final HashType hashType) throws SignatureException {
+        if (signingKey != null && hashType != null) {
+            return new SigningProfile(
+                    signingKey,
+                    null,
+                    hashType.getXmlAlgorithm(),
+                    new HMACParameterSpec(hashType.getBitLength()),
+                    null);
+        }
+        throw new IllegalArgumentException("Important argument is null, empty or missing.");
+    }
+
+    /**
+     * Creates a profile for signing with a private key. The certificate is added to the KeyInfo of each signature.
+     *
+     * @param privateKey         the key to sign with
+     * @param signingCertificate the certificate belonging to the privateKey
+     * @return the profile
+     * @throws CertificateException if the certificate has expired
+     * @throws SignatureException   if the key is of an unknown type
+     */
+    public static SigningProfile forCertificate(final PrivateKey privateKey, final X509Certificate signingCertificate)
+            throws CertificateException, SignatureException {
+        if (privateKey != null && signingCertificate != null) {
+            XmlSigningUtils.verifyCertificateValidity(signingCertificate);
+            final KeyInfoFactory keyInfoFactory = XmlSigningUtils.getXMLSignatureFactory().getKeyInfoFactory();
+            final List<Object> x509Content = new ArrayList<>();
+            x509Content.add(signingCertificate.getSubjectX500Principal().getName());
+            x509Content.add(signingCertificate);
+            final X509Data certificateData = keyInfoFactory.newX509Data(x509Content);
+            return new SigningProfile(
+                    privateKey,
+                    signingCertificate,
+                    XmlSigningUtils.getSignatureMethodFromKey(privateKey),
+                    null,
+                    keyInfoFactory.newKeyInfo(Collections.singletonList(certificateData)));
+        }
+        throw new IllegalArgumentException("Important argument is null, empty or missing.");
+    }
+
+    public Key getSigningKey() {
+        return signingKey;
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    public KeyInfo getKeyInformation() {
+        return keyInformation;
+    }
+
+    boolean isExpired() {
+        return System.currentTimeMillis() > notAfter;
+    }
+
+    String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * @return the JCA-name of the DigestMethod of the references, e.g "SHA-1", for digests computed ahead of the
+     * signing
+     */
+    String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * @return the HMACOutputLength in bits, or -1 if the profile does not sign with HMac
+     */
+    int getHmacOutputLength() {
+        return (signatureParameters instanceof HMACParameterSpec) ?
+                ((HMACParameterSpec) signatureParameters).getOutputLength() : -1;
+    }
+
+    SignedInfo createSignedInfo(final String referenceUri) {
+        final Template template = templates.get();
+        final XMLSignatureFactory factory = XmlSigningUtils.getXMLSignatureFactory();
+        return factory.newSignedInfo(
+                template.canonicalizationMethod,
+                template.signatureMethod,
+                Collections.singletonList(factory.newReference(
+                        (referenceUri != null) ? referenceUri : "",
+                        template.digestMethod,
+                        createTransforms(factory),
+                        null,
+                        null)),
+                null
+        );
+    }
+
+    /**
+     * @param referenceUris the references, e.g "#someId"
+     * @param digestValues  the digest of each reference, computed ahead of the signing
+     */
+    SignedInfo createSignedInfo(final List<String> referenceUris, final List<byte[]> digestValues) {
+        final Template template = templates.get();
+        final XMLSignatureFactory factory = XmlSigningUtils.getXMLSignatureFactory();
+        final List<Reference> references = new ArrayList<>(referenceUris.size());
+        for (int i = 0; i < referenceUris.size(); i++) {
+            references.add(factory.newReference(
+                    referenceUris.get(i),
+                    template.digestMethod,
+                    createTransforms(factory),
+                    null,
+                    null,
+                    digestValues.get(i)));
+        }
+        return factory.newSignedInfo(template.canonicalizationMethod, template.signatureMethod, references, null);
+    }
+
+    private static List<Transform> createTransforms(final XMLSignatureFactory factory) {
+        try {
+            final List<Transform> transforms = new ArrayList<>();
+            transforms.add(factory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null));
+            transforms.add(factory.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE, (XMLStructure) null));
+            return transforms;
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to create transforms.", e);
+        }
+    }
+
+    private Template createTemplate() throws GeneralSecurityException {
+        final XMLSignatureFactory factory = XmlSigningUtils.getXMLSignatureFactory();
+        return new Template(
+                factory.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE, (XMLStructure) null),
+                factory.newSignatureMethod(signatureAlgorithm, signatureParameters),
+                factory.newDigestMethod(DigestMethod.SHA1, null)
+        );
+    }
+
+    private static String getDigestAlgorithm(final DigestMethod digestMethod) throws NoSuchAlgorithmException {
+        final String algorithm = DIGEST_ALGORITHMS.get(digestMethod.getAlgorithm());
+        if (algorithm == null) {
+            throw new NoSuchAlgorithmException(
+                    String.format("Digest method {%s} is not supported.", digestMethod.getAlgorithm()));
+        }
+        return algorithm;
+    }
+
+    private static final class Template {
+
+        private final CanonicalizationMethod canonicalizationMethod;
+        private final SignatureMethod signatureMethod;
+        private final DigestMethod digestMethod;
+
+        private Template(
+                final CanonicalizationMethod canonicalizationMethod,
+                final SignatureMethod signatureMethod,
+                final DigestMethod digestMethod) {
+            this.canonicalizationMethod = canonicalizationMethod;
+            this.signatureMethod = signatureMethod;
+            this.digestMethod = digestMethod;
+        }
+    }
+
+}
@@ -0,0 +1,643 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.vegaasen.playhouse.types.HashType;
+
+import javax.crypto.Mac;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.SignatureMethod;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Enveloped signing and validation of documents read from a stream with StAX, for documents too large to keep as a
+ * DOM. The referenced element is canonicalized (exclusive, without comments) and digested while it is read, and the
+ * ds:Signature is written as the last child of the document element, as {@link XmlSigningUtils} does. The signature
+ * values are the same as the ones of the DOM-based signing with the same key.
+ * <p/>
+ * Only what XmlSigningUtils creates is supported: references by id ("#id", see
+ * {@link XmlSigningUtils#ID_ATTRIBUTE_NAMES}), the enveloped and exclusive canonicalization transforms, SHA-1
+ * digests, and HMac or RSA signatures. Documents with a DTD are rejected.
+ *
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public final class StreamingXmlSigningUtils {
+
+    private static final String NAMESPACE_PREFIX = "ds";
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    private static final String SIGNED_INFO_START = "<ds:SignedInfo xmlns:ds=\"" + XMLSignature.XMLNS + "\">";
+    private static final List<String> TRANSFORMS = ImmutableList.of(Transform.ENVELOPED, CanonicalizationMethod.EXCLUSIVE);
+    private static final BaseEncoding BASE64 = BaseEncoding.base64();
+    private static final BaseEncoding BASE64_LINES = BaseEncoding.base64().withSeparator("\n", 76);
+    private static final Map<String, String> SIGNATURE_ALGORITHMS = ImmutableMap.<String, String>builder()
+            .put(HashType.HMAC_SHA_1.getXmlAlgorithm(), HashType.HMAC_SHA_1.getType())
+            .put(HashType.HMAC_SHA_256.getXmlAlgorithm(), HashType.HMAC_SHA_256.getType())
+            .put(HashType.HMAC_SHA_384.getXmlAlgorithm(), HashType.HMAC_SHA_384.getType())
+            .put(HashType.HMAC_SHA_512.getXmlAlgorithm(), HashType.HMAC_SHA_512.getType())
+            .put(HashType.HMAC_MD_5.getXmlAlgorithm(), HashType.HMAC_MD_5.getType())
+            .put(SignatureMethod.RSA_SHA1, "SHA1withRSA")
+            .put("http://www.w3.org/2001/04/xmldsig-more#rsa-sha256", "SHA256withRSA")
+            .put("http://www.w3.org/2001/04/xmldsig-more#rsa-sha384", "SHA384withRSA")
+            .put("http://www.w3.org/2001/04/xmldsig-more#rsa-sha512", "SHA512withRSA")
+            .build();
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORIES = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            return factory;
+        }
+    };
+
+    private StreamingXmlSigningUtils() {
+    }
+
+    /**
+     * Reads the document from the input and writes it signed to the output. The streams are not closed.
+     *
+     * @param input       the document to sign
+     * @param output      where to write the signed document, encoded as UTF-8
+     * @param referenceId the element to reference, e.g "#someId"
+     * @param signatureId id of the Signature-element. Defaults to {@link XmlSigningUtils#DEFAULT_SIGNATURE_ID}
+     * @param profile     the profile to sign with
+     * @throws CertificateException if the certificate of the profile has expired
+     * @throws SignatureException   if the signing fails
+     */
+    public static void signDocument(
+            final InputStream input,
+            final OutputStream output,
+            final String referenceId,
+            String signatureId,
+            final SigningProfile profile) throws CertificateException, SignatureException {
+        if (input != null &&
+                output != null &&
+                !Strings.isNullOrEmpty(referenceId) &&
+                profile != null) {
+            if (profile.isExpired()) {
+                throw new CertificateException("Certificate has expired and is not valid for signing document.");
+            }
+            if (Strings.isNullOrEmpty(signatureId)) {
+                signatureId = XmlSigningUtils.DEFAULT_SIGNATURE_ID;
+            }
+            XMLStreamReader reader = null;
+            try {
+                reader = INPUT_FACTORIES.get().createXMLStreamReader(input);
+                sign(reader, new BufferedWriter(new OutputStreamWriter(output, Charsets.UTF_8)), referenceId, signatureId,
+                        profile);
+                return;
+            } catch (final Exception e) {
+                throw new SignatureException("Unable to sign the document.", e);
+            } finally {
+                close(reader);
+            }
+        }
+        throw new IllegalArgumentException("Important argument is null, empty or missing.");
+    }
+
+    /**
+     * Validates the first ds:Signature of the document read from the input. The stream is not closed.
+     *
+     * @return true if both the digests and the signature value is correct
+     * @throws SignatureException if the signature is missing, not supported or the document is not readable
+     */
+    public static boolean validateDocumentByKey(final InputStream input, final Key validatingKey)
+            throws SignatureException {
+        if (input != null && validatingKey != null) {
+            XMLStreamReader reader = null;
+            try {
+                reader = INPUT_FACTORIES.get().createXMLStreamReader(input);
+                return validate(reader, validatingKey);
+            } catch (final Exception e) {
+                throw new SignatureException("Signature verification error", e);
+            } finally {
+                close(reader);
+            }
+        }
+        throw new IllegalArgumentException("Important argument is null, empty or missing.");
+    }
+
+    public static boolean validateDocumentByCertificate(
+            final InputStream input,
+            final X509Certificate validatingCertificate) throws CertificateException, SignatureException {
+        if (XmlSigningUtils.verifyCertificateValidity(validatingCertificate)) {
+            return validateDocumentByKey(input, validatingCertificate.getPublicKey());
+        }
+        return false;
+    }
+
+    /**
+     * The document is written as it is read, with the escaping of canonical XML, so that a value keeps its canonical
+     * form when the signed document is read again.
+     */
+    private static void sign(
+            final XMLStreamReader reader,
+            final Writer out,
+            final String referenceId,
+            final String signatureId,
+            final SigningProfile profile) throws XMLStreamException, IOException, GeneralSecurityException {
+        final String id = getReferencedId(referenceId);
+        final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        ExclusiveCanonicalizer canonicalizer = null;
+        byte[] digestValue = null;
+        int depth = 0;
+        out.write(XML_DECLARATION);
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    if (canonicalizer == null && digestValue == null && id.equals(getId(reader))) {
+                        canonicalizer = new ExclusiveCanonicalizer(
+                                new DigestOutputStream(ByteStreams.nullOutputStream(), digest));
+                    }
+                    if (canonicalizer != null) {
+                        canonicalizer.startElement(reader);
+                    }
+                    writeStartElement(reader, out);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (canonicalizer != null) {
+                        canonicalizer.endElement(reader);
+                        if (canonicalizer.isDone()) {
+                            canonicalizer.finish();
+                            digestValue = digest.digest();
+                            canonicalizer = null;
+                        }
+                    }
+                    if (depth == 1) {
+                        if (digestValue == null) {
+                            throw new SignatureException("Cannot find the element referenced by " + referenceId);
+                        }
+                        writeSignature(out, referenceId, signatureId, digestValue, profile);
+                    }
+                    out.write("</");
+                    writeQualifiedName(out, reader.getPrefix(), reader.getLocalName());
+                    out.write('>');
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    if (canonicalizer != null) {
+                        canonicalizer.characters(reader);
+                    }
+                    ExclusiveCanonicalizer.appendText(
+                            out, reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    if (canonicalizer != null) {
+                        canonicalizer.characters(reader);
+                    }
+                    out.write("<![CDATA[");
+                    out.write(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    out.write("]]>");
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    if (canonicalizer != null) {
+                        canonicalizer.processingInstruction(reader);
+                    }
+                    out.write("<?");
+                    out.write(reader.getPITarget());
+                    if (!Strings.isNullOrEmpty(reader.getPIData())) {
+                        out.write(' ');
+                        out.write(reader.getPIData());
+                    }
+                    out.write("?>");
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    out.write("<!--");
+                    out.write(reader.getText());
+                    out.write("-->");
+                    break;
+                case XMLStreamConstants.DTD:
+                    throw new SignatureException("Documents with a DTD is not supported.");
+                default:
+                    break;
+            }
+        }
+        out.flush();
+    }
+
+    private static void writeSignature(
+            final Writer out,
+            final String referenceUri,
+            final String signatureId,
+            final byte[] digestValue,
+            final SigningProfile profile) throws IOException, GeneralSecurityException {
+        final String signedInfo = createCanonicalSignedInfo(profile, referenceUri, digestValue);
+        final byte[] signatureValue = computeSignatureValue(
+                profile.getSignatureAlgorithm(),
+                profile.getHmacOutputLength(),
+                profile.getSigningKey(),
+                signedInfo.getBytes(Charsets.UTF_8));
+
+        out.write("<ds:Signature xmlns:ds=\"" + XMLSignature.XMLNS + "\" Id=\"");
+        ExclusiveCanonicalizer.appendAttributeValue(out, signatureId);
+        out.write("\"><ds:SignedInfo>");
+        out.write(signedInfo, SIGNED_INFO_START.length(), signedInfo.length() - SIGNED_INFO_START.length());
+        writeElement(out, "SignatureValue", BASE64_LINES.encode(signatureValue));
+        final X509Certificate certificate = profile.getCertificate();
+        if (certificate != null) {
+            out.write("<ds:KeyInfo><ds:X509Data>");
+            writeElement(out, "X509SubjectName", certificate.getSubjectX500Principal().getName());
+            writeElement(out, "X509Certificate", BASE64_LINES.encode(certificate.getEncoded()));
+            out.write("</ds:X509Data></ds:KeyInfo>");
+        }
+        out.write("</ds:Signature>");
+    }
+
+    /**
+     * The SignedInfo in canonical form, as it is signed. It is written to the document as is, except for the
+     * namespace declaration, which is on the Signature-element.
+     */
+    private static String createCanonicalSignedInfo(
+            final SigningProfile profile,
+            final String referenceUri,
+            final byte[] digestValue) throws IOException, SignatureException {
+        if (!SIGNATURE_ALGORITHMS.containsKey(profile.getSignatureAlgorithm())) {
+            throw new SignatureException(
+                    "Signature method " + profile.getSignatureAlgorithm() + " is not supported when streaming.");
+        }
+        final StringBuilder signedInfo = new StringBuilder(1024)
+                .append(SIGNED_INFO_START)
+                .append("<ds:CanonicalizationMethod Algorithm=\"").append(CanonicalizationMethod.EXCLUSIVE)
+                .append("\"></ds:CanonicalizationMethod>")
+                .append("<ds:SignatureMethod Algorithm=\"").append(profile.getSignatureAlgorithm()).append("\">");
+        if (profile.getHmacOutputLength() >= 0) {
+            signedInfo.append("<ds:HMACOutputLength>").append(profile.getHmacOutputLength())
+                    .append("</ds:HMACOutputLength>");
+        }
+        signedInfo.append("</ds:SignatureMethod>")
+                .append("<ds:Reference URI=\"");
+        ExclusiveCanonicalizer.appendAttributeValue(signedInfo, referenceUri);
+        signedInfo.append("\"><ds:Transforms>");
+        for (final String transform : TRANSFORMS) {
+            signedInfo.append("<ds:Transform Algorithm=\"").append(transform).append("\"></ds:Transform>");
+        }
+        return signedInfo.append("</ds:Transforms>")
+                .append("<ds:DigestMethod Algorithm=\"").append(DigestMethod.SHA1).append("\"></ds:DigestMethod>")
+                .append("<ds:DigestValue>").append(BASE64.encode(digestValue)).append("</ds:DigestValue>")
+                .append("</ds:Reference></ds:SignedInfo>")
+                .toString();
+    }
+
+    private static boolean validate(final XMLStreamReader reader, final Key validatingKey)
+            throws XMLStreamException, IOException, GeneralSecurityException {
+        final Map<String, byte[]> digests = new HashMap<>();
+        final Deque<Candidate> candidates = new ArrayDeque<>();
+        ParsedSignature signature = null;
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT && signature == null && isSignatureElement(reader, "Signature")) {
+                signature = readSignature(reader);
+                continue;
+            }
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final String id = getId(reader);
+                    if (id != null) {
+                        candidates.push(new Candidate(id));
+                    }
+                    for (final Candidate candidate : candidates) {
+                        candidate.canonicalizer.startElement(reader);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    for (final Candidate candidate : candidates) {
+                        candidate.canonicalizer.endElement(reader);
+                    }
+                    if (!candidates.isEmpty() && candidates.peek().canonicalizer.isDone()) {
+                        final Candidate candidate = candidates.pop();
+                        candidate.canonicalizer.finish();
+                        if (digests.put(candidate.id, candidate.digest.digest()) != null) {
+                            throw new SignatureException("The id " + candidate.id + " is used by more than one element.");
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.CDATA:
+                    for (final Candidate candidate : candidates) {
+                        candidate.canonicalizer.characters(reader);
+                    }
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    for (final Candidate candidate : candidates) {
+                        candidate.canonicalizer.processingInstruction(reader);
+                    }
+                    break;
+                case XMLStreamConstants.DTD:
+                    throw new SignatureException("Documents with a DTD is not supported.");
+                default:
+                    break;
+            }
+        }
+        if (signature == null) {
+            throw new SignatureException("Cannot find Signature element");
+        }
+        return signature.validate(digests, validatingKey);
+    }
+
+    /**
+     * Read the Signature-element the reader is at, until its end. The SignedInfo is canonicalized as it is read.
+     */
+    private static ParsedSignature readSignature(final XMLStreamReader reader)
+            throws XMLStreamException, IOException, SignatureException {
+        final ParsedSignature signature = new ParsedSignature();
+        final ByteArrayOutputStream signedInfoBytes = new ByteArrayOutputStream(1024);
+        final StringBuilder text = new StringBuilder();
+        ExclusiveCanonicalizer signedInfo = null;
+        ParsedReference reference = null;
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            final boolean inSignedInfo = signedInfo != null && !signedInfo.isDone();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    text.setLength(0);
+                    if (signedInfo == null && isSignatureElement(reader, "SignedInfo")) {
+                        signedInfo = new ExclusiveCanonicalizer(signedInfoBytes);
+                        signedInfo.startElement(reader);
+                    } else if (inSignedInfo) {
+                        signedInfo.startElement(reader);
+                    }
+                    if (isSignatureElement(reader, "CanonicalizationMethod")) {
+                        signature.canonicalizationMethod = reader.getAttributeValue(null, "Algorithm");
+                    } else if (isSignatureElement(reader, "SignatureMethod")) {
+                        signature.signatureMethod = reader.getAttributeValue(null, "Algorithm");
+                    } else if (isSignatureElement(reader, "Reference")) {
+                        reference = new ParsedReference(reader.getAttributeValue(null, "URI"));
+                        signature.references.add(reference);
+                    } else if (reference != null && isSignatureElement(reader, "Transform")) {
+                        reference.transforms.add(reader.getAttributeValue(null, "Algorithm"));
+                    } else if (reference != null && isSignatureElement(reader, "DigestMethod")) {
+                        reference.digestMethod = reader.getAttributeValue(null, "Algorithm");
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    if (inSignedInfo) {
+                        signedInfo.endElement(reader);
+                        if (signedInfo.isDone()) {
+                            signedInfo.finish();
+                            signature.signedInfo = signedInfoBytes.toByteArray();
+                        }
+                    }
+                    if (reference != null && isSignatureElement(reader, "DigestValue")) {
+                        reference.digestValue = decode(text);
+                    } else if (isSignatureElement(reader, "HMACOutputLength")) {
+                        signature.hmacOutputLength = Integer.parseInt(text.toString().trim());
+                    } else if (isSignatureElement(reader, "SignatureValue")) {
+                        signature.signatureValue = decode(text);
+                    }
+                    text.setLength(0);
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.CDATA:
+                    if (inSignedInfo) {
+                        signedInfo.characters(reader);
+                    }
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    if (inSignedInfo) {
+                        signedInfo.processingInstruction(reader);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return signature;
+    }
+
+    private static byte[] computeSignatureValue(
+            final String signatureMethod,
+            final int hmacOutputLength,
+            final Key key,
+            final byte[] signedInfo) throws GeneralSecurityException {
+        final String algorithm = getSignatureAlgorithm(signatureMethod);
+        if (isHmac(algorithm)) {
+            final Mac mac = Mac.getInstance(algorithm);
+            mac.init(key);
+            final byte[] value = mac.doFinal(signedInfo);
+            return (hmacOutputLength > 0 && hmacOutputLength < value.length * 8) ?
+                    Arrays.copyOf(value, hmacOutputLength / 8) : value;
+        }
+        final Signature signature = Signature.getInstance(algorithm);
+        signature.initSign((PrivateKey) key);
+        signature.update(signedInfo);
+        return signature.sign();
+    }
+
+    private static boolean verifySignatureValue(
+            final String signatureMethod,
+            final int hmacOutputLength,
+            final Key key,
+            final byte[] signedInfo,
+            final byte[] signatureValue) throws GeneralSecurityException {
+        final String algorithm = getSignatureAlgorithm(signatureMethod);
+        if (isHmac(algorithm)) {
+            final int macLength = Mac.getInstance(algorithm).getMacLength() * 8;
+            if (hmacOutputLength != -1 && hmacOutputLength < Math.max(80, macLength / 2)) {
+                throw new SignatureException("HMACOutputLength must not be less than " + Math.max(80, macLength / 2));
+            }
+            return MessageDigest.isEqual(
+                    computeSignatureValue(signatureMethod, hmacOutputLength, key, signedInfo),
+                    signatureValue);
+        }
+        final Signature signature = Signature.getInstance(algorithm);
+        signature.initVerify((PublicKey) key);
+        signature.update(signedInfo);
+        return signature.verify(signatureValue);
+    }
+
+    private static String getSignatureAlgorithm(final String signatureMethod) throws SignatureException {
+        final String algorithm = SIGNATURE_ALGORITHMS.get(signatureMethod);
+        if (algorithm == null) {
+            throw new SignatureException("Signature method " + signatureMethod + " is not supported when streaming.");
+        }
+        return algorithm;
+    }
+
+    private static boolean isHmac(final String algorithm) {
+        return algorithm.startsWith("Hmac");
+    }
+
+    private static String getReferencedId(final String referenceUri) throws SignatureException {
+        if (referenceUri == null || referenceUri.length() < 2 || referenceUri.charAt(0) != '#') {
+            throw new SignatureException("Only references by id (#id) is supported when streaming: " + referenceUri);
+        }
+        return referenceUri.substring(1);
+    }
+
+    /**
+     * @return the value of the first of the {@link XmlSigningUtils#ID_ATTRIBUTE_NAMES} of the current element
+     */
+    static String getId(final XMLStreamReader reader) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (Strings.isNullOrEmpty(reader.getAttributeNamespace(i)) &&
+                    XmlSigningUtils.ID_ATTRIBUTE_NAMES.contains(reader.getAttributeLocalName(i))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSignatureElement(final XMLStreamReader reader, final String localName) {
+        return localName.equals(reader.getLocalName()) && XMLSignature.XMLNS.equals(reader.getNamespaceURI());
+    }
+
+    private static byte[] decode(final CharSequence text) {
+        return BASE64.decode(CharMatcher.WHITESPACE.removeFrom(text));
+    }
+
+    private static void writeStartElement(final XMLStreamReader reader, final Writer out) throws IOException {
+        out.write('<');
+        writeQualifiedName(out, reader.getPrefix(), reader.getLocalName());
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            final String prefix = reader.getNamespacePrefix(i);
+            out.write(Strings.isNullOrEmpty(prefix) ? " xmlns" : " xmlns:" + prefix);
+            out.write("=\"");
+            ExclusiveCanonicalizer.appendAttributeValue(out, Strings.nullToEmpty(reader.getNamespaceURI(i)));
+            out.write('"');
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            out.write(' ');
+            writeQualifiedName(out, reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+            out.write("=\"");
+            ExclusiveCanonicalizer.appendAttributeValue(out, reader.getAttributeValue(i));
+            out.write('"');
+        }
+        out.write('>');
+    }
+
+    private static void writeQualifiedName(final Writer out, final String prefix, final String localName)
+            throws IOException {
+        if (!Strings.isNullOrEmpty(prefix)) {
+            out.write(prefix);
+            out.write(':');
+        }
+        out.write(localName);
+    }
+
+    private static void writeElement(final Writer out, final String localName, final String text) throws IOException {
+        out.write("<ds:" + localName + ">");
+        ExclusiveCanonicalizer.appendText(out, text.toCharArray(), 0, text.length());
+        out.write("</ds:" + localName + ">");
+    }
+
+    private static void close(final XMLStreamReader reader) {
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+        } catch (final XMLStreamException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * An element with an id, digested in case the signature references it.
+     */
+    private static final class Candidate {
+
+        private final String id;
+        private final MessageDigest digest;
+        private final ExclusiveCanonicalizer canonicalizer;
+
+        private Candidate(final String id) throws GeneralSecurityException {
+            this.id = id;
+            this.digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            this.canonicalizer = new ExclusiveCanonicalizer(
+                    new DigestOutputStream(ByteStreams.nullOutputStream(), digest));
+        }
+    }
+
+    private static final class ParsedReference {
+
+        private final String uri;
+        private final List<String> transforms = new ArrayList<>();
+        private String digestMethod;
+        private byte[] digestValue;
+
+        private ParsedReference(final String uri) {
+            this.uri = uri;
+        }
+    }
+
+    private static final class ParsedSignature {
+
+        private String canonicalizationMethod;
+        private String signatureMethod;
+        private int hmacOutputLength = -1;
+        private byte[] signedInfo;
+        private byte[] signatureValue;
+        private final List<ParsedReference> references = new ArrayList<>();
+
+        private boolean validate(final Map<String, byte[]> digests, final Key validatingKey)
+                throws GeneralSecurityException {
+            if (!CanonicalizationMethod.EXCLUSIVE.equals(canonicalizationMethod)) {
+                throw new SignatureException("Canonicalization " + canonicalizationMethod + " is not supported when streaming.");
+            }
+            if (signedInfo == null || signatureValue == null || references.isEmpty()) {
+                throw new SignatureException("The Signature is incomplete.");
+            }
+            if (!verifySignatureValue(signatureMethod, hmacOutputLength, validatingKey, signedInfo, signatureValue)) {
+                return false;
+            }
+            for (final ParsedReference reference : references) {
+                if (!TRANSFORMS.equals(reference.transforms) || !DigestMethod.SHA1.equals(reference.digestMethod)) {
+                    throw new SignatureException("The transforms or digest of " + reference.uri + " is not supported when streaming.");
+                }
+                final byte[] digest = digests.get(getReferencedId(reference.uri));
+                if (digest == null) {
+                    throw new SignatureException("Cannot find the element referenced by " + reference.uri);
+                }
+                if (!MessageDigest.isEqual(digest, reference.digestValue)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -1,31 +1,54 @@
 package com.vegaasen.playhouse.utils;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vegaasen.playhouse.model.SigningBatchResult;
+import com.vegaasen.playhouse.model.SigningRequest;
 import com.vegaasen.playhouse.types.HashType;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import javax.xml.crypto.Data;
+import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.OctetStreamData;
 import javax.xml.crypto.XMLStructure;
+import javax.xml.crypto.dom.DOMURIReference;
 import javax.xml.crypto.dsig.*;
 import javax.xml.crypto.dsig.dom.DOMSignContext;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
 import javax.xml.crypto.dsig.keyinfo.KeyInfo;
 import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
 import javax.xml.crypto.dsig.keyinfo.X509Data;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
 import javax.xml.crypto.dsig.spec.HMACParameterSpec;
 import javax.xml.crypto.dsig.spec.SignatureMethodParameterSpec;
 import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import java.security.DigestOutputStream;
 import java.security.Key;
+import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Simple demonstration of signing with both AES/HMac-keys and X509Certificates.
@@ -38,8 +61,18 @@ public final class XmlSigningUtils {
 
     public static final String DEFAULT_SIGNATURE_ID = "coolSignature";
 
+    /**
+     * Names of the (unqualified) attributes that identifies an element referenced as "#id", e.g the ID of a SAML
+     * Response and the AssertionID of a SAML 1.1 Assertion.
+     */
+    static final List<String> ID_ATTRIBUTE_NAMES = ImmutableList.of("ID", "Id", "AssertionID", "id");
+
+    private static final String ID_INDEX_MARKER = XmlSigningUtils.class.getName() + ".idIndexed";
+    private static final String EXPANDED_MARKER = XmlSigningUtils.class.getName() + ".expanded";
     private static final String NAMESPACE_PREFIX = "ds";
+    private static final int BATCH_IN_FLIGHT_PER_THREAD = 4;
     private static final String NODE_SIGNATURE = "Signature";
+    private static final XMLSignatureFactory SIGNATURE_FACTORY = XMLSignatureFactory.getInstance("DOM");
 
     private XmlSigningUtils() {
     }
@@ -62,6 +95,7 @@ public final class XmlSigningUtils {
                         new HMACParameterSpec(hashType.getBitLength()),
                         null,
                         referenceId);
+                indexIdAttributes(document);
                 final DOMSignContext domSignContext = new DOMSignContext(signingKey, document.getDocumentElement());
                 domSignContext.setDefaultNamespacePrefix(NAMESPACE_PREFIX);
                 final XMLSignature signature = getXMLSignatureFactory().newXMLSignature(
@@ -107,6 +141,7 @@ public final class XmlSigningUtils {
 
                     final X509Data certificateData = keyInfoFactory.newX509Data(x509Content);
                     final KeyInfo keyInformation = keyInfoFactory.newKeyInfo(Collections.singletonList(certificateData));
+                    indexIdAttributes(document);
                     final DOMSignContext domSignContext = new DOMSignContext(privateKey, document.getDocumentElement());
                     domSignContext.setDefaultNamespacePrefix(NAMESPACE_PREFIX);
                     final XMLSignature signature = getXMLSignatureFactory().newXMLSignature(
@@ -127,7 +162,290 @@ public final class XmlSigningUtils {
         throw new IllegalArgumentException("Important argument is null, empty or missing.");
     }
 
+    /**
+     * Signs the document using a pre-built {@link SigningProfile}. The profile holds the key, the algorithms and the
+     * KeyInfo, so only the Reference and the SignedInfo is created per call.
+     *
+     * @param document    the document to sign
+     * @param referenceId the element to reference, e.g "#someId"
+     * @param signatureId id of the Signature-element. Defaults to {@link #DEFAULT_SIGNATURE_ID}
+     * @param profile     the profile to sign with
+     * @throws CertificateException if the certificate of the profile has expired
+     * @throws SignatureException   if the signing fails
+     */
+    public static void signDocument(
+            final Document document,
+            final String referenceId,
+            String signatureId,
+            final SigningProfile profile) throws CertificateException, SignatureException {
+        if (document != null &&
+                !Strings.isNullOrEmpty(referenceId) &&
+                profile != null) {
+            if (profile.isExpired()) {
+                throw new CertificateException("Certificate has expired and is not valid for signing document.");
+            }
+            try {
+                if (Strings.isNullOrEmpty(signatureId)) {
+                    signatureId = DEFAULT_SIGNATURE_ID;
+                }
+                indexIdAttributes(document);
+                sign(document, profile.createSignedInfo(referenceId), signatureId, profile);
+                return;
+            } catch (final Exception e) {
+                throw new SignatureException("Unable to sign the document.", e);
+            }
+        }
+        throw new IllegalArgumentException("Important argument is null, empty or missing.");
+    }
+
+    /**
+     * Signs the document with one Signature referencing several elements, e.g a SAML Response and each of its
+     * Assertions. The digests of the references is computed in parallel, before the SignedInfo is assembled: the
+     * calling thread digests the first reference, and a shared pool of one thread per processor digests the rest.
+     * <p/>
+     * The document is only read while the digests is computed, but the (Xerces) DOM expands its nodes lazily the first
+     * time they are read. The document is therefore walked once in full before the digests is computed in parallel.
+     *
+     * @param document     the document to sign
+     * @param referenceIds the elements to reference, e.g "#someId"
+     * @param signatureId  id of the Signature-element. Defaults to {@link #DEFAULT_SIGNATURE_ID}
+     * @param profile      the profile to sign with
+     * @throws CertificateException if the certificate of the profile has expired
+     * @throws SignatureException   if the signing fails
+     */
+    public static void signDocument(
+            final Document document,
+            final List<String> referenceIds,
+            String signatureId,
+            final SigningProfile profile) throws CertificateException, SignatureException {
+        if (document != null &&
+                referenceIds != null && !referenceIds.isEmpty() &&
+                profile != null) {
+            for (final String referenceId : referenceIds) {
+                if (Strings.isNullOrEmpty(referenceId)) {
+                    throw new IllegalArgumentException("Important argument is null, empty or missing.");
+                }
+            }
+            if (profile.isExpired()) {
+                throw new CertificateException("Certificate has expired and is not valid for signing document.");
+            }
+            if (Strings.isNullOrEmpty(signatureId)) {
+                signatureId = DEFAULT_SIGNATURE_ID;
+            }
+            indexIdAttributes(document);
+            final List<byte[]> digestValues = digestReferences(document, referenceIds, profile);
+            try {
+                sign(document, profile.createSignedInfo(referenceIds, digestValues), signatureId, profile);
+                return;
+            } catch (final Exception e) {
+                throw new SignatureException("Unable to sign the document.", e);
+            }
+        }
+        throw new IllegalArgumentException("Important argument is null, empty or missing.");
+    }
+
+    private static void sign(
+            final Document document,
+            final SignedInfo signedInfo,
+            final String signatureId,
+            final SigningProfile profile) throws MarshalException, XMLSignatureException {
+        final DOMSignContext domSignContext =
+                new DOMSignContext(profile.getSigningKey(), document.getDocumentElement());
+        domSignContext.setDefaultNamespacePrefix(NAMESPACE_PREFIX);
+        final XMLSignature signature = getXMLSignatureFactory().newXMLSignature(
+                signedInfo,
+                profile.getKeyInformation(),
+                null,
+                signatureId,
+                null
+        );
+        signature.sign(domSignContext);
+    }
+
+    /**
+     * @return the digest of each reference, in the same order
+     */
+    private static List<byte[]> digestReferences(
+            final Document document,
+            final List<String> referenceIds,
+            final SigningProfile profile) throws SignatureException {
+        final List<Callable<byte[]>> tasks = new ArrayList<>(referenceIds.size());
+        for (final String referenceId : referenceIds) {
+            tasks.add(createDigestTask(document, referenceId, profile.getSigningKey(), profile.getDigestAlgorithm()));
+        }
+        final List<byte[]> digestValues = new ArrayList<>(tasks.size());
+        final List<Future<byte[]>> futures = new ArrayList<>(tasks.size() - 1);
+        try {
+            if (tasks.size() > 1) {
+                expand(document);
+                for (final Callable<byte[]> task : tasks.subList(1, tasks.size())) {
+                    futures.add(DigestWorkers.EXECUTOR.submit(task));
+                }
+            }
+            digestValues.add(tasks.get(0).call());
+            for (final Future<byte[]> future : futures) {
+                digestValues.add(future.get());
+            }
+            return digestValues;
+        } catch (final ExecutionException e) {
+            throw new SignatureException("Unable to digest the references.", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignatureException("Interrupted while digesting the references.", e);
+        } catch (final Exception e) {
+            throw new SignatureException("Unable to digest the references.", e);
+        } finally {
+            for (final Future<byte[]> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * The reference is dereferenced and canonicalized the way the DOM-signing does it. The enveloped transform is left
+     * out, as there is no Signature in the document yet. The URI-attribute the dereferencer needs is created on the
+     * calling thread, as creating nodes changes the document.
+     *
+     * @param digestAlgorithm the JCA-name of the DigestMethod the reference is signed with
+     */
+    private static Callable<byte[]> createDigestTask(
+            final Document document,
+            final String referenceId,
+            final Key signingKey,
+            final String digestAlgorithm) {
+        final Element reference = document.createElementNS(XMLSignature.XMLNS, NAMESPACE_PREFIX + ":Reference");
+        reference.setAttributeNS(null, "URI", referenceId);
+        final Attr uri = reference.getAttributeNodeNS(null, "URI");
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                final XMLSignatureFactory factory = getXMLSignatureFactory();
+                final DOMSignContext context = new DOMSignContext(signingKey, document.getDocumentElement());
+                final Data data = factory.getURIDereferencer().dereference(new DOMURIReference() {
+                    @Override
+                    public Node getHere() {
+                        return uri;
+                    }
+
+                    @Override
+                    public String getURI() {
+                        return referenceId;
+                    }
+
+                    @Override
+                    public String getType() {
+                        return null;
+                    }
+                }, context);
+                final OctetStreamData canonicalized = (OctetStreamData) factory.newCanonicalizationMethod(
+                        CanonicalizationMethod.EXCLUSIVE, (C14NMethodParameterSpec) null).transform(data, context);
+                final MessageDigest digest = MessageDigest.getInstance(digestAlgorithm);
+                ByteStreams.copy(canonicalized.getOctetStream(), new DigestOutputStream(ByteStreams.nullOutputStream(), digest));
+                return digest.digest();
+            }
+        };
+    }
+
+
+    /**
+     * Signs a batch of documents with the same profile on a pool of threads. The key, the algorithms and the KeyInfo
+     * is set up once, by the profile. The requests are read while the documents are signed, so they can be produced
+     * lazily; at most {@value #BATCH_IN_FLIGHT_PER_THREAD} documents per thread is waiting to be signed.
+     * <p/>
+     * A document that fails is recorded in its outcome, and the batch continues. Each document is signed by one
+     * thread, so a document must not be part of more than one request.
+     *
+     * @param requests the documents to sign
+     * @param profile  the profile to sign with
+     * @param threads  number of threads to sign on
+     * @return the outcome of each request, and the throughput of the batch
+     * @throws CertificateException if the certificate of the profile has expired. Nothing is signed
+     * @throws SignatureException   if the batch is interrupted
+     */
+    public static SigningBatchResult signDocuments(
+            final Iterable<SigningRequest> requests,
+            final SigningProfile profile,
+            final int threads) throws CertificateException, SignatureException {
+        if (requests == null || profile == null || threads < 1) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        if (profile.isExpired()) {
+            throw new CertificateException("Certificate has expired and is not valid for signing document.");
+        }
+        final long start = System.nanoTime();
+        final List<SigningBatchResult.Outcome> outcomes = new ArrayList<>();
+        final Deque<Future<SigningBatchResult.Outcome>> inFlight = new ArrayDeque<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("signing-batch-%d").build());
+        try {
+            int index = 0;
+            for (final SigningRequest request : requests) {
+                inFlight.add(executor.submit(createSigningTask(index++, request, profile)));
+                if (inFlight.size() > threads * BATCH_IN_FLIGHT_PER_THREAD) {
+                    outcomes.add(inFlight.poll().get());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                outcomes.add(inFlight.poll().get());
+            }
+        } catch (final ExecutionException e) {
+            throw new SignatureException("Unable to sign the documents.", e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SignatureException("Interrupted while signing the documents.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return new SigningBatchResult(outcomes, threads, System.nanoTime() - start);
+    }
+
+    /**
+     * Same as {@link #signDocuments(Iterable, SigningProfile, int)}, with a profile for the symmetric (HMac) key.
+     */
+    public static SigningBatchResult signDocumentsByKey(
+            final Iterable<SigningRequest> requests,
+            final Key signingKey,
+            final HashType hashType,
+            final int threads) throws CertificateException, SignatureException {
+        return signDocuments(requests, SigningProfile.forKey(signingKey, hashType), threads);
+    }
+
+    /**
+     * Same as {@link #signDocuments(Iterable, SigningProfile, int)}, with a profile for the private key and its
+     * certificate.
+     */
+    public static SigningBatchResult signDocumentsByCertificate(
+            final Iterable<SigningRequest> requests,
+            final PrivateKey privateKey,
+            final X509Certificate signingCertificate,
+            final int threads) throws CertificateException, SignatureException {
+        return signDocuments(requests, SigningProfile.forCertificate(privateKey, signingCertificate), threads);
+    }
+
+    private static Callable<SigningBatchResult.Outcome> createSigningTask(
+            final int index,
+            final SigningRequest request,
+            final SigningProfile profile) {
+        return new Callable<SigningBatchResult.Outcome>() {
+            @Override
+            public SigningBatchResult.Outcome call() {
+                final long start = System.nanoTime();
+                final String referenceId = (request != null) ? request.getReferenceId() : null;
+                try {
+                    if (request == null) {
+                        throw new IllegalArgumentException("Important argument is null, empty or missing.");
+                    }
+                    signDocument(request.getDocument(), referenceId, request.getSignatureId(), profile);
+                    return new SigningBatchResult.Outcome(index, referenceId, null, System.nanoTime() - start);
+                } catch (final Exception e) {
+                    return new SigningBatchResult.Outcome(index, referenceId, e, System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
     public static boolean validateDocumentByKey(final Document document, Key validatingKey) throws SignatureException {
+        reindexIdAttributes(document);
         final DOMValidateContext valContext =
                 new DOMValidateContext(validatingKey,
                         getSignatureNode(document.getDocumentElement())
@@ -149,6 +467,122 @@ public final class XmlSigningUtils {
         return false;
     }
 
+    /**
+     * Registers the {@link #ID_ATTRIBUTE_NAMES} attributes of all elements as ID-attributes, so that the references
+     * ("#id") of a signature is resolved by a lookup instead of a search through the document. The document is walked
+     * once and then marked as indexed; later calls for the same document returns at once. Elements added after the
+     * document was indexed must be registered by the caller (Element.setIdAttribute()).
+     * <p/>
+     * An id used by more than one element is rejected: a reference would resolve to only one of them, which is what a
+     * signature wrapping attack relies on.
+     * <p/>
+     * This is done by the signing and validation methods, so there is only need to call it directly when the
+     * document is prepared ahead of time, e.g before it is shared by several threads.
+     *
+     * @param document the document to index
+     * @return number of attributes registered, or 0 if the document was already indexed
+     * @throws SignatureException if an id is used by more than one element
+     */
+    public static int indexIdAttributes(final Document document) throws SignatureException {
+        if (document == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        if (document.getUserData(ID_INDEX_MARKER) != null) {
+            return 0;
+        }
+        return reindexIdAttributes(document);
+    }
+
+    /**
+     * Same as {@link #indexIdAttributes(Document)}, but the document is walked even if it has been indexed before.
+     * Used when validating, as the document may have been changed since it was indexed.
+     */
+    static int reindexIdAttributes(final Document document) throws SignatureException {
+        if (document == null) {
+            throw new IllegalArgumentException("Important argument is null, empty or missing.");
+        }
+        if (document.getDocumentElement() == null) {
+            return 0;
+        }
+        int registered = 0;
+        final Set<String> ids = new HashSet<>();
+        final Element root = document.getDocumentElement();
+        for (Node node = root; node != null; node = nextNode(node, root)) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                registered += registerIdAttributes((Element) node, ids);
+            }
+        }
+        document.setUserData(ID_INDEX_MARKER, Boolean.TRUE, null);
+        return registered;
+    }
+
+    /**
+     * Reads every node and attribute value of the document, so that a lazily expanded DOM is fully expanded and can be
+     * read by several threads. Nodes added later is never lazy, so this is done once per document.
+     */
+    private static void expand(final Document document) {
+        if (document.getUserData(EXPANDED_MARKER) != null) {
+            return;
+        }
+        final Element root = document.getDocumentElement();
+        for (Node node = root; node != null; node = nextNode(node, root)) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                final NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    attributes.item(i).getNodeValue();
+                }
+            } else {
+                node.getNodeValue();
+            }
+        }
+        document.setUserData(EXPANDED_MARKER, Boolean.TRUE, null);
+    }
+
+    /**
+     * @return the node after this one in document order, or null when the subtree of the root has been walked
+     */
+    public static Node nextNode(Node node, final Node root) {
+        Node next = node.getFirstChild();
+        while (next == null && node != root) {
+            next = node.getNextSibling();
+            if (next == null) {
+                node = node.getParentNode();
+            }
+        }
+        return next;
+    }
+
+    /**
+     * The attributes are registered by node, as Element.setIdAttributeNS() does not find attributes of documents parsed
+     * without namespace awareness. Attributes already registered by the caller counts when looking for duplicates.
+     *
+     * @param ids the ids seen so far in the document
+     */
+    private static int registerIdAttributes(final Element element, final Set<String> ids) throws SignatureException {
+        if (!element.hasAttributes()) {
+            return 0;
+        }
+        int registered = 0;
+        final NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            final Attr attribute = (Attr) attributes.item(i);
+            final boolean register = !attribute.isId() &&
+                    attribute.getNamespaceURI() == null &&
+                    ID_ATTRIBUTE_NAMES.contains(attribute.getName());
+            if (!register && !attribute.isId()) {
+                continue;
+            }
+            if (!ids.add(attribute.getValue())) {
+                throw new SignatureException("The id " + attribute.getValue() + " is used by more than one element.");
+            }
+            if (register) {
+                element.setIdAttributeNode(attribute, true);
+                registered++;
+            }
+        }
+        return registered;
+    }
+
     private static Node getSignatureNode(final Element rootElement) throws SignatureException {
         final NodeList nl = rootElement.getElementsByTagNameNS(XMLSignature.XMLNS, NODE_SIGNATURE);
         if (nl.getLength() == 0) {
@@ -207,7 +641,7 @@ public final class XmlSigningUtils {
         }
     }
 
-    private static String getSignatureMethodFromKey(final Key key) throws SignatureException {
+    static String getSignatureMethodFromKey(final Key key) throws SignatureException {
         switch (key.getAlgorithm()) {
             case "DSA":
                 return SignatureMethod.DSA_SHA1;
@@ -218,7 +652,7 @@ public final class XmlSigningUtils {
         }
     }
 
-    private static boolean verifyCertificateValidity(X509Certificate certificate) throws CertificateException {
+    static boolean verifyCertificateValidity(X509Certificate certificate) throws CertificateException {
         if (certificate != null) {
             if (certificate.getNotAfter().compareTo(new Date(System.currentTimeMillis())) >= 0) {
                 return true;
@@ -228,8 +662,24 @@ public final class XmlSigningUtils {
         return false;
     }
 
-    private static synchronized XMLSignatureFactory getXMLSignatureFactory() {
-        return XMLSignatureFactory.getInstance("DOM");
+    /**
+     * The DOM factory is stateless, so one instance is shared by all threads.
+     *
+     * @return the shared factory
+     */
+    static XMLSignatureFactory getXMLSignatureFactory() {
+        return SIGNATURE_FACTORY;
+    }
+
+    /**
+     * Threads digesting the references of {@link #signDocument(Document, List, String, SigningProfile)}, created on
+     * first use.
+     */
+    private static final class DigestWorkers {
+
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("reference-digest-%d").build());
     }
 
 }
@@ -0,0 +1,86 @@
+package com.vegaasen.playhouse.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="mailto:vegaasen@gmail.com">Vegard Aasen</a>
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldReturnZero_nothing_recorded() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(99.9));
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void shouldBeExact_small_values() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(50, histogram.getValueAtPercentile(50.0));
+        assertEquals(90, histogram.getValueAtPercentile(90.0));
+        assertEquals(99, histogram.getValueAtPercentile(99.0));
+        assertEquals(100, histogram.getValueAtPercentile(100.0));
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.0001);
+    }
+
+    @Test
+    public void shouldStayWithinPrecision_large_values() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1_000);
+        }
+        assertWithinPrecision(5_000_000, histogram.getValueAtPercentile(50.0));
+        assertWithinPrecision(9_900_000, histogram.getValueAtPercentile(99.0));
+        assertWithinPrecision(9_990_000, histogram.getValueAtPercentile(99.9));
+        assertEquals(10_000_000, histogram.getMax());
+    }
+
+    @Test
+    public void shouldKeepMax_above_highest_trackable_value() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-1);
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertEquals(0, histogram.getMin());
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void shouldMerge_histograms() {
+        final LatencyHistogram first = new LatencyHistogram();
+        final LatencyHistogram second = new LatencyHistogram();
+        for (int i = 1; i <= 50; i++) {
+            first.record(i);
+            second.record(i + 50);
+        }
+        final LatencyHistogram merged = new LatencyHistogram().merge(first).merge(second);
+        assertEquals(100, merged.getTotalCount());
+        assertEquals(50, merged.getValueAtPercentile(50.0));
+        assertEquals(1, merged.getMin());
+        assertEquals(100, merged.getMax());
+        assertEquals(50, first.getTotalCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFail_invalid_percentile() {
+        new LatencyHistogram().getValueAtPercentile(100.1);
+    }
+
+    private static void assertWithinPrecision(final long expected, final long actual) {
+        assertTrue(String.format("Expected %s, got %s", expected, actual),
+                Math.abs(actual - expected) <= expected / 64);
+    }
+
+}
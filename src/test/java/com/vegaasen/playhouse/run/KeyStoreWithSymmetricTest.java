@@ -0,0 +1,141 @@
+package com.vegaasen.playhouse.run;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.vegaasen.playhouse.utils.KeyStoreUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.security.KeyStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class KeyStoreWithSymmetricTest {
+
+    private static final String STORE_PASSWORD = "vegard";
+    private static final String KEY_IN_HEX = "00112233445566778899aabbccddeeff";
+
+    private File directory;
+    private File location;
+    private ByteArrayOutputStream output;
+
+    @Before
+    public void setUp() {
+        directory = Files.createTempDir();
+        location = new File(directory, "bulk.jceks");
+        output = new ByteArrayOutputStream();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void shouldReportRejectedLinesWithLineNumbers() throws Exception {
+        final StringBuilder lines = new StringBuilder()
+                .append("# comment\n")
+                .append("first ").append(KEY_IN_HEX).append('\n')
+                .append("broken\n")
+                .append('\n')
+                .append("second nothex\n");
+        for (int i = 6; i < 1200; i++) {
+            lines.append("# filler\n");
+        }
+        lines.append("third\n")
+                .append("fourth ").append(KEY_IN_HEX).append('\n');
+        final KeyStoreWithSymmetric.BulkImport bulkImport = createBulkImport(0);
+        bulkImport.run(reader(lines.toString()), 2);
+
+        final String[] reported = output.toString(Charsets.UTF_8.name()).split("\n");
+        assertTrue(reported[0].startsWith("Line 3: "));
+        assertTrue(reported[1].startsWith("Line 5: "));
+        assertTrue(reported[2].startsWith("Line 1200: "));
+        assertEquals(3, bulkImport.getRejected());
+        assertEquals(2, bulkImport.getImported());
+        assertEquals(2, load().size());
+    }
+
+    @Test
+    public void shouldSkipDuplicateAliases() throws Exception {
+        final KeyStoreWithSymmetric.BulkImport bulkImport = createBulkImport(0);
+        bulkImport.run(reader(
+                "first " + KEY_IN_HEX + "\n" +
+                "first ffeeddccbbaa99887766554433221100\n" +
+                "second " + KEY_IN_HEX + "\n"), 1);
+
+        assertTrue(output.toString(Charsets.UTF_8.name()).startsWith("Line 2: "));
+        assertEquals(1, bulkImport.getRejected());
+        assertEquals(2, bulkImport.getImported());
+        final KeyStore saved = load();
+        assertEquals(2, saved.size());
+        assertTrue(saved.containsAlias("first"));
+        assertTrue(saved.containsAlias("second"));
+    }
+
+    @Test
+    public void shouldSaveEveryCheckpointKeys() throws Exception {
+        final KeyStoreWithSymmetric.BulkImport bulkImport = createBulkImport(3);
+        bulkImport.run(reader(createLines(10)), 2);
+
+        assertEquals(3, bulkImport.getCheckpoints());
+        assertEquals(10, bulkImport.getImported());
+        assertEquals(0, bulkImport.getRejected());
+        assertEquals(10, load().size());
+    }
+
+    @Test
+    public void shouldSaveAllKeys_without_checkpoint() throws Exception {
+        final KeyStoreWithSymmetric.BulkImport bulkImport = createBulkImport(0);
+        bulkImport.run(reader(createLines(25)), 4);
+
+        assertEquals(0, bulkImport.getCheckpoints());
+        assertEquals(25, bulkImport.getImported());
+        final KeyStore saved = load();
+        assertEquals(25, saved.size());
+        assertTrue(saved.containsAlias("key-0"));
+        assertTrue(saved.containsAlias("key-24"));
+        assertFalse(saved.containsAlias("key-25"));
+    }
+
+    private KeyStoreWithSymmetric.BulkImport createBulkImport(final int checkpoint) throws Exception {
+        return new KeyStoreWithSymmetric.BulkImport(
+                KeyStoreUtils.createEmpty(STORE_PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JCEKS),
+                STORE_PASSWORD, location.getAbsolutePath(), checkpoint,
+                new PrintStream(output, true, Charsets.UTF_8.name()));
+    }
+
+    private KeyStore load() throws Exception {
+        return KeyStoreUtils.load(location, STORE_PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
+    }
+
+    private static String createLines(final int keys) {
+        final StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < keys; i++) {
+            lines.append("key-").append(i).append(' ').append(KEY_IN_HEX).append('\n');
+        }
+        return lines.toString();
+    }
+
+    private static BufferedReader reader(final String lines) {
+        return new BufferedReader(new StringReader(lines));
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.vegaasen.playhouse.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class CertificateCacheTest {
+
+    private byte[] idp;
+    private byte[] root;
+
+    @Before
+    public void setUp() throws Exception {
+        final KeyStore keyStore = KeyStoreUtils.load("fun_certificates.jks", "telenor", true);
+        idp = keyStore.getCertificate("saml:idp.telenor.no").getEncoded();
+        root = keyStore.getCertificate("win security bogus ca(root)").getEncoded();
+    }
+
+    @Test
+    public void shouldParseSameBytesOnce() throws Exception {
+        final CertificateCache cache = new CertificateCache(10);
+        final X509Certificate first = cache.get(idp, null);
+        assertSame(first, cache.get(Arrays.copyOf(idp, idp.length), CertificateCache.DEFAULT_CERTIFICATE_TYPE));
+        assertNotSame(first, cache.get(root, null));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getStatistics().getHits());
+        assertEquals(2, cache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void shouldBeBounded() throws Exception {
+        final CertificateCache cache = new CertificateCache(1);
+        cache.get(idp, null);
+        cache.get(root, null);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getStatistics().getEvictions());
+    }
+
+    @Test(expected = CertificateException.class)
+    public void shouldNotCacheGarbage() throws Exception {
+        final CertificateCache cache = new CertificateCache(10);
+        try {
+            cache.get(new byte[]{1, 2, 3}, null);
+        } finally {
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void shouldKeepBehaviourOfKeyStoreUtils() throws Exception {
+        assertArrayEquals(root, KeyStoreUtils.getCertificateFromByteArray(root, "").getEncoded());
+        assertSame(KeyStoreUtils.getCertificateFromByteArray(idp, "X509"),
+                KeyStoreUtils.getCertificateFromByteArray(idp, ""));
+        assertNull(KeyStoreUtils.getCertificateFromByteArray(new byte[]{1, 2, 3}, "X509"));
+        assertNull(KeyStoreUtils.getCertificateFromByteArray(null, "X509"));
+    }
+
+    @Test
+    public void shouldParseConcurrently() throws Exception {
+        final CertificateCache cache = new CertificateCache(10);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Callable<X509Certificate> parse = new Callable<X509Certificate>() {
+                @Override
+                public X509Certificate call() throws Exception {
+                    return cache.get(idp, null);
+                }
+            };
+            final X509Certificate expected = cache.get(idp, null);
+            for (final Future<X509Certificate> certificate : executor.invokeAll(Arrays.asList(parse, parse, parse, parse))) {
+                assertSame(expected, certificate.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
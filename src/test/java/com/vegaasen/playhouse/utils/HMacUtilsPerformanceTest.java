@@ -0,0 +1,134 @@
+package com.vegaasen.playhouse.utils;
+
+import com.vegaasen.playhouse.model.IntegrityContainer;
+import com.vegaasen.playhouse.utils.abs.AbstractTest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs HMacUtils in parallel with an increasing number of threads. Every result is checked against the known
+ * single-threaded result, so any shared Cipher/Mac-state between threads shows up as wrong results.
+ * Also measures the bytes allocated per operation for the String- and the byte-based API.
+ *
+ * @author <a href="mailto:vegaasen@gmail.com">Vegard Aasen</a>
+ */
+public class HMacUtilsPerformanceTest extends AbstractTest {
+
+    private static final int MAX_ROUNDS = 2_000;
+    private static final String MESSAGE = "VegardOnTheRocks j jsdjdas jiaj ijijsda ijij ";
+    private static final String DIGESTED_VALUE = "zCjXj/dv/RFaYuVeb7T8+rYhtB1qRbj55JIG6IGfhhloL6oLUZe4v3QxkEB+k3fOAay4HGkbcEhiWztCdnE3dlI=";
+    private static final String SIGNATURE_VALUE = "9eaz9B9cBA697H/CBg9qqjpgEUE=";
+
+    private Key key;
+
+    @Before
+    public void setUp() throws Exception {
+        HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
+        key = getAESKeyFromLocalKeyStore("my-secret", "vegard");
+    }
+
+    @Test
+    public void generate_and_verify_in_parallel_without_wrong_results() throws Exception {
+        final int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+            try {
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<Integer>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(executorService.submit(createWorker(start, "thread-" + i)));
+                }
+                final long begin = System.nanoTime();
+                start.countDown();
+                int wrongResults = 0;
+                for (final Future<Integer> future : futures) {
+                    wrongResults += future.get();
+                }
+                final long elapsed = System.nanoTime() - begin;
+                final long operations = (long) threads * MAX_ROUNDS * 3;
+                System.out.println(String.format(
+                        "HMacUtils: %s thread(s), %s ops, %.0f ops/sec",
+                        threads,
+                        operations,
+                        operations / (elapsed / (double) TimeUnit.SECONDS.toNanos(1))));
+                assertEquals(0, wrongResults);
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void allocation_per_operation_string_versus_bytes() throws Exception {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        final long threadId = Thread.currentThread().getId();
+        final byte[] message = MESSAGE.getBytes();
+        final byte[] output = new byte[HMacUtils.getIntegrityContainerLength(message.length)];
+        final IntegrityContainer container = new IntegrityContainer();
+        for (int i = 0; i < MAX_ROUNDS * 5; i++) {
+            HMacUtils.generateIntegrityContainer(key, MESSAGE);
+            HMacUtils.generateIntegrityContainer(key, message, 0, message.length, output, 0, container);
+        }
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MAX_ROUNDS; i++) {
+            HMacUtils.generateIntegrityContainer(key, MESSAGE);
+        }
+        final long stringApi = (allocations.getThreadAllocatedBytes(threadId) - before) / MAX_ROUNDS;
+        before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MAX_ROUNDS; i++) {
+            HMacUtils.generateIntegrityContainer(key, message, 0, message.length, output, 0, container);
+        }
+        final long byteApi = (allocations.getThreadAllocatedBytes(threadId) - before) / MAX_ROUNDS;
+        System.out.println(String.format(
+                "HMacUtils: %s bytes/op using String, %s bytes/op using byte[]", stringApi, byteApi));
+        assertTrue(byteApi < stringApi);
+    }
+
+    private Callable<Integer> createWorker(final CountDownLatch start, final String name) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                start.await();
+                int wrongResults = 0;
+                for (int i = 0; i < MAX_ROUNDS; i++) {
+                    final Map<String, String> known = HMacUtils.generateIntegrityContainer(key, MESSAGE);
+                    if (!DIGESTED_VALUE.equals(known.get(HMacUtils.KEY_DIGEST_VALUE)) ||
+                            !SIGNATURE_VALUE.equals(known.get(HMacUtils.KEY_SIGNATURE_VALUE))) {
+                        wrongResults++;
+                    }
+                    final String message = name + " " + i;
+                    final Map<String, String> result = HMacUtils.generateIntegrityContainer(key, message);
+                    if (!HMacUtils.verifyIntegrity(
+                            key,
+                            result.get(HMacUtils.KEY_SIGNATURE_VALUE),
+                            result.get(HMacUtils.KEY_DIGEST_VALUE),
+                            message)) {
+                        wrongResults++;
+                    }
+                }
+                return wrongResults;
+            }
+        };
+    }
+
+}
@@ -1,15 +1,22 @@
 package com.vegaasen.playhouse.utils;
 
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import com.vegaasen.playhouse.model.IntegrityContainer;
 import com.vegaasen.playhouse.types.HashType;
 import com.vegaasen.playhouse.utils.abs.AbstractTest;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.crypto.SecretKey;
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -27,7 +34,6 @@ public class HMacUtilsTest extends AbstractTest{
     @Before
     public void setUp() {
         HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
-        KeyStoreUtils.setKeystoreType("JCEKS");
         try {
             validVerificationKey = getAESKeyFromLocalKeyStore("my-secret", "vegard");
             invalidVerificationKey = getAESKeyFromLocalKeyStore("my-second-secret", "vegard");
@@ -104,6 +110,103 @@ public class HMacUtilsTest extends AbstractTest{
         assertEquals(actualSignValue, expectedSignatureValue);
     }
 
+    @Test
+    public void shouldGenerateHMacString_after_invalidating_local_key() {
+        HMacUtils.invalidateLocalKeyStoreSecretKey();
+        final Map<String, String> result = HMacUtils.generateIntegrityContainer(MESSAGE);
+        assertEquals(DIGESTED_VALUE, result.get(HMacUtils.KEY_DIGEST_VALUE));
+        assertEquals(SIGNATURE_VALUE, result.get(HMacUtils.KEY_SIGNATURE_VALUE));
+        HMacUtils.setRefreshLocalKeyStoreOnModification(true);
+        assertTrue(HMacUtils.verifyIntegrity(SIGNATURE_VALUE, DIGESTED_VALUE, MESSAGE));
+    }
+
+    @Test
+    public void shouldReloadLocalKey_when_keystore_is_modified() throws Exception {
+        final File keyStoreFile = FileUtils.getInstance().getFileFromClassPath("fun.jceks");
+        final byte[] original = Files.toByteArray(keyStoreFile);
+        final long originalLastModified = keyStoreFile.lastModified();
+        try {
+            HMacUtils.setRefreshLocalKeyStoreOnModification(false);
+            HMacUtils.invalidateLocalKeyStoreSecretKey();
+            assertEquals(SIGNATURE_VALUE, HMacUtils.generateIntegrityContainer(MESSAGE).get(HMacUtils.KEY_SIGNATURE_VALUE));
+
+            final KeyStore keyStore = KeyStoreUtils.load(keyStoreFile, "vegard", KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
+            keyStore.deleteEntry("my-secret");
+            keyStore.deleteEntry("my-second-secret");
+            KeyStoreUtils.addKey(keyStore, (SecretKey) invalidVerificationKey, "my-secret", "vegard");
+            KeyStoreUtils.saveKeyStoreAsync(keyStore, "vegard", keyStoreFile.getPath()).get();
+            assertTrue(keyStoreFile.setLastModified(originalLastModified + 60000));
+
+            Map<String, String> result = HMacUtils.generateIntegrityContainer(MESSAGE);
+            assertEquals(SIGNATURE_VALUE, result.get(HMacUtils.KEY_SIGNATURE_VALUE));
+
+            HMacUtils.setRefreshLocalKeyStoreOnModification(true);
+            result = HMacUtils.generateIntegrityContainer(MESSAGE);
+            assertFalse(SIGNATURE_VALUE.equals(result.get(HMacUtils.KEY_SIGNATURE_VALUE)));
+            assertTrue(HMacUtils.verifyIntegrity(invalidVerificationKey,
+                    result.get(HMacUtils.KEY_SIGNATURE_VALUE), result.get(HMacUtils.KEY_DIGEST_VALUE), MESSAGE));
+        } finally {
+            Files.write(original, keyStoreFile);
+            keyStoreFile.setLastModified(originalLastModified);
+            HMacUtils.invalidateLocalKeyStoreSecretKey();
+        }
+    }
+
+    @Test
+    public void shouldGenerateSameValuesUsingBytes() {
+        final byte[] message = MESSAGE.getBytes();
+        final byte[] output = new byte[HMacUtils.getIntegrityContainerLength(message.length) + 3];
+        final IntegrityContainer container = HMacUtils.generateIntegrityContainer(
+                validVerificationKey, message, 0, message.length, output, 3, new IntegrityContainer());
+        assertNotNull(container);
+        assertEquals(HMacUtils.DEFAULT_HASH_TYPE, container.getHashType());
+        assertEquals(3, container.getCipherTextOffset());
+        assertEquals(DIGESTED_VALUE, BaseEncoding.base64().encode(
+                output, container.getCipherTextOffset(), container.getCipherTextLength()));
+        assertEquals(SIGNATURE_VALUE, BaseEncoding.base64().encode(
+                output, container.getSignatureOffset(), container.getSignatureLength()));
+        assertTrue(HMacUtils.verifyIntegrity(
+                validVerificationKey,
+                output, container.getSignatureOffset(), container.getSignatureLength(),
+                output, container.getCipherTextOffset(), container.getCipherTextLength(),
+                message, 0, message.length));
+        assertFalse(HMacUtils.verifyIntegrity(
+                invalidVerificationKey,
+                output, container.getSignatureOffset(), container.getSignatureLength(),
+                output, container.getCipherTextOffset(), container.getCipherTextLength(),
+                message, 0, message.length));
+    }
+
+    @Test
+    public void shouldGenerateAndVerifyUsingDirectByteBuffers() {
+        final byte[] messageAsBytes = MESSAGE.getBytes();
+        final ByteBuffer message = ByteBuffer.allocateDirect(messageAsBytes.length);
+        message.put(messageAsBytes).flip();
+        final ByteBuffer output = ByteBuffer.allocateDirect(HMacUtils.getIntegrityContainerLength(messageAsBytes.length));
+        final IntegrityContainer container = HMacUtils.generateIntegrityContainer(validVerificationKey, message, output, null);
+        assertNotNull(container);
+        assertFalse(message.hasRemaining());
+        assertFalse(output.hasRemaining());
+        final byte[] written = new byte[container.getLength()];
+        ((ByteBuffer) output.flip()).get(written);
+        assertEquals(DIGESTED_VALUE, BaseEncoding.base64().encode(
+                written, container.getCipherTextOffset(), container.getCipherTextLength()));
+        final ByteBuffer cipherText = ByteBuffer.wrap(
+                written, container.getCipherTextOffset(), container.getCipherTextLength());
+        final ByteBuffer signature = ByteBuffer.wrap(
+                written, container.getSignatureOffset(), container.getSignatureLength());
+        message.rewind();
+        assertTrue(HMacUtils.verifyIntegrity(validVerificationKey, signature, cipherText, message));
+        assertFalse(HMacUtils.verifyIntegrity(validVerificationKey, signature, cipherText, ByteBuffer.wrap("error".getBytes())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotGenerateUsingBytes_output_too_small() {
+        final byte[] message = MESSAGE.getBytes();
+        HMacUtils.generateIntegrityContainer(
+                validVerificationKey, message, 0, message.length, new byte[message.length], 0, null);
+    }
+
     @Test
     public void shouldVerifyIntegrityOfGeneratedHMacString() {
         final boolean expectedResult = true;
@@ -237,6 +340,7 @@ public class HMacUtilsTest extends AbstractTest{
     @After
     public void tearDown() {
         HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
+        HMacUtils.setRefreshLocalKeyStoreOnModification(false);
     }
 
 }
@@ -1,7 +1,22 @@
 package com.vegaasen.playhouse.utils;
 
+import com.google.common.io.Files;
+import com.vegaasen.playhouse.model.FileHashResult;
+import com.vegaasen.playhouse.types.HashType;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -53,4 +68,76 @@ public class HashUtilsTest {
         assertTrue(result.length > 0);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void hash_sha256_known_value() {
+        final String result = HashUtils.getHashAsHex("password", "salt".getBytes(), HashType.SHA_256);
+        assertEquals("13601bda4ea78e55a07b98866d2be6be0744e3866f13c00c811cab608a28f322", result);
+        assertEquals(result, HashUtils.Sha256.getHashAsHex("password", "salt".getBytes()));
+    }
+
+    @Test
+    public void hash_batch_same_as_single() {
+        final List<String> passwords = Arrays.asList(PASSWORD, "another", "");
+        final List<byte[]> salts = Arrays.asList(SALT, "salt".getBytes(), new byte[0]);
+        final List<byte[]> result = HashUtils.getHashes(HashType.SHA_512, passwords, salts);
+        assertEquals(passwords.size(), result.size());
+        for (int i = 0; i < passwords.size(); i++) {
+            assertArrayEquals(HashUtils.Sha512.getHash(passwords.get(i), salts.get(i)), result.get(i));
+        }
+    }
+
+    @Test
+    public void hash_unknown_digest_returns_empty() {
+        assertEquals(0, HashUtils.getHash(PASSWORD, SALT, HashType.AES).length);
+        assertTrue(HashUtils.getHashes(HashType.AES, Arrays.asList(PASSWORD), Arrays.asList(SALT)).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hash_batch_sizes_must_match() {
+        HashUtils.getHashes(HashType.SHA_256, Arrays.asList(PASSWORD, PASSWORD), Arrays.asList(SALT));
+    }
+
+    @Test
+    public void hash_file_mapped_and_streamed() throws Exception {
+        final byte[] content = new byte[100_000];
+        new Random(1337).nextBytes(content);
+        final File file = File.createTempFile("hashutils", ".bin");
+        try {
+            Files.write(content, file);
+            for (final HashType hashType : Arrays.asList(HashType.SHA_256, HashType.SHA_384, HashType.SHA_512)) {
+                final byte[] expected = MessageDigest.getInstance(hashType.getType()).digest(content);
+                final FileHashResult mapped = HashUtils.getHash(file, hashType);
+                assertArrayEquals(expected, mapped.getHash());
+                assertEquals(content.length, mapped.getBytesHashed());
+                assertTrue(mapped.getMegabytesPerSecond() > 0);
+                assertArrayEquals(expected, HashUtils.getHash(file, hashType, 4096).getHash());
+                assertArrayEquals(expected, HashUtils.getHash(file, hashType, 7).getHash());
+                try (InputStream is = new FileInputStream(file)) {
+                    final FileHashResult streamed = HashUtils.getHash(Channels.newChannel(is), hashType);
+                    assertArrayEquals(expected, streamed.getHash());
+                    assertEquals(content.length, streamed.getBytesHashed());
+                }
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void hash_empty_file() throws Exception {
+        final File file = File.createTempFile("hashutils", ".bin");
+        try {
+            assertEquals(
+                    "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                    HashUtils.getHash(file, HashType.SHA_256).getHashAsHex());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hash_file_unknown_digest() throws Exception {
+        HashUtils.getHash(Channels.newChannel(new ByteArrayInputStream(new byte[1])), HashType.AES);
+    }
+
+}
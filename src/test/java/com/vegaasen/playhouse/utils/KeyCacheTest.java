@@ -0,0 +1,148 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.Destroyable;
+import java.io.File;
+import java.io.InputStream;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class KeyCacheTest {
+
+    private static final String STORE_PASSWORD = "vegard";
+    private static final String ALIAS = "my-secret";
+    private static final String OTHER_ALIAS = "my-second-secret";
+    private static final String KEY_PASSWORD = "vegard";
+
+    private File storeFile;
+    private KeyStoreCache keyStoreCache;
+
+    @Before
+    public void setUp() throws Exception {
+        storeFile = File.createTempFile("keycache", ".jceks");
+        try (InputStream is = FileUtils.getInstance().getFileAsInputStreamFromClassPath("fun.jceks")) {
+            Files.write(ByteStreams.toByteArray(is), storeFile);
+        }
+        keyStoreCache = new KeyStoreCache();
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(storeFile.delete());
+    }
+
+    @Test
+    public void shouldRecoverKeyOnce() throws Exception {
+        final KeyCache keyCache = new KeyCache(10, 1, TimeUnit.MINUTES);
+        final KeyStore keyStore = keyStoreCache.get(storeFile, STORE_PASSWORD);
+        final Key first = keyCache.getKey(keyStore, ALIAS, KEY_PASSWORD);
+        assertSame(first, keyCache.getKey(keyStore, ALIAS, KEY_PASSWORD));
+        assertEquals(1, keyCache.getStatistics().getMisses());
+        assertEquals(1, keyCache.getStatistics().getHits());
+    }
+
+    @Test(expected = KeyStoreException.class)
+    public void shouldNotReturnCachedKey_wrong_password() throws Exception {
+        final KeyCache keyCache = new KeyCache(10, 1, TimeUnit.MINUTES);
+        final KeyStore keyStore = keyStoreCache.get(storeFile, STORE_PASSWORD);
+        keyCache.getKey(keyStore, ALIAS, KEY_PASSWORD);
+        keyCache.getKey(keyStore, ALIAS, "not-the-password");
+    }
+
+    @Test(expected = KeyStoreException.class)
+    public void shouldNotReturnCachedKey_empty_password() throws Exception {
+        final KeyStore keyStore = keyStoreCache.get(storeFile, STORE_PASSWORD);
+        new KeyCache(10, 1, TimeUnit.MINUTES).getKey(keyStore, ALIAS, "");
+    }
+
+    @Test
+    public void shouldEvict_maximum_size() throws Exception {
+        final KeyCache keyCache = new KeyCache(1, 1, TimeUnit.MINUTES);
+        final KeyStore keyStore = keyStoreCache.get(storeFile, STORE_PASSWORD);
+        final Key first = keyCache.getKey(keyStore, ALIAS, KEY_PASSWORD);
+        keyCache.getKey(keyStore, OTHER_ALIAS, KEY_PASSWORD);
+        assertEquals(1, keyCache.size());
+        assertEquals(1, keyCache.getStatistics().getEvictions());
+        assertNotSame(first, keyCache.getKey(keyStore, ALIAS, KEY_PASSWORD));
+    }
+
+    @Test
+    public void shouldExpire_time_to_live() throws Exception {
+        final KeyCache keyCache = new KeyCache(10, 50, TimeUnit.MILLISECONDS);
+        final KeyStore keyStore = keyStoreCache.get(storeFile, STORE_PASSWORD);
+        final Key first = keyCache.getKey(keyStore, ALIAS, KEY_PASSWORD);
+        Thread.sleep(100);
+        assertNotSame(first, keyCache.getKey(keyStore, ALIAS, KEY_PASSWORD));
+        assertEquals(2, keyCache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void shouldInvalidate_when_keystore_reloaded() throws Exception {
+        final KeyCache keyCache = new KeyCache(10, 1, TimeUnit.MINUTES);
+        keyStoreCache.addInvalidationListener(keyCache);
+        final KeyStore keyStore = keyStoreCache.get(storeFile, STORE_PASSWORD);
+        keyCache.getKey(keyStore, ALIAS, KEY_PASSWORD);
+        assertEquals(1, keyCache.size());
+        assertTrue(storeFile.setLastModified(storeFile.lastModified() - 10_000));
+        final KeyStore reloaded = keyStoreCache.get(storeFile, STORE_PASSWORD);
+        assertNotSame(keyStore, reloaded);
+        assertEquals(0, keyCache.size());
+    }
+
+    @Test
+    public void shouldDestroyKey_when_supported() {
+        final DestroyableKey key = new DestroyableKey();
+        KeyCache.destroy(key);
+        assertTrue(key.isDestroyed());
+        KeyCache.destroy(new SecretKeySpec(new byte[16], "AES"));
+    }
+
+    private static final class DestroyableKey implements Key, Destroyable {
+
+        private static final long serialVersionUID = 1L;
+
+        private boolean destroyed;
+
+        @Override
+        public String getAlgorithm() {
+            return "AES";
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return new byte[16];
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+
+        @Override
+        public boolean isDestroyed() {
+            return destroyed;
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.vegaasen.playhouse.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import sun.security.x509.X500Name;
+
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class KeyPairPoolTest {
+
+    private static final String ALGORITHM = "RSA";
+    private static final int KEY_SIZE = 512;
+    private static final int DEPTH = 3;
+
+    private KeyPairPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new KeyPairPool(DEPTH, 2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldStarveOnlyWhenEmpty() throws Exception {
+        final KeyPair first = pool.take(ALGORITHM, KEY_SIZE);
+        assertEquals(1, pool.getStarvations());
+        awaitDepth(DEPTH);
+
+        final KeyPair second = pool.take(ALGORITHM, KEY_SIZE);
+        assertEquals(1, pool.getStarvations());
+        assertEquals(2, pool.getTaken());
+        assertNotEquals(first.getPublic(), second.getPublic());
+        awaitDepth(DEPTH);
+    }
+
+    @Test
+    public void shouldFillWhenPrepared() throws Exception {
+        assertEquals(0, pool.getDepth(ALGORITHM, KEY_SIZE));
+        pool.prepare(ALGORITHM, KEY_SIZE);
+        awaitDepth(DEPTH);
+        for (int i = 0; i < DEPTH; i++) {
+            pool.take(ALGORITHM, KEY_SIZE);
+        }
+        assertEquals(0, pool.getStarvations());
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void shouldRejectUnknownAlgorithm() throws Exception {
+        pool.take("NOPE", KEY_SIZE);
+    }
+
+    @Test
+    public void shouldCreateSelfSignedFromPool() throws Exception {
+        final KeyStore keyStore = KeyStoreUtils.createEmpty("vegard", KeyStoreUtils.KEY_STORE_TYPE_JKS);
+        KeyStoreUtils.createSelfSigned(keyStore, "self", "vegard", new X500Name("CN=self, O=PKI_Playhouse"), 1,
+                ALGORITHM, 1024, "SHA256withRSA");
+        final X509Certificate certificate = KeyStoreUtils.getCertificate(keyStore, "self");
+        certificate.verify(certificate.getPublicKey());
+        certificate.checkValidity();
+        assertEquals("CN=self,O=PKI_Playhouse", certificate.getSubjectX500Principal().getName());
+        assertEquals(certificate.getSubjectX500Principal(), certificate.getIssuerX500Principal());
+        assertTrue(keyStore.isKeyEntry("self"));
+    }
+
+    private void awaitDepth(final int depth) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 30_000;
+        while (pool.getDepth(ALGORITHM, KEY_SIZE) < depth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(depth, pool.getDepth(ALGORITHM, KEY_SIZE));
+    }
+
+}
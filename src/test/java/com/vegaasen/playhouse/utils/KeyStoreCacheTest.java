@@ -0,0 +1,129 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.vegaasen.playhouse.model.CacheStatistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class KeyStoreCacheTest {
+
+    private static final String STORE_PASSWORD = "vegard";
+
+    private File storeFile;
+    private KeyStoreCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        storeFile = File.createTempFile("keystorecache", ".jceks");
+        try (InputStream is = FileUtils.getInstance().getFileAsInputStreamFromClassPath("fun.jceks")) {
+            Files.write(ByteStreams.toByteArray(is), storeFile);
+        }
+        cache = new KeyStoreCache();
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(storeFile.delete());
+    }
+
+    @Test
+    public void shouldReturnSameInstance_unchanged_file() throws Exception {
+        final KeyStore first = cache.get(storeFile, STORE_PASSWORD);
+        final KeyStore second = cache.get(storeFile, STORE_PASSWORD);
+        assertSame(first, second);
+        assertTrue(first.containsAlias("my-secret"));
+        final CacheStatistics statistics = cache.getStatistics();
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getHits());
+        assertEquals(0, statistics.getReloads());
+    }
+
+    @Test
+    public void shouldReload_modified_file() throws Exception {
+        final KeyStore first = cache.get(storeFile, STORE_PASSWORD);
+        assertTrue(storeFile.setLastModified(storeFile.lastModified() - 10_000));
+        final KeyStore second = cache.get(storeFile, STORE_PASSWORD);
+        assertNotSame(first, second);
+        assertSame(second, cache.get(storeFile, STORE_PASSWORD));
+        final CacheStatistics statistics = cache.getStatistics();
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getReloads());
+        assertEquals(1, statistics.getHits());
+    }
+
+    @Test
+    public void shouldLoadAgain_after_invalidate() throws Exception {
+        final KeyStore first = cache.get(storeFile, STORE_PASSWORD);
+        cache.invalidate(storeFile);
+        assertEquals(0, cache.size());
+        assertNotSame(first, cache.get(storeFile, STORE_PASSWORD));
+        assertEquals(2, cache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void shouldNotReadFile_cached_detected_type() throws Exception {
+        final KeyStore first = cache.get(storeFile, STORE_PASSWORD);
+        final long lastModified = storeFile.lastModified();
+        Files.write(new byte[(int) storeFile.length()], storeFile);
+        assertTrue(storeFile.setLastModified(lastModified));
+        assertSame(first, cache.get(storeFile, STORE_PASSWORD));
+        assertEquals(1, cache.getStatistics().getHits());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldNotReturnCached_wrong_password() throws Exception {
+        cache.get(storeFile, STORE_PASSWORD);
+        cache.get(storeFile, "not-the-password");
+    }
+
+    @Test
+    public void shouldLoadOnce_concurrent_requests() throws Exception {
+        final int threads = 8;
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<KeyStore>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executorService.submit(new Callable<KeyStore>() {
+                    @Override
+                    public KeyStore call() throws Exception {
+                        start.await();
+                        return cache.get(storeFile, STORE_PASSWORD);
+                    }
+                }));
+            }
+            start.countDown();
+            final KeyStore expected = futures.get(0).get();
+            for (final Future<KeyStore> future : futures) {
+                assertSame(expected, future.get());
+            }
+            assertEquals(1, cache.getStatistics().getMisses());
+            assertEquals(threads - 1, cache.getStatistics().getHits());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+}
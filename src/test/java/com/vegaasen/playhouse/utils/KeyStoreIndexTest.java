@@ -0,0 +1,106 @@
+package com.vegaasen.playhouse.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+import sun.security.x509.X500Name;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class KeyStoreIndexTest {
+
+    private static final String
+            SIGNING = "signing:idp.telenor.no(pwd:vegard)",
+            TRUSTED = "saml:idp.telenor.no",
+            ROOT = "win security bogus ca(root)";
+    private static final String
+            IDP_DN = "EMAILADDRESS=vegard.aasen@telenor.com, CN=idp.telenor.no, O=Telenor Norge ASA, L=Odda, ST=Hordaland, C=NO",
+            CA_DN = "EMAILADDRESS=vegard.aasen@telenor.com, CN=WIN Security Bogus CA, O=Telenor Norge ASA, L=Odda, ST=Hordaland, C=NO";
+
+    private KeyStore certificates;
+
+    @Before
+    public void setUp() {
+        certificates = KeyStoreUtils.load("fun_certificates.jks", "telenor", true);
+    }
+
+    @Test
+    public void shouldSplitAliasesByEntryType() throws Exception {
+        final KeyStoreIndex index = KeyStoreIndex.of(certificates);
+        assertEquals(3, index.size());
+        assertEquals(Collections.singletonList(SIGNING), index.getKeyAliases());
+        assertEquals(Collections.singletonList(SIGNING), index.getPrivateKeyAliases());
+        assertEquals(new HashSet<>(Arrays.asList(TRUSTED, ROOT)), new HashSet<>(index.getTrustedCertificateAliases()));
+        assertTrue(index.getSecretKeyAliases().isEmpty());
+        assertEquals(1, index.getCertificateChains().size());
+        assertEquals(1, index.getCertificateChain(SIGNING).length);
+        assertEquals(KeyStoreUtils.getKeyAliases(certificates), index.getKeyAliases());
+
+        final KeyStore secrets = KeyStoreUtils.load("fun.jceks", "vegard", true);
+        assertEquals(new HashSet<>(Arrays.asList("my-secret", "my-second-secret")),
+                new HashSet<>(KeyStoreIndex.of(secrets).getSecretKeyAliases()));
+        assertTrue(KeyStoreIndex.of(secrets).getCertificateChains().isEmpty());
+    }
+
+    @Test
+    public void shouldFindAliases() throws Exception {
+        final KeyStoreIndex index = KeyStoreIndex.of(certificates);
+        assertEquals(Collections.singletonList(SIGNING), index.findAliasesByPrefix("signing:"));
+        assertEquals(Arrays.asList(TRUSTED, SIGNING), index.findAliasesByPrefix("s"));
+        assertTrue(index.findAliasesByPrefix("nothing").isEmpty());
+
+        assertEquals(new HashSet<>(Arrays.asList(TRUSTED, SIGNING)), new HashSet<>(index.findAliasesBySubject(IDP_DN)));
+        assertEquals(3, index.findAliasesByIssuer(CA_DN).size());
+        assertEquals(Collections.singletonList(ROOT), index.findAliasesByFingerprint(
+                "80:1E:70:9B:E3:2F:1A:D9:2B:64:F8:A1:67:E2:09:E2:03:80:E6:51:D5:B6:16:13:1C:44:ED:93:A9:ED:9E:06"));
+    }
+
+    @Test
+    public void shouldRebuildOnlyWhenKeyStoreChanges() throws Exception {
+        final KeyStore keyStore = KeyStoreUtils.createEmpty("vegard", KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
+        final KeyStoreIndex empty = KeyStoreIndex.of(keyStore);
+        assertSame(empty, KeyStoreIndex.of(keyStore));
+
+        KeyStoreUtils.addKey(keyStore, new SecretKeySpec(new byte[16], "AES"), "added", "vegard");
+        final KeyStoreIndex added = KeyStoreIndex.of(keyStore);
+        assertNotSame(empty, added);
+        assertEquals(Collections.singletonList("added"), added.getSecretKeyAliases());
+
+        keyStore.deleteEntry("added");
+        assertTrue(KeyStoreIndex.of(keyStore).getAliases().isEmpty());
+    }
+
+    @Test
+    public void shouldRebuildWhenEntryIsReplaced() throws Exception {
+        final KeyStore keyStore = KeyStoreUtils.createEmpty("vegard", KeyStoreUtils.KEY_STORE_TYPE_JKS);
+        KeyStoreUtils.createSelfSigned(keyStore, "a", "vegard", new X500Name("CN=first, O=PKI_Playhouse"),
+                1, "RSA", 1024, "SHA1WithRSA");
+        assertEquals("CN=first,O=PKI_Playhouse", subjectOf(KeyStoreUtils.getCertificateChains(keyStore)));
+
+        KeyStoreUtils.createSelfSigned(keyStore, "a", "vegard", new X500Name("CN=second, O=PKI_Playhouse"),
+                1, "RSA", 1024, "SHA1WithRSA");
+        assertEquals("CN=second,O=PKI_Playhouse", subjectOf(KeyStoreUtils.getCertificateChains(keyStore)));
+        assertEquals(Collections.singletonList("a"),
+                KeyStoreIndex.of(keyStore).findAliasesBySubject("CN=second,O=PKI_Playhouse"));
+        assertTrue(KeyStoreIndex.of(keyStore).findAliasesBySubject("CN=first,O=PKI_Playhouse").isEmpty());
+    }
+
+    private static String subjectOf(final List<X509Certificate[]> chains) {
+        assertEquals(1, chains.size());
+        return chains.get(0)[0].getSubjectX500Principal().getName();
+    }
+
+}
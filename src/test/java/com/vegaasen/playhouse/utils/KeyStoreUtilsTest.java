@@ -1,5 +1,6 @@
 package com.vegaasen.playhouse.utils;
 
+import com.google.common.io.ByteStreams;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -9,7 +10,14 @@ import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -24,7 +32,6 @@ public class KeyStoreUtilsTest {
     public void testLoadKeyFromKeyStore() throws IOException, NoSuchAlgorithmException, KeyStoreException, CertificateException {
         InputStream is = KeyStoreUtilsTest.class.getResourceAsStream("/test-symkey.jceks");
         assertNotNull(is);
-        KeyStoreUtils.setKeystoreType(KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
         KeyStore ks = KeyStoreUtils.load(is, STORE_PASSWORD);
         assertNotNull(ks);
         assertTrue(ks.size() > 0);
@@ -34,4 +41,59 @@ public class KeyStoreUtilsTest {
         assertTrue(key.getEncoded().length > 0);
     }
 
+    @Test
+    public void detectKeyStoreType_fromMagicBytes() throws Exception {
+        assertEquals(KeyStoreUtils.KEY_STORE_TYPE_JCEKS, KeyStoreUtils.detectKeyStoreType(getResource("/fun.jceks")));
+        assertEquals(KeyStoreUtils.KEY_STORE_TYPE_JKS,
+                KeyStoreUtils.detectKeyStoreType(getResource("/fun_certificates.jks")));
+        assertEquals(KeyStoreUtils.KEY_STORE_TYPE_PKCS12,
+                KeyStoreUtils.detectKeyStoreType(KeyStoreUtils.serialize(
+                        KeyStoreUtils.createEmpty(STORE_PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_PKCS12), STORE_PASSWORD)));
+    }
+
+    @Test(expected = KeyStoreException.class)
+    public void detectKeyStoreType_unknownFormat() throws Exception {
+        KeyStoreUtils.detectKeyStoreType(new byte[]{1, 2, 3, 4});
+    }
+
+    @Test
+    public void load_explicitType() throws Exception {
+        final KeyStore keyStore = KeyStoreUtils.load(getResource("/fun.jceks"), "vegard",
+                KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
+        assertEquals(KeyStoreUtils.KEY_STORE_TYPE_JCEKS, keyStore.getType());
+    }
+
+    @Test
+    public void load_differentTypesConcurrently() throws Exception {
+        final byte[] jceks = getResource("/fun.jceks");
+        final byte[] jks = getResource("/fun_certificates.jks");
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> types = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                final boolean even = i % 2 == 0;
+                types.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return even ?
+                                KeyStoreUtils.load(jceks, "vegard").getType() :
+                                KeyStoreUtils.load(jks, "telenor").getType();
+                    }
+                }));
+            }
+            for (int i = 0; i < types.size(); i++) {
+                assertEquals(i % 2 == 0 ? KeyStoreUtils.KEY_STORE_TYPE_JCEKS : KeyStoreUtils.KEY_STORE_TYPE_JKS,
+                        types.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] getResource(final String name) throws IOException {
+        try (InputStream is = KeyStoreUtilsTest.class.getResourceAsStream(name)) {
+            return ByteStreams.toByteArray(is);
+        }
+    }
+
 }
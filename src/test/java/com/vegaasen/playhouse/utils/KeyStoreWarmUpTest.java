@@ -0,0 +1,154 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.vegaasen.playhouse.model.KeyStoreManifest;
+import com.vegaasen.playhouse.model.KeyStoreWarmUpResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class KeyStoreWarmUpTest {
+
+    private File secretStore;
+    private File certificateStore;
+    private KeyStoreCache keyStoreCache;
+    private KeyCache keyCache;
+    private KeyStoreWarmUp warmUp;
+
+    @Before
+    public void setUp() throws Exception {
+        secretStore = copyFromClassPath("fun.jceks");
+        certificateStore = copyFromClassPath("fun_certificates.jks");
+        keyStoreCache = new KeyStoreCache();
+        keyCache = new KeyCache(100, 1, TimeUnit.MINUTES);
+        warmUp = new KeyStoreWarmUp(keyStoreCache, keyCache);
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(secretStore.delete());
+        assertTrue(certificateStore.delete());
+    }
+
+    @Test
+    public void shouldPublishLoadedKeyStoresAndKeys() throws Exception {
+        final KeyStoreWarmUpResult result = warmUp.warmUp(new KeyStoreManifest.Builder()
+                .keyStore(secretStore.getPath(), "vegard")
+                .alias("my-secret", "vegard")
+                .alias("my-second-secret", "vegard")
+                .keyStore(certificateStore.getPath(), "telenor", KeyStoreUtils.KEY_STORE_TYPE_JKS)
+                .alias("signing:idp.telenor.no(pwd:vegard)", "vegard")
+                .build(), 2);
+        assertEquals(2, result.getKeyStores().size());
+        assertEquals(2, result.getLoadNanos().size());
+        assertEquals(3, result.getKeysUnlocked());
+        assertEquals(0, keyStoreCache.getStatistics().getMisses());
+
+        final KeyStore secrets = keyStoreCache.get(secretStore, "vegard");
+        assertSame(result.getKeyStores().get(secretStore.getPath()), secrets);
+        assertSame(result.getKeyStores().get(certificateStore.getPath()), keyStoreCache.get(certificateStore, "telenor"));
+        assertEquals(2, keyStoreCache.getStatistics().getHits());
+
+        keyCache.getKey(secrets, "my-secret", "vegard");
+        assertEquals(1, keyCache.getStatistics().getHits());
+        assertEquals(3, keyCache.getStatistics().getMisses());
+    }
+
+    @Test
+    public void shouldPublishNothing_when_one_fails() throws Exception {
+        try {
+            warmUp.warmUp(new KeyStoreManifest.Builder()
+                    .keyStore(secretStore.getPath(), "vegard")
+                    .alias("my-secret", "vegard")
+                    .keyStore(certificateStore.getPath(), "telenor")
+                    .alias("does-not-exist", "vegard")
+                    .build(), 2);
+            fail("Expected the warm-up to fail");
+        } catch (final KeyStoreException e) {
+            assertEquals(0, keyStoreCache.size());
+            assertEquals(0, keyCache.size());
+        }
+    }
+
+    @Test
+    public void shouldDropUnlockedKeys_when_one_alias_fails() throws Exception {
+        try {
+            warmUp.warmUp(new KeyStoreManifest.Builder()
+                    .keyStore(certificateStore.getPath(), "telenor", KeyStoreUtils.KEY_STORE_TYPE_JKS)
+                    .alias("signing:idp.telenor.no(pwd:vegard)", "vegard")
+                    .keyStore(secretStore.getPath(), "vegard")
+                    .alias("my-secret", "vegard")
+                    .alias("my-second-secret", "not-the-password")
+                    .build(), 1);
+            fail("Expected the warm-up to fail");
+        } catch (final KeyStoreException e) {
+            assertEquals(0, keyStoreCache.size());
+            assertEquals(0, keyCache.size());
+            assertEquals(3, keyCache.getStatistics().getMisses());
+        }
+    }
+
+    @Test
+    public void shouldReadManifestFromProperties() {
+        final Properties properties = new Properties();
+        properties.setProperty("warmup.keystore.2.name", "fun_certificates.jks");
+        properties.setProperty("warmup.keystore.2.password", "telenor");
+        properties.setProperty("warmup.keystore.1.name", "fun.jceks");
+        properties.setProperty("warmup.keystore.1.password", "vegard");
+        properties.setProperty("warmup.keystore.1.type", "JCEKS");
+        properties.setProperty("warmup.keystore.1.alias.my-secret", "vegard");
+        properties.setProperty("keystore.name", "ignored.jceks");
+        final KeyStoreManifest manifest = KeyStoreManifest.fromProperties(properties);
+        assertEquals(2, manifest.getEntries().size());
+        final KeyStoreManifest.Entry first = manifest.getEntries().get(0);
+        assertEquals("fun.jceks", first.getName());
+        assertEquals("JCEKS", first.getType());
+        assertEquals("vegard", first.getAliases().get("my-secret"));
+        assertEquals("fun_certificates.jks", manifest.getEntries().get(1).getName());
+        assertTrue(manifest.getEntries().get(1).getAliases().isEmpty());
+    }
+
+    @Test
+    public void shouldReadManifestInNumericOrder() {
+        final Properties properties = new Properties();
+        properties.setProperty("warmup.keystore.10.name", "fun_certificates.jks");
+        properties.setProperty("warmup.keystore.2.name", "fun.jceks");
+        final KeyStoreManifest manifest = KeyStoreManifest.fromProperties(properties);
+        assertEquals(2, manifest.getEntries().size());
+        assertEquals("fun.jceks", manifest.getEntries().get(0).getName());
+        assertEquals("fun_certificates.jks", manifest.getEntries().get(1).getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotReadManifest_keystore_number_not_a_number() {
+        final Properties properties = new Properties();
+        properties.setProperty("warmup.keystore.first.name", "fun.jceks");
+        KeyStoreManifest.fromProperties(properties);
+    }
+
+    private static File copyFromClassPath(final String name) throws IOException {
+        final File file = File.createTempFile("warmup", name);
+        try (InputStream is = FileUtils.getInstance().getFileAsInputStreamFromClassPath(name)) {
+            Files.write(ByteStreams.toByteArray(is), file);
+        }
+        return file;
+    }
+
+}
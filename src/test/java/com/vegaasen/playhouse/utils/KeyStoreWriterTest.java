@@ -0,0 +1,220 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreSpi;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class KeyStoreWriterTest {
+
+    private static final String STORE_PASSWORD = "vegard";
+
+    private File directory;
+    private KeyStoreWriter writer;
+
+    @Before
+    public void setUp() {
+        directory = Files.createTempDir();
+        writer = new KeyStoreWriter(1);
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void shouldWriteAndReplaceKeyStore() throws Exception {
+        final File target = new File(directory, "store.jceks");
+        writer.save(createKeyStore("first"), STORE_PASSWORD, target).get(10, TimeUnit.SECONDS);
+        assertTrue(KeyStoreUtils.load(target, STORE_PASSWORD).containsAlias("first"));
+
+        writer.save(createKeyStore("second"), STORE_PASSWORD, target).get(10, TimeUnit.SECONDS);
+        final KeyStore replaced = KeyStoreUtils.load(target, STORE_PASSWORD);
+        assertTrue(replaced.containsAlias("second"));
+        assertFalse(replaced.containsAlias("first"));
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void shouldCoalesceSavesOfSameLocation() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final KeyStore blocking = new KeyStore(new BlockingKeyStoreSpi(release), null, "blocking") {
+        };
+        blocking.load(null, null);
+        final Future<File> busy = writer.save(blocking, STORE_PASSWORD, new File(directory, "busy"));
+
+        final File target = new File(directory, "store.jceks");
+        final Future<File> first = writer.save(createKeyStore("first"), STORE_PASSWORD, target);
+        final Future<File> second = writer.save(createKeyStore("second"), STORE_PASSWORD, target);
+        final Future<File> third = writer.save(createKeyStore("third"), STORE_PASSWORD, target);
+        assertSame(first, second);
+        assertSame(first, third);
+
+        release.countDown();
+        busy.get(10, TimeUnit.SECONDS);
+        assertEquals(target.getCanonicalFile(), third.get(10, TimeUnit.SECONDS));
+        assertTrue(KeyStoreUtils.load(target, STORE_PASSWORD).containsAlias("third"));
+        assertEquals(4, writer.getRequests());
+        assertEquals(2, writer.getWrites());
+    }
+
+    @Test
+    public void shouldKeepKeyStorePrivate() throws Exception {
+        final File target = new File(directory, "store.jceks");
+        final Path path = target.toPath();
+        Assume.assumeTrue(java.nio.file.Files.getFileStore(directory.toPath()).supportsFileAttributeView("posix"));
+        writer.save(createKeyStore("first"), STORE_PASSWORD, target).get(10, TimeUnit.SECONDS);
+        assertEquals(PosixFilePermissions.fromString("rw-------"), java.nio.file.Files.getPosixFilePermissions(path));
+
+        java.nio.file.Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r-----"));
+        writer.save(createKeyStore("second"), STORE_PASSWORD, target).get(10, TimeUnit.SECONDS);
+        assertTrue(KeyStoreUtils.load(target, STORE_PASSWORD).containsAlias("second"));
+        assertEquals(PosixFilePermissions.fromString("rw-r-----"), java.nio.file.Files.getPosixFilePermissions(path));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotCreateWriter_no_threads() {
+        new KeyStoreWriter(0);
+    }
+
+    @Test
+    public void saveKeyStore_shouldNotOverwriteExistingFile() throws Exception {
+        final File target = new File(directory, "store.jceks");
+        assertTrue(KeyStoreUtils.saveKeyStore(createKeyStore("first"), STORE_PASSWORD, target.getPath()));
+        assertTrue(KeyStoreUtils.saveKeyStore(createKeyStore("second"), STORE_PASSWORD, target.getPath()));
+        assertTrue(KeyStoreUtils.load(target, STORE_PASSWORD).containsAlias("first"));
+        assertTrue(KeyStoreUtils.load(new File(target.getPath() + "_1"), STORE_PASSWORD).containsAlias("second"));
+    }
+
+    private static KeyStore createKeyStore(final String alias) throws Exception {
+        final KeyStore keyStore = KeyStoreUtils.createEmpty(STORE_PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
+        KeyStoreUtils.addKey(keyStore, new SecretKeySpec(new byte[16], "AES"), alias, STORE_PASSWORD);
+        return keyStore;
+    }
+
+    /**
+     * Keystore that waits for the latch when stored, to keep the writer busy.
+     */
+    private static final class BlockingKeyStoreSpi extends KeyStoreSpi {
+
+        private final CountDownLatch release;
+
+        private BlockingKeyStoreSpi(final CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void engineStore(final OutputStream stream, final char[] password) {
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void engineLoad(final InputStream stream, final char[] password) {
+        }
+
+        @Override
+        public Key engineGetKey(final String alias, final char[] password) {
+            return null;
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(final String alias) {
+            return null;
+        }
+
+        @Override
+        public Certificate engineGetCertificate(final String alias) {
+            return null;
+        }
+
+        @Override
+        public Date engineGetCreationDate(final String alias) {
+            return null;
+        }
+
+        @Override
+        public void engineSetKeyEntry(final String alias, final Key key, final char[] password,
+                                      final Certificate[] chain) {
+        }
+
+        @Override
+        public void engineSetKeyEntry(final String alias, final byte[] key, final Certificate[] chain) {
+        }
+
+        @Override
+        public void engineSetCertificateEntry(final String alias, final Certificate cert) {
+        }
+
+        @Override
+        public void engineDeleteEntry(final String alias) {
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            return Collections.emptyEnumeration();
+        }
+
+        @Override
+        public boolean engineContainsAlias(final String alias) {
+            return false;
+        }
+
+        @Override
+        public int engineSize() {
+            return 0;
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(final String alias) {
+            return false;
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(final String alias) {
+            return false;
+        }
+
+        @Override
+        public String engineGetCertificateAlias(final Certificate cert) {
+            return null;
+        }
+    }
+
+}
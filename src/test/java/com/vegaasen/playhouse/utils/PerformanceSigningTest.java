@@ -44,7 +44,6 @@ public class PerformanceSigningTest extends AbstractTest {
     @BeforeClass
     public static void onlyOnce() {
         try {
-            KeyStoreUtils.setKeystoreType("JKS");
             final Map<String, Object> keyPair;
             keyPair = KeyStoreUtils.getKeyPair(
                     getKeyStoreByName("fun_certificates.jks", "telenor"),
@@ -55,7 +54,6 @@ public class PerformanceSigningTest extends AbstractTest {
             assertTrue(!keyPair.isEmpty());
             assertTrue(keyPair.size() == 2);
             HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
-            KeyStoreUtils.setKeystoreType("JCEKS");
             preloadedHMacKey = getAESKeyFromLocalKeyStore("my-secret", "vegard");
             preloadedCertificate = (X509Certificate) keyPair.get(KeyStoreUtils.KEY_PUBLIC);
             preloadedPrivateKey = (PrivateKey) keyPair.get(KeyStoreUtils.KEY_PRIVATE);
@@ -232,7 +230,6 @@ public class PerformanceSigningTest extends AbstractTest {
         assertNotNull(signedDocument);
         try {
             HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
-            KeyStoreUtils.setKeystoreType("JCEKS");
             final Key hmacKey = getAESKeyFromLocalKeyStore("my-secret", "vegard");
 
             assertNotNull(hmacKey);
@@ -332,7 +329,6 @@ public class PerformanceSigningTest extends AbstractTest {
         Key hmacKey = null;
         try {
             HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
-            KeyStoreUtils.setKeystoreType("JCEKS");
             hmacKey = getAESKeyFromLocalKeyStore("my-secret", "vegard");
         } catch (KeyStoreException e) {
             e.printStackTrace();
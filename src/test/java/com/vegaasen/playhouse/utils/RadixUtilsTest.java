@@ -3,6 +3,7 @@ package com.vegaasen.playhouse.utils;
 import org.junit.After;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -52,6 +53,66 @@ public class RadixUtilsTest {
         assertEquals(resultAsString, expectedHexMessage);
     }
 
+    @Test
+    public void shouldKeepLeadingZeroAndNegativeBytes() {
+        final byte[] message = {0x00, 0x0f, (byte) 0x80, (byte) 0xff};
+        final String result = RadixUtils.convertToHex(message);
+        assertEquals("000f80ff", result);
+        assertArrayEquals(message, RadixUtils.convertFromHex(result));
+    }
+
+    @Test
+    public void shouldGenerateEmptyHex_empty_message() {
+        assertEquals("", RadixUtils.convertToHex(new byte[0]));
+        assertEquals(0, RadixUtils.convertFromHex("").length);
+    }
+
+    @Test
+    public void shouldEncodeIntoCallerBuffers() throws Exception {
+        final byte[] message = MESSAGE.getBytes(RadixUtils.DEFAULT_ENCODING);
+        final char[] chars = new char[message.length * 2 + 2];
+        assertEquals(chars.length, RadixUtils.convertToHex(message, 0, message.length, chars, 2));
+        assertEquals(MESSAGE_HEX, new String(chars, 2, message.length * 2));
+        final byte[] bytes = new byte[message.length * 2];
+        assertEquals(bytes.length, RadixUtils.convertToHex(message, 0, message.length, bytes, 0));
+        assertEquals(MESSAGE_HEX, new String(bytes, "US-ASCII"));
+        final StringBuilder builder = new StringBuilder("0x");
+        RadixUtils.convertToHex(message, 1, 2, builder);
+        assertEquals("0x6567", builder.toString());
+    }
+
+    @Test
+    public void shouldDecodeIntoCallerBuffer_mixed_case() {
+        final byte[] destination = new byte[3];
+        assertEquals(2, RadixUtils.convertFromHex("xxCAfe", 2, 4, destination, 1));
+        assertArrayEquals(new byte[]{0, (byte) 0xca, (byte) 0xfe}, destination);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToDecode_invalid_digit() {
+        RadixUtils.convertFromHex("0g");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToDecode_odd_length() {
+        RadixUtils.convertFromHex("abc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToEncode_destination_too_small() {
+        RadixUtils.convertToHex(new byte[4], 0, 4, new char[7], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToEncode_offset_overflows() {
+        RadixUtils.convertToHex(new byte[4], Integer.MAX_VALUE, 2, new char[8], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailToEncode_destination_offset_overflows() {
+        RadixUtils.convertToHex(new byte[4], 0, 4, new byte[8], Integer.MAX_VALUE);
+    }
+
     @After
     public void tearDown() {
         RadixUtils.setEncoding(RadixUtils.DEFAULT_ENCODING);
@@ -0,0 +1,116 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.security.Key;
+import java.security.KeyException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class ShardedKeyStoreTest {
+
+    private static final String STORE_PASSWORD = "vegard";
+    private static final int SHARDS = 8;
+    private static final int KEYS = 16;
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void shouldSpreadAliasesAndLoadShardsLazily() throws Exception {
+        final ShardedKeyStore keyStore = open();
+        final Set<Integer> usedShards = new HashSet<>();
+        for (int i = 0; i < KEYS; i++) {
+            keyStore.addKey(createKey(i), "tenant-" + i, STORE_PASSWORD);
+            usedShards.add(keyStore.getShardIndex("tenant-" + i));
+        }
+        assertTrue(usedShards.size() > 1);
+        assertEquals(usedShards.size(), keyStore.save());
+        assertEquals(usedShards.size(), directory.listFiles().length);
+
+        final ShardedKeyStore reopened = open();
+        assertEquals(0, reopened.getLoadedShards());
+        final Key key = reopened.getKey("tenant-3", STORE_PASSWORD);
+        assertArrayEquals(createKey(3).getEncoded(), key.getEncoded());
+        assertEquals(1, reopened.getLoadedShards());
+        assertEquals(KEYS, reopened.size());
+        assertEquals(SHARDS, reopened.getLoadedShards());
+    }
+
+    @Test
+    public void shouldOnlyWriteDirtyShards() throws Exception {
+        final ShardedKeyStore keyStore = open();
+        for (int i = 0; i < KEYS; i++) {
+            keyStore.addKey(createKey(i), "tenant-" + i, STORE_PASSWORD);
+        }
+        keyStore.save();
+        assertEquals(0, keyStore.save());
+
+        keyStore.deleteEntry("tenant-5");
+        assertEquals(1, keyStore.save());
+
+        final ShardedKeyStore reopened = open();
+        assertFalse(reopened.containsAlias("tenant-5"));
+        assertTrue(reopened.containsAlias("tenant-6"));
+        assertEquals(KEYS - 1, reopened.getAliases().size());
+    }
+
+    @Test
+    public void shouldFindAliasInAnyCase() throws Exception {
+        final ShardedKeyStore keyStore = open();
+        for (int i = 0; i < KEYS; i++) {
+            keyStore.addKey(createKey(i), "tenant-" + i, STORE_PASSWORD);
+            assertEquals(keyStore.getShardIndex("tenant-" + i), keyStore.getShardIndex("TENANT-" + i));
+            assertTrue(keyStore.containsAlias("TENANT-" + i));
+            try {
+                keyStore.addKey(createKey(i), "TENANT-" + i, STORE_PASSWORD);
+                fail("Alias should already exist");
+            } catch (final KeyException e) {
+                // expected
+            }
+        }
+        assertEquals(KEYS, keyStore.size());
+        assertEquals(KEYS, new HashSet<>(keyStore.getAliases()).size());
+        assertArrayEquals(createKey(3).getEncoded(), keyStore.getKey("Tenant-3", STORE_PASSWORD).getEncoded());
+    }
+
+    private ShardedKeyStore open() throws Exception {
+        return KeyStoreUtils.openSharded(directory, SHARDS, STORE_PASSWORD, KeyStoreUtils.KEY_STORE_TYPE_JCEKS);
+    }
+
+    private static SecretKeySpec createKey(final int i) {
+        final byte[] key = new byte[16];
+        key[0] = (byte) i;
+        return new SecretKeySpec(key, "AES");
+    }
+
+}
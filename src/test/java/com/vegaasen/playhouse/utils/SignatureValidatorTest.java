@@ -0,0 +1,98 @@
+package com.vegaasen.playhouse.utils;
+
+import com.vegaasen.playhouse.types.HashType;
+import com.vegaasen.playhouse.utils.abs.AbstractTest;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import sun.security.x509.X500Name;
+
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class SignatureValidatorTest extends AbstractTest {
+
+    private static Key someKey;
+    private static Key someOtherKey;
+    private static X509Certificate certificate;
+    private static X509Certificate otherCertificate;
+    private static SigningProfile rsaProfile;
+
+    private Document document;
+
+    @BeforeClass
+    public static void setUpKeys() throws Exception {
+        someKey = getAESKeyFromLocalKeyStore("my-secret", "vegard");
+        someOtherKey = getAESKeyFromLocalKeyStore("my-second-secret", "vegard");
+        final KeyStore keyStore = KeyStoreUtils.createEmpty("vegard", KeyStoreUtils.KEY_STORE_TYPE_JKS);
+        KeyStoreUtils.createSelfSigned(keyStore, "validator", "vegard", new X500Name("CN=validator, O=PKI_Playhouse"),
+                1, "RSA", 1024, "SHA1WithRSA");
+        KeyStoreUtils.createSelfSigned(keyStore, "other", "vegard", new X500Name("CN=other, O=PKI_Playhouse"),
+                1, "RSA", 1024, "SHA1WithRSA");
+        certificate = KeyStoreUtils.getCertificate(keyStore, "validator");
+        otherCertificate = KeyStoreUtils.getCertificate(keyStore, "other");
+        rsaProfile = SigningProfile.forCertificate((PrivateKey) keyStore.getKey("validator", "vegard".toCharArray()),
+                certificate);
+    }
+
+    @Before
+    public void setUp() {
+        document = getDocumentFromFile(FileUtils.getInstance().getFileFromClassPath("signing-document.xml"));
+        document.getDocumentElement().setIdAttribute("id", true);
+    }
+
+    @Test
+    public void shouldValidateWithAnyOfTheTrustedKeys() throws Exception {
+        XmlSigningUtils.signDocumentByKey(document, "#allTheCarsInTheWorld", null, someKey, HashType.HMAC_SHA_1);
+        final SignatureValidator validator = SignatureValidator.forKeys(Arrays.asList(someOtherKey, someKey));
+        assertTrue(validator.validate(document));
+        assertTrue(validator.validate(document));
+        assertFalse(SignatureValidator.forKeys(Collections.singletonList(someOtherKey)).validate(document));
+    }
+
+    @Test
+    public void shouldValidateWithTheCertificateOfTheKeyInfo() throws Exception {
+        XmlSigningUtils.signDocument(document, "#allTheCarsInTheWorld", null, rsaProfile);
+        assertTrue(SignatureValidator.forCertificates(Arrays.asList(otherCertificate, certificate)).validate(document));
+        assertFalse(SignatureValidator.forCertificates(Collections.singletonList(otherCertificate)).validate(document));
+    }
+
+    @Test
+    public void shouldNotValidateChangedDocument() throws Exception {
+        XmlSigningUtils.signDocument(document, "#allTheCarsInTheWorld", null, rsaProfile);
+        final SignatureValidator validator = SignatureValidator.forCertificates(Collections.singletonList(certificate));
+        assertTrue(validator.validate(document));
+        document.getDocumentElement().setAttribute("changed", "true");
+        assertFalse(validator.validate(document));
+    }
+
+    @Test(expected = SignatureException.class)
+    public void shouldFailValidating_no_key_fits() throws Exception {
+        XmlSigningUtils.signDocumentByKey(document, "#allTheCarsInTheWorld", null, someKey, HashType.HMAC_SHA_1);
+        SignatureValidator.forCertificates(Collections.singletonList(certificate)).validate(document);
+    }
+
+    @Test(expected = SignatureException.class)
+    public void shouldFailValidating_unsigned() throws Exception {
+        SignatureValidator.forKeys(Collections.singletonList(someKey)).validate(document);
+    }
+
+    @Test(expected = CertificateException.class)
+    public void shouldFailCreatingValidator_expired_certificate() throws Exception {
+        SignatureValidator.forCertificates(Collections.singletonList(getCertificateFromLocalKeyStore("saml:idp.telenor.no")));
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.vegaasen.playhouse.utils;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.vegaasen.playhouse.types.HashType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import sun.security.x509.X500Name;
+
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SignatureException;
+import java.security.cert.X509Certificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
+ */
+public class StreamingXmlSigningUtilsTest {
+
+    private static final String CARS = "signing-document.xml";
+    private static final String CARS_REFERENCE = "#allTheCarsInTheWorld";
+    private static final String ASSERTION = "samlv2_unsigned.xml";
+    private static final String ASSERTION_REFERENCE = "#AEA1247AD133724C7566E777C47316CF7220D0B94";
+
+    private static final String ESCAPED =
+            "<?pi before?><r:root xmlns:r=\"urn:r\" xmlns=\"urn:default\" b=\"2\" a=\"&amp;&lt;&quot;&#9;&#10;&#13;\" ID=\"top\">" +
+                    "<child xmlns:z=\"urn:z\" z:q=\"1\"><!-- comment --><plain xmlns=\"\">&amp; &lt; &gt; &#13;\r\n" +
+                    "<![CDATA[<cdata & stuff>]]></plain><?target some data?></child>\n</r:root>";
+
+    private static Key hmacKey;
+    private static SigningProfile rsaProfile;
+    private static X509Certificate certificate;
+
+    @BeforeClass
+    public static void setUpKeys() throws Exception {
+        hmacKey = KeyStoreUtils.getKey(KeyStoreUtils.load("fun.jceks", "vegard", true), "my-secret", "vegard");
+        final KeyStore keyStore = KeyStoreUtils.createEmpty("vegard", KeyStoreUtils.KEY_STORE_TYPE_JKS);
+        KeyStoreUtils.createSelfSigned(keyStore, "streaming", "vegard", new X500Name("CN=streaming, O=PKI_Playhouse"),
+                1, "RSA", 1024, "SHA1WithRSA");
+        certificate = KeyStoreUtils.getCertificate(keyStore, "streaming");
+        rsaProfile = SigningProfile.forCertificate((PrivateKey) keyStore.getKey("streaming", "vegard".toCharArray()),
+                certificate);
+    }
+
+    @Test
+    public void shouldSignAsTheDomPath_hmac() throws Exception {
+        final SigningProfile profile = SigningProfile.forKey(hmacKey, HashType.HMAC_SHA_1);
+        final Document streamed = parse(signStreaming(CARS, CARS_REFERENCE, profile));
+        assertEquals("O3FtmZSNYAv1Gzcp408sJHe3Rog=", getText(streamed, "SignatureValue"));
+        assertEquals("g6uRSxiw7ZEth0KnfHf1RPr0fk0=", getText(streamed, "DigestValue"));
+        assertEquals(getText(signDom(CARS, "id", CARS_REFERENCE, profile), "SignatureValue"),
+                getText(streamed, "SignatureValue"));
+    }
+
+    @Test
+    public void shouldSignAsTheDomPath_namespaces_and_rsa() throws Exception {
+        final Document dom = signDom(ASSERTION, "ID", ASSERTION_REFERENCE, rsaProfile);
+        final Document streamed = parse(signStreaming(ASSERTION, ASSERTION_REFERENCE, rsaProfile));
+        assertEquals(getText(dom, "DigestValue"), getText(streamed, "DigestValue"));
+        assertEquals(getText(dom, "SignatureValue"), getText(streamed, "SignatureValue"));
+        assertEquals(getText(dom, "X509Certificate"), getText(streamed, "X509Certificate"));
+    }
+
+    @Test
+    public void shouldValidateAcrossDomAndStreaming() throws Exception {
+        final byte[] streamed = signStreaming(ASSERTION, ASSERTION_REFERENCE, rsaProfile);
+        final Document parsed = parse(streamed);
+        parsed.getDocumentElement().setIdAttribute("ID", true);
+        assertTrue(XmlSigningUtils.validateDocumentByCertificate(parsed, certificate));
+        assertTrue(StreamingXmlSigningUtils.validateDocumentByCertificate(new ByteArrayInputStream(streamed), certificate));
+
+        final SigningProfile profile = SigningProfile.forKey(hmacKey, HashType.HMAC_SHA_256);
+        final byte[] dom = serialize(signDom(CARS, "id", CARS_REFERENCE, profile));
+        assertTrue(StreamingXmlSigningUtils.validateDocumentByKey(new ByteArrayInputStream(dom), hmacKey));
+    }
+
+    @Test
+    public void shouldNotValidateChangedDocument() throws Exception {
+        final SigningProfile profile = SigningProfile.forKey(hmacKey, HashType.HMAC_SHA_1);
+        final String signed = new String(signStreaming(CARS, CARS_REFERENCE, profile), Charsets.UTF_8);
+        assertTrue(validate(signed, hmacKey));
+        assertFalse(validate(signed.replace("Golf", "Gulf"), hmacKey));
+        assertFalse(validate(signed, KeyUtils.generateAESKey(KeyUtils.AES_KEY_SIZE_128)));
+    }
+
+    @Test
+    public void shouldKeepEscapedValuesWhenWritten() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StreamingXmlSigningUtils.signDocument(new ByteArrayInputStream(ESCAPED.getBytes(Charsets.UTF_8)), output, "#top",
+                null, SigningProfile.forKey(hmacKey, HashType.HMAC_SHA_1));
+        assertTrue(StreamingXmlSigningUtils.validateDocumentByKey(new ByteArrayInputStream(output.toByteArray()), hmacKey));
+        final Document parsed = parse(output.toByteArray());
+        parsed.getDocumentElement().setIdAttribute("ID", true);
+        assertTrue(XmlSigningUtils.validateDocumentByKey(parsed, hmacKey));
+    }
+
+    @Test(expected = SignatureException.class)
+    public void shouldFailSigning_no_such_element() throws Exception {
+        signStreaming(CARS, "#ThereIsNoElementNamedThis", SigningProfile.forKey(hmacKey, HashType.HMAC_SHA_1));
+    }
+
+    @Test(expected = SignatureException.class)
+    public void shouldFailValidating_unsigned() throws Exception {
+        try (InputStream is = FileUtils.getInstance().getFileAsInputStreamFromClassPath(CARS)) {
+            StreamingXmlSigningUtils.validateDocumentByKey(is, hmacKey);
+        }
+    }
+
+    private static boolean validate(final String document, final Key key) throws SignatureException {
+        return StreamingXmlSigningUtils.validateDocumentByKey(
+                new ByteArrayInputStream(document.getBytes(Charsets.UTF_8)), key);
+    }
+
+    private static byte[] signStreaming(final String name, final String reference, final SigningProfile profile)
+            throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream is = FileUtils.getInstance().getFileAsInputStreamFromClassPath(name)) {
+            StreamingXmlSigningUtils.signDocument(is, output, reference, null, profile);
+        }
+        return output.toByteArray();
+    }
+
+    private static Document signDom(final String name, final String idAttribute, final String reference,
+                                    final SigningProfile profile) throws Exception {
+        final Document document;
+        try (InputStream is = FileUtils.getInstance().getFileAsInputStreamFromClassPath(name)) {
+            document = parse(ByteStreams.toByteArray(is));
+        }
+        document.getDocumentElement().setIdAttribute(idAttribute, true);
+        XmlSigningUtils.signDocument(document, reference, null, profile);
+        return document;
+    }
+
+    private static Document parse(final byte[] document) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(document));
+    }
+
+    private static byte[] serialize(final Document document) throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(output));
+        return output.toByteArray();
+    }
+
+    private static String getText(final Document document, final String localName) {
+        return CharMatcher.WHITESPACE.removeFrom(
+                document.getElementsByTagNameNS(XMLSignature.XMLNS, localName).item(0).getTextContent());
+    }
+
+}
@@ -1,25 +1,41 @@
 package com.vegaasen.playhouse.utils;
 
+import com.google.common.base.Charsets;
+import com.vegaasen.playhouse.model.SigningBatchResult;
+import com.vegaasen.playhouse.model.SigningRequest;
 import com.vegaasen.playhouse.types.HashType;
 import com.vegaasen.playhouse.utils.abs.AbstractTest;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.KeyStoreException;
 import java.security.PrivateKey;
 import java.security.SignatureException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author <a href="vegard.aasen@telenor.com">Vegard Aasen</a>
@@ -34,7 +50,6 @@ public class XmlSigningUtilsTest extends AbstractTest {
     @Before
     public void setUp() {
         HMacUtils.setHashType(HMacUtils.DEFAULT_HASH_TYPE);
-        KeyStoreUtils.setKeystoreType("JCEKS");
         try {
             someKey = getAESKeyFromLocalKeyStore("my-secret", "vegard");
             someOtherKey = getAESKeyFromLocalKeyStore("my-second-secret", "vegard");
@@ -260,4 +275,144 @@ public class XmlSigningUtilsTest extends AbstractTest {
         assertTrue(XmlSigningUtils.validateDocumentByCertificate(document, validatorCertificate));
     }
 
+    @Test
+    public void shouldSignDocumentUsingProfile_same_as_per_call_signing() throws Exception {
+        final Key hmacKey = HMacUtils.getHMacKey(someKey, HashType.HMAC_SHA_256);
+        final SigningProfile profile = SigningProfile.forKey(hmacKey, HashType.HMAC_SHA_256);
+        assertNotNull(profile);
+        document.getDocumentElement().setIdAttribute("id", true);
+        XmlSigningUtils.signDocument(document, "#allTheCarsInTheWorld", XmlSigningUtils.DEFAULT_SIGNATURE_ID, profile);
+        final String expectedSignatureValue = "R03Q5C0uBaDyu4ExNiQTS+/mQ/gLWy0AFpTVW8ruNu8=";
+        final String signatureValue = ((document.getElementsByTagName("ds:SignatureValue").item(0))).getTextContent();
+        assertEquals(expectedSignatureValue, signatureValue);
+        assertTrue(XmlSigningUtils.validateDocumentByKey(document, hmacKey));
+    }
+
+    @Test
+    public void shouldSignDocumentsUsingTheSameProfileTwice() throws Exception {
+        final SigningProfile profile = SigningProfile.forKey(someKey, HashType.HMAC_SHA_1);
+        final Document otherDocument = getDocumentFromFile(FileUtils.getInstance().getFileFromClassPath("signing-document.xml"));
+        document.getDocumentElement().setIdAttribute("id", true);
+        otherDocument.getDocumentElement().setIdAttribute("id", true);
+        XmlSigningUtils.signDocument(document, "#allTheCarsInTheWorld", null, profile);
+        XmlSigningUtils.signDocument(otherDocument, "#allTheCarsInTheWorld", null, profile);
+        final String expectedSignatureValue = "O3FtmZSNYAv1Gzcp408sJHe3Rog=";
+        assertEquals(expectedSignatureValue, document.getElementsByTagName("ds:SignatureValue").item(0).getTextContent());
+        assertEquals(expectedSignatureValue, otherDocument.getElementsByTagName("ds:SignatureValue").item(0).getTextContent());
+    }
+
+    @Test
+    public void shouldSignDocumentsInBatch() throws Exception {
+        final List<Document> documents = new ArrayList<>();
+        final List<SigningRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final Document batchDocument =
+                    getDocumentFromFile(FileUtils.getInstance().getFileFromClassPath("signing-document.xml"));
+            batchDocument.getDocumentElement().setIdAttribute("id", true);
+            documents.add(batchDocument);
+            requests.add(new SigningRequest(batchDocument, (i == 7) ? "#ThereIsNoElementNamedThis" : "#allTheCarsInTheWorld"));
+        }
+        final SigningBatchResult result = XmlSigningUtils.signDocumentsByKey(requests, someKey, HashType.HMAC_SHA_1, 4);
+        assertEquals(20, result.getOutcomes().size());
+        assertEquals(19, result.getSigned());
+        assertEquals(1, result.getFailed());
+        for (int i = 0; i < 20; i++) {
+            final SigningBatchResult.Outcome outcome = result.getOutcomes().get(i);
+            assertEquals(i, outcome.getIndex());
+            if (i == 7) {
+                assertFalse(outcome.isSigned());
+                assertTrue(outcome.getError() instanceof SignatureException);
+            } else {
+                assertTrue(outcome.isSigned());
+                assertEquals("O3FtmZSNYAv1Gzcp408sJHe3Rog=",
+                        documents.get(i).getElementsByTagName("ds:SignatureValue").item(0).getTextContent());
+            }
+        }
+        assertTrue(result.getDocumentsPerSecond() > 0);
+    }
+
+    @Test
+    public void shouldIndexIdAttributesOnce() throws Exception {
+        assertEquals(null, document.getElementById("allTheCarsInTheWorld"));
+        assertTrue(XmlSigningUtils.indexIdAttributes(document) > 0);
+        assertEquals(document.getDocumentElement(), document.getElementById("allTheCarsInTheWorld"));
+        assertEquals(0, XmlSigningUtils.indexIdAttributes(document));
+    }
+
+    @Test
+    public void shouldNotValidateWrappedDocument_duplicate_id() throws Exception {
+        final Document signed = parse("<r><a ID=\"x\">good</a></r>");
+        XmlSigningUtils.signDocumentByKey(signed, "#x", null, someKey, HashType.HMAC_SHA_1);
+        assertTrue(XmlSigningUtils.validateDocumentByKey(parse(serialize(signed)), someKey));
+
+        final Document wrapped = parse(serialize(signed));
+        final Element evil = wrapped.createElement("a");
+        evil.setAttribute("ID", "x");
+        evil.setTextContent("evil");
+        wrapped.getDocumentElement().insertBefore(evil, wrapped.getDocumentElement().getFirstChild());
+        try {
+            XmlSigningUtils.validateDocumentByKey(wrapped, someKey);
+            fail("Expected the duplicate id to be rejected");
+        } catch (final SignatureException e) {
+            assertEquals("The id x is used by more than one element.", e.getMessage());
+        }
+        try {
+            SignatureValidator.forKeys(Collections.singletonList(someKey)).validate(wrapped);
+            fail("Expected the duplicate id to be rejected");
+        } catch (final SignatureException e) {
+            assertEquals("The id x is used by more than one element.", e.getMessage());
+        }
+    }
+
+    @Test(expected = SignatureException.class)
+    public void shouldFailSigning_duplicate_id() throws Exception {
+        XmlSigningUtils.signDocumentByKey(parse("<r><a ID=\"x\">one</a><a ID=\"x\">two</a></r>"), "#x", null,
+                someKey, HashType.HMAC_SHA_1);
+    }
+
+    @Test
+    public void shouldSignDocumentWithOneReference_same_as_single_reference_signing() throws Exception {
+        final SigningProfile profile = SigningProfile.forKey(someKey, HashType.HMAC_SHA_1);
+        XmlSigningUtils.signDocument(document, Collections.singletonList("#allTheCarsInTheWorld"), null, profile);
+        assertEquals("O3FtmZSNYAv1Gzcp408sJHe3Rog=",
+                document.getElementsByTagName("ds:SignatureValue").item(0).getTextContent());
+    }
+
+    @Test
+    public void shouldSignDocumentWithSeveralReferences() throws Exception {
+        final Element golf = (Element) document.getElementsByTagName("model").item(0);
+        final Element polo = (Element) document.getElementsByTagName("model").item(1);
+        golf.setAttribute("id", "golf");
+        polo.setAttribute("id", "polo");
+        XmlSigningUtils.signDocument(document, Arrays.asList("#allTheCarsInTheWorld", "#golf", "#polo"), null,
+                SigningProfile.forKey(someKey, HashType.HMAC_SHA_256));
+        assertEquals(3, document.getElementsByTagName("ds:Reference").getLength());
+        assertTrue(XmlSigningUtils.validateDocumentByKey(document, someKey));
+        polo.getElementsByTagName("name").item(0).setTextContent("Passat");
+        assertFalse(XmlSigningUtils.validateDocumentByKey(document, someKey));
+    }
+
+    @Test(expected = SignatureException.class)
+    public void shouldFailSigningDocumentWithSeveralReferences_no_such_element() throws Exception {
+        XmlSigningUtils.signDocument(document, Arrays.asList("#allTheCarsInTheWorld", "#ThereIsNoElementNamedThis"),
+                null, SigningProfile.forKey(someKey, HashType.HMAC_SHA_1));
+    }
+
+    @Test(expected = SignatureException.class)
+    public void shouldFailCreatingProfile_wrong_HashType() throws SignatureException {
+        SigningProfile.forKey(someKey, HashType.AES);
+    }
+
+    private static String serialize(final Document document) throws Exception {
+        final StringWriter writer = new StringWriter();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(writer));
+        return writer.toString();
+    }
+
+    private static Document parse(final String xml) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8)));
+    }
+
 }
@@ -24,13 +24,11 @@ import java.security.cert.X509Certificate;
 public abstract class AbstractTest {
 
     protected static X509Certificate getCertificateFromLocalKeyStore(String alias) throws KeyStoreException {
-        KeyStoreUtils.setKeystoreType("JKS");
         final KeyStore keyStore = getKeyStoreByName("fun_certificates.jks", "telenor");
         return KeyStoreUtils.getCertificate(keyStore, alias);
     }
 
     protected static Key getAESKeyFromLocalKeyStore(String alias, String password) throws KeyStoreException {
-        KeyStoreUtils.setKeystoreType("JCEKS");
         final KeyStore keyStore = getKeyStoreByName("fun.jceks", "vegard");
         return KeyStoreUtils.getKey(keyStore, alias, password);
     }